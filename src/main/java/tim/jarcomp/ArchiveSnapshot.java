@@ -0,0 +1,378 @@
+package tim.jarcomp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Class to hold the index of an archive in a small file, with the names,
+ * sizes, crcs, compressed sizes and checksums of all its entries. A snapshot
+ * can be compared instead of the archive itself, so a baseline only has to be
+ * read and hashed once, and the archive doesn't need to be kept. The snapshot
+ * is mapped into memory and the details are read straight from the mapping.
+ * The records are sorted by name so that single entries can be found quickly,
+ * and a hash over all the entries shows whether two snapshots are the same
+ */
+public class ArchiveSnapshot {
+	/** Mapping of the whole snapshot file */
+	private final MappedByteBuffer buffer;
+	/** Number of entries */
+	private final int numEntries;
+	/** Length of the original archive */
+	private final long archiveLength;
+	/** Algorithm used for the checksums, or null if there aren't any */
+	private final DigestAlgorithm algorithm;
+	/** Hash over all the entries, or null if some of the checksums are missing */
+	private final byte[] rootHash;
+	/** Position of the first record */
+	private final int recordsStart;
+
+	/** Marker at the start of each snapshot file, including the format version */
+	private static final byte[] MAGIC = "JarComp\u0002".getBytes(StandardCharsets.ISO_8859_1);
+	/** Length of each record: size, compressed size, crc, then start and length of name and checksum */
+	private static final int RECORD_LENGTH = 40;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inBuffer mapping of the snapshot file
+	 * @param inName   name of the file for error messages
+	 * @throws IOException if the file isn't a valid snapshot
+	 */
+	private ArchiveSnapshot(MappedByteBuffer inBuffer, String inName) throws IOException {
+		buffer = inBuffer;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.limit() <= MAGIC.length || buffer.get(i) != MAGIC[i]) {
+				throw new IOException(inName + " isn't a snapshot file");
+			}
+		}
+		numEntries = buffer.getInt(MAGIC.length);
+		archiveLength = buffer.getLong(MAGIC.length + 4);
+		final int keyLength = buffer.getShort(MAGIC.length + 12);
+		byte[] key = new byte[keyLength];
+		for (int i = 0; i < keyLength; i++) {
+			key[i] = buffer.get(MAGIC.length + 14 + i);
+		}
+		algorithm = keyLength == 0 ? null : DigestAlgorithm.fromKey(new String(key, StandardCharsets.UTF_8));
+		final int hashStart = MAGIC.length + 16 + keyLength;
+		final int hashLength = buffer.getShort(hashStart - 2);
+		rootHash = hashLength == 0 ? null : new byte[hashLength];
+		for (int i = 0; i < hashLength; i++) {
+			rootHash[i] = buffer.get(hashStart + i);
+		}
+		recordsStart = hashStart + hashLength;
+		if (numEntries < 0 || recordsStart + (long) numEntries * RECORD_LENGTH > buffer.limit()) {
+			throw new IOException(inName + " is too short for its " + numEntries + " entries");
+		}
+	}
+
+	/**
+	 * @param inFile file to check
+	 * @return true if the file starts like a snapshot
+	 */
+	public static boolean isSnapshot(File inFile) {
+		if (inFile == null || !inFile.isFile() || inFile.length() < MAGIC.length) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(inFile))) {
+			byte[] start = new byte[MAGIC.length];
+			in.readFully(start);
+			return Arrays.equals(start, MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Map the given snapshot file
+	 *
+	 * @param inFile snapshot file
+	 * @return snapshot object
+	 * @throws IOException if the file couldn't be read or isn't a snapshot
+	 */
+	public static ArchiveSnapshot open(File inFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(inFile.getName() + " is too big to be a snapshot");
+			}
+			return new ArchiveSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size()),
+					inFile.getName());
+		}
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int getNumEntries() {
+		return numEntries;
+	}
+
+	/**
+	 * @return length of the original archive
+	 */
+	public long getArchiveLength() {
+		return archiveLength;
+	}
+
+	/**
+	 * @return algorithm used for the checksums, or null if there aren't any
+	 */
+	public DigestAlgorithm getDigestAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Check whether this snapshot has the same entries with the same contents as
+	 * another, without looking at the entries
+	 *
+	 * @param inOther other snapshot
+	 * @return true if the hashes over all the entries are the same
+	 */
+	public boolean hasSameContents(ArchiveSnapshot inOther) {
+		return rootHash != null && algorithm == inOther.algorithm && Arrays.equals(rootHash, inOther.rootHash);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return name of the entry
+	 */
+	public String getName(int inEntry) {
+		final int record = recordsStart + inEntry * RECORD_LENGTH;
+		return getString(buffer.getInt(record + 24), buffer.getInt(record + 28));
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return uncompressed size
+	 */
+	public long getSize(int inEntry) {
+		return buffer.getLong(recordsStart + inEntry * RECORD_LENGTH);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return compressed size, or -1 if not known
+	 */
+	public long getCompressedSize(int inEntry) {
+		return buffer.getLong(recordsStart + inEntry * RECORD_LENGTH + 8);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return crc value, or -1 if not known
+	 */
+	public long getCrc(int inEntry) {
+		return buffer.getLong(recordsStart + inEntry * RECORD_LENGTH + 16);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return checksum, or null if not known
+	 */
+	public String getDigest(int inEntry) {
+		final int record = recordsStart + inEntry * RECORD_LENGTH;
+		final int length = buffer.getInt(record + 36);
+		return length < 0 ? null : getString(buffer.getInt(record + 32), length);
+	}
+
+	/**
+	 * Find an entry by binary search of the names
+	 *
+	 * @param inName name of entry, including full path
+	 * @return entry number, or -1 if not found
+	 */
+	public int find(String inName) {
+		final byte[] name = inName.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = numEntries - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int comparison = compareName(mid, name);
+			if (comparison == 0) {
+				return mid;
+			}
+			if (comparison < 0) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inName  name as utf-8 bytes
+	 * @return negative, zero or positive as the entry's name comes before, is equal
+	 *         to or comes after the given one
+	 */
+	private int compareName(int inEntry, byte[] inName) {
+		final int record = recordsStart + inEntry * RECORD_LENGTH;
+		final int start = buffer.getInt(record + 24);
+		final int length = buffer.getInt(record + 28);
+		for (int i = 0; i < length && i < inName.length; i++) {
+			final int comparison = Integer.compare(buffer.get(start + i) & 0xff, inName[i] & 0xff);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return Integer.compare(length, inName.length);
+	}
+
+	/**
+	 * @param inStart  position in the mapping
+	 * @param inLength number of bytes
+	 * @return utf-8 string read from the mapping
+	 */
+	private String getString(int inStart, int inLength) {
+		byte[] bytes = new byte[inLength];
+		for (int i = 0; i < inLength; i++) {
+			bytes[i] = buffer.get(inStart + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Put all the entries into the given side of the store
+	 *
+	 * @param inStore store to fill
+	 * @param inIndex index, either 0 or 1
+	 * @return number of entries added
+	 */
+	int addEntries(EntryStore inStore, int inIndex) {
+		inStore.ensureCapacity(Math.max(inStore.size(), numEntries));
+		for (int i = 0; i < numEntries; i++) {
+			setEntry(inStore.getOrAdd(getName(i)), inIndex, i);
+		}
+		return numEntries;
+	}
+
+	/**
+	 * Put all the entries into the given side of a store which already holds
+	 * exactly the same names in the same order, so that they don't have to be
+	 * looked up. This is the case for the other side of a snapshot with the same contents
+	 *
+	 * @param inStore store filled from the other snapshot
+	 * @param inIndex index, either 0 or 1
+	 * @return number of entries added
+	 */
+	int addEntriesInOrder(EntryStore inStore, int inIndex) {
+		if (inStore.size() != numEntries) {
+			return addEntries(inStore, inIndex);
+		}
+		for (int i = 0; i < numEntries; i++) {
+			setEntry(inStore.get(i), inIndex, i);
+		}
+		return numEntries;
+	}
+
+	/**
+	 * Copy the details of one entry into the store
+	 *
+	 * @param inDetails details to fill
+	 * @param inIndex   index, either 0 or 1
+	 * @param inEntry   entry number in this snapshot
+	 */
+	private void setEntry(EntryDetails inDetails, int inIndex, int inEntry) {
+		inDetails.setSize(inIndex, getSize(inEntry));
+		inDetails.setCrc(inIndex, getCrc(inEntry));
+		inDetails.setCompressedSize(inIndex, getCompressedSize(inEntry));
+		final String digest = getDigest(inEntry);
+		if (digest != null) {
+			inDetails.setMd5Sum(inIndex, digest);
+		}
+	}
+
+	/**
+	 * List an archive and calculate the checksums of all its entries, then write
+	 * them all to a snapshot file
+	 *
+	 * @param inArchive  archive to read
+	 * @param inSnapshot snapshot file to write
+	 * @param inSettings settings giving the digest algorithm and threads
+	 * @throws IOException if the snapshot couldn't be written
+	 */
+	public static void write(File inArchive, File inSnapshot, CompareSettings inSettings) throws IOException {
+		CompareSettings settings = inSettings.copy();
+		settings.setMode(CompareSettings.CompareMode.DIGEST);
+		EntryStore store = new EntryStore();
+		Comparer.makeEntries(store, inArchive, 0, settings);
+		settings.getProgress().setPhase(CompareProgress.Phase.CHECKING_CONTENTS, store.size());
+		try {
+			// Only the first side is present, so only the archive is read
+			new ParallelHasher(inArchive, inArchive, store.asList(), settings).run();
+		} finally {
+			if (settings.getDigestCache() != null) {
+				settings.getDigestCache().save();
+			}
+		}
+
+		final int numEntries = store.size();
+		byte[][] names = new byte[numEntries][];
+		byte[][] digests = new byte[numEntries][];
+		int[] order = new int[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			names[i] = store.getName(i).getBytes(StandardCharsets.UTF_8);
+			final String digest = store.getDigest(i, 0);
+			digests[i] = digest == null ? null : digest.getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		IndexSorter.sort(order, numEntries, (a, b) -> Arrays.compareUnsigned(names[a], names[b]));
+		final byte[] key = settings.getDigestAlgorithm().getKey().getBytes(StandardCharsets.UTF_8);
+		final byte[] rootHash = MerkleTree.getRootHash(store, 0);
+		final int hashLength = rootHash == null ? 0 : rootHash.length;
+		final long recordsStart = MAGIC.length + 16 + key.length + hashLength;
+		long position = recordsStart + (long) numEntries * RECORD_LENGTH;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(inSnapshot)))) {
+			out.write(MAGIC);
+			out.writeInt(numEntries);
+			out.writeLong(inArchive.length());
+			out.writeShort(key.length);
+			out.write(key);
+			out.writeShort(hashLength);
+			if (rootHash != null) {
+				out.write(rootHash);
+			}
+			// The names and checksums follow all the records
+			for (int entry : order) {
+				out.writeLong(store.getSize(entry, 0));
+				out.writeLong(store.getCompressedSize(entry, 0));
+				out.writeLong(store.getCrc(entry, 0));
+				out.writeInt(toInt(position));
+				out.writeInt(names[entry].length);
+				position += names[entry].length;
+				out.writeInt(toInt(position));
+				out.writeInt(digests[entry] == null ? -1 : digests[entry].length);
+				position += digests[entry] == null ? 0 : digests[entry].length;
+			}
+			for (int entry : order) {
+				out.write(names[entry]);
+				if (digests[entry] != null) {
+					out.write(digests[entry]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param inPosition position in the snapshot file
+	 * @return position as an int
+	 * @throws IOException if the snapshot would be too big
+	 */
+	private static int toInt(long inPosition) throws IOException {
+		if (inPosition > Integer.MAX_VALUE) {
+			throw new IOException("Too many entries for a snapshot");
+		}
+		return (int) inPosition;
+	}
+}
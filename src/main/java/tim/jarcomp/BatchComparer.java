@@ -0,0 +1,344 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class to compare all the archives in two directory trees, for example the lib
+ * directories of two releases. Archives are paired by their relative paths, or
+ * failing that by their artifact names without version numbers, and the pairs
+ * are compared in parallel, largest first
+ */
+public class BatchComparer {
+	/** Stream to write results to */
+	private final PrintStream output;
+	/** Output format */
+	private final HeadlessCompare.OutputFormat format;
+
+	/** Pattern to separate artifact name from version, like name-1.2.3-SNAPSHOT.jar */
+	private static final Pattern VERSIONED_NAME = Pattern.compile("(.+?)-\\d[^/]*(\\.[a-zA-Z]+)");
+
+	/** Constants for the result of comparing a pair */
+	public enum PairStatus {
+		/** Archives have the same contents */
+		IDENTICAL,
+		/** Archives have different contents */
+		DIFFERENT,
+		/** Archive only found in second directory */
+		ADDED,
+		/** Archive only found in first directory */
+		REMOVED,
+		/** Archives couldn't be read */
+		ERROR
+	}
+
+	/**
+	 * Class to hold a pair of archives and the result of comparing them
+	 */
+	private static class ArchivePair {
+		/** Archives, either of which may be null */
+		final File[] files = new File[2];
+		/** Relative path for display */
+		String path = null;
+		/** Result of comparison */
+		PairStatus status = null;
+		/** Number of entries added, removed and changed, including moved ones */
+		final int[] counts = new int[3];
+
+		/** @return total size of both archives */
+		long getTotalSize() {
+			return (files[0] == null ? 0L : files[0].length()) + (files[1] == null ? 0L : files[1].length());
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param inOutput stream to write results to
+	 * @param inFormat output format
+	 */
+	public BatchComparer(PrintStream inOutput, HeadlessCompare.OutputFormat inFormat) {
+		output = inOutput;
+		format = inFormat;
+	}
+
+	/**
+	 * Compare all the archives in the two directories
+	 *
+	 * @param inDir1     first directory
+	 * @param inDir2     second directory
+	 * @param inSettings settings for each comparison
+	 * @return exit code, one of the HeadlessCompare.EXIT constants
+	 */
+	public int compare(File inDir1, File inDir2, CompareSettings inSettings) {
+		List<ArchivePair> pairs = makePairs(findArchives(inDir1), findArchives(inDir2));
+		// Start with the biggest pairs so that the small ones can fill the gaps at the end
+		pairs.sort((p1, p2) -> Long.compare(p2.getTotalSize(), p1.getTotalSize()));
+		final int numThreads = inSettings.getNumThreads();
+		CompareSettings pairSettings = inSettings.copy();
+		pairSettings.setNumThreads(1);
+		pairSettings.setListener(null);
+
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			output.println("path,status,added,removed,changed");
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		CompletionService<ArchivePair> completionService = new ExecutorCompletionService<>(executor);
+		for (ArchivePair pair : pairs) {
+			completionService.submit(() -> comparePair(pair, pairSettings));
+		}
+		int[] numByStatus = new int[PairStatus.values().length];
+		try {
+			for (int i = 0; i < pairs.size(); i++) {
+				ArchivePair pair = completionService.take().get();
+				numByStatus[pair.status.ordinal()]++;
+				writePair(pair);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return HeadlessCompare.EXIT_ERROR;
+		} catch (ExecutionException e) {
+			System.err.println("Exception: " + e.getCause());
+			return HeadlessCompare.EXIT_ERROR;
+		} finally {
+			executor.shutdownNow();
+		}
+		writeSummary(numByStatus);
+		if (numByStatus[PairStatus.ERROR.ordinal()] > 0) {
+			return HeadlessCompare.EXIT_ERROR;
+		}
+		return (numByStatus[PairStatus.IDENTICAL.ordinal()] == pairs.size()) ? HeadlessCompare.EXIT_IDENTICAL
+				: HeadlessCompare.EXIT_DIFFERENT;
+	}
+
+	/**
+	 * Find all the archives in the given directory and its subdirectories
+	 *
+	 * @param inDir directory to search
+	 * @return map of archives keyed by relative path, sorted by path
+	 */
+	private static TreeMap<String, File> findArchives(File inDir) {
+		TreeMap<String, File> archives = new TreeMap<>();
+		addArchives(inDir, "", archives);
+		return archives;
+	}
+
+	/**
+	 * Recursively add the archives in a directory
+	 *
+	 * @param inDir      directory to search
+	 * @param inPrefix   relative path of directory, either empty or ending in /
+	 * @param inArchives map to add to
+	 */
+	private static void addArchives(File inDir, String inPrefix, Map<String, File> inArchives) {
+		File[] files = inDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				addArchives(file, inPrefix + file.getName() + "/", inArchives);
+			} else if (NestedArchives.isArchiveName(file.getName())) {
+				inArchives.put(inPrefix + file.getName(), file);
+			}
+		}
+	}
+
+	/**
+	 * Pair up the archives from the two directories
+	 *
+	 * @param inArchives1 archives from first directory
+	 * @param inArchives2 archives from second directory
+	 * @return list of pairs, including unmatched archives
+	 */
+	private static List<ArchivePair> makePairs(TreeMap<String, File> inArchives1, TreeMap<String, File> inArchives2) {
+		ArrayList<ArchivePair> pairs = new ArrayList<>();
+		// First match the exact paths
+		for (String path : new ArrayList<>(inArchives1.keySet())) {
+			File file2 = inArchives2.remove(path);
+			if (file2 != null) {
+				ArchivePair pair = new ArchivePair();
+				pair.path = path;
+				pair.files[0] = inArchives1.remove(path);
+				pair.files[1] = file2;
+				pairs.add(pair);
+			}
+		}
+		// Then match the remaining ones by artifact name, if that's unique on each side
+		Map<String, List<String>> byArtifact1 = groupByArtifact(inArchives1.keySet());
+		Map<String, List<String>> byArtifact2 = groupByArtifact(inArchives2.keySet());
+		for (Map.Entry<String, List<String>> artifact : byArtifact1.entrySet()) {
+			List<String> paths2 = byArtifact2.getOrDefault(artifact.getKey(), Collections.emptyList());
+			if (artifact.getValue().size() == 1 && paths2.size() == 1) {
+				ArchivePair pair = new ArchivePair();
+				pair.path = artifact.getValue().get(0) + " -> " + paths2.get(0);
+				pair.files[0] = inArchives1.remove(artifact.getValue().get(0));
+				pair.files[1] = inArchives2.remove(paths2.get(0));
+				pairs.add(pair);
+			}
+		}
+		// Anything left over is only on one side
+		for (int f = 0; f < 2; f++) {
+			for (Map.Entry<String, File> archive : (f == 0 ? inArchives1 : inArchives2).entrySet()) {
+				ArchivePair pair = new ArchivePair();
+				pair.path = archive.getKey();
+				pair.files[f] = archive.getValue();
+				pairs.add(pair);
+			}
+		}
+		return pairs;
+	}
+
+	/**
+	 * @param inPaths relative paths of archives
+	 * @return paths grouped by artifact name
+	 */
+	private static Map<String, List<String>> groupByArtifact(Iterable<String> inPaths) {
+		HashMap<String, List<String>> groups = new HashMap<>();
+		for (String path : inPaths) {
+			groups.computeIfAbsent(getArtifactName(path), k -> new ArrayList<>()).add(path);
+		}
+		return groups;
+	}
+
+	/**
+	 * @param inPath relative path of archive
+	 * @return path without version number, like lib/foo.jar for lib/foo-1.2.jar
+	 */
+	static String getArtifactName(String inPath) {
+		Matcher matcher = VERSIONED_NAME.matcher(inPath);
+		if (matcher.matches()) {
+			return matcher.group(1) + matcher.group(2);
+		}
+		return inPath;
+	}
+
+	/**
+	 * Compare a single pair of archives
+	 *
+	 * @param inPair     pair to compare
+	 * @param inSettings settings for comparison
+	 * @return the same pair, with its results filled in
+	 */
+	private static ArchivePair comparePair(ArchivePair inPair, CompareSettings inSettings) {
+		if (inPair.files[0] == null || inPair.files[1] == null) {
+			inPair.status = (inPair.files[0] == null ? PairStatus.ADDED : PairStatus.REMOVED);
+			return inPair;
+		}
+		if (isSameArchive(inPair.files[0], inPair.files[1], inSettings)) {
+			inPair.status = PairStatus.IDENTICAL;
+			return inPair;
+		}
+		CompareSettings settings = inSettings.copy();
+		settings.setProgress(new CompareProgress());
+		final boolean[] failed = new boolean[1];
+		settings.setListener(new CompareListener() {
+			@Override
+			public void entryClassified(EntryDetails inEntry) {
+				// results are counted at the end
+			}
+
+			@Override
+			public void errorOccurred(String inMessage) {
+				failed[0] = true;
+			}
+		});
+		CompareResults results = Comparer.compare(inPair.files[0], inPair.files[1], settings);
+		inPair.counts[0] = results.getNumEntries(EntryDetails.EntryStatus.ADDED);
+		inPair.counts[1] = results.getNumEntries(EntryDetails.EntryStatus.REMOVED);
+		// Moved files count as changed, once each although both their old and new paths are counted
+		inPair.counts[2] = results.getNumEntries(EntryDetails.EntryStatus.CHANGED_SIZE)
+				+ results.getNumEntries(EntryDetails.EntryStatus.CHANGED_SUM)
+				+ (results.getNumEntries(EntryDetails.EntryStatus.MOVED)
+						+ results.getNumEntries(EntryDetails.EntryStatus.RENAMED)) / 2;
+		if (failed[0]) {
+			inPair.status = PairStatus.ERROR;
+		} else {
+			inPair.status = results.getEntriesDifferent() ? PairStatus.DIFFERENT : PairStatus.IDENTICAL;
+		}
+		return inPair;
+	}
+
+	/**
+	 * Check whether two archives can be seen to be the same without listing them.
+	 * This is the case if they're the same file, if they're snapshots with the
+	 * same hash over all their entries, or if their central directories are
+	 * identical and the contents aren't going to be checked
+	 *
+	 * @param inFile1    first archive
+	 * @param inFile2    second archive
+	 * @param inSettings settings for comparison
+	 * @return true if the archives are known to be the same
+	 */
+	private static boolean isSameArchive(File inFile1, File inFile2, CompareSettings inSettings) {
+		try {
+			if (Files.isSameFile(inFile1.toPath(), inFile2.toPath())) {
+				return true;
+			}
+			if (ArchiveSnapshot.isSnapshot(inFile1) && ArchiveSnapshot.isSnapshot(inFile2)) {
+				return ArchiveSnapshot.open(inFile1).hasSameContents(ArchiveSnapshot.open(inFile2));
+			}
+			// Identical directories only show the same sizes and crcs, which isn't enough if the contents are checked
+			if (inFile1.length() != inFile2.length() || inSettings.getMode().readsContents()) {
+				return false;
+			}
+			return CentralDirectory.open(inFile1).hasSameContents(CentralDirectory.open(inFile2));
+		} catch (IOException e) {
+			// Leave it to the full comparison to report the problem
+			return false;
+		}
+	}
+
+	/**
+	 * Write the result of a single pair
+	 *
+	 * @param inPair pair which has been compared
+	 */
+	private void writePair(ArchivePair inPair) {
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			output.println(HeadlessCompare.csvValue(inPair.path) + "," + inPair.status + "," + inPair.counts[0] + ","
+					+ inPair.counts[1] + "," + inPair.counts[2]);
+		} else {
+			output.println("{\"path\":" + HeadlessCompare.jsonValue(inPair.path) + ",\"status\":\"" + inPair.status
+					+ "\",\"added\":" + inPair.counts[0] + ",\"removed\":" + inPair.counts[1] + ",\"changed\":"
+					+ inPair.counts[2] + "}");
+		}
+		output.flush();
+	}
+
+	/**
+	 * Write the summary at the end
+	 *
+	 * @param inNumByStatus number of pairs with each status
+	 */
+	private void writeSummary(int[] inNumByStatus) {
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			for (PairStatus status : PairStatus.values()) {
+				output.println("# " + status + "," + inNumByStatus[status.ordinal()]);
+			}
+		} else {
+			StringBuilder builder = new StringBuilder("{\"summary\":{");
+			for (PairStatus status : PairStatus.values()) {
+				builder.append(status.ordinal() == 0 ? "" : ",").append('"').append(status).append("\":")
+						.append(inNumByStatus[status.ordinal()]);
+			}
+			output.println(builder.append("}}"));
+		}
+		output.flush();
+	}
+}
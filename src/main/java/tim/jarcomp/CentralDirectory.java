@@ -0,0 +1,576 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class to read the central directory of a zip file directly from a memory
+ * mapping, without creating ZipEntry objects. Records are visited with a
+ * Cursor, which reads each field from the mapping only when asked
+ */
+public class CentralDirectory {
+	/** Mapping of the whole central directory */
+	private final MappedByteBuffer buffer;
+	/** Number of records in the central directory */
+	private final long numEntries;
+	/** Offset to add to stored positions to get positions in the file */
+	private final long baseOffset;
+	/** Length of the archive */
+	private final long fileLength;
+	/** Comment of the whole archive */
+	private final byte[] comment;
+
+	/** Signature of end of central directory record */
+	private static final int END_SIGNATURE = 0x06054b50;
+	/** Signature of zip64 end of central directory locator */
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	/** Signature of zip64 end of central directory record */
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	/** Signature of each local file header */
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	/** Length of local file header before its name */
+	private static final int LOCAL_HEADER_LENGTH = 30;
+	/** Signature of each central directory record */
+	private static final int RECORD_SIGNATURE = 0x02014b50;
+	/** Length of end record without comment */
+	private static final int END_LENGTH = 22;
+	/** Length of zip64 locator */
+	private static final int ZIP64_LOCATOR_LENGTH = 20;
+	/** Length of zip64 end record without extensible data */
+	private static final int ZIP64_END_LENGTH = 56;
+	/** Length of each record before its name */
+	private static final int RECORD_HEADER_LENGTH = 46;
+	/** Id of zip64 extra field */
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	/** Marker for values which don't fit in 32 bits */
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+	/** Marker for counts which don't fit in 16 bits */
+	private static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inBuffer     mapping of central directory
+	 * @param inNumEntries number of records
+	 * @param inBaseOffset offset to add to stored positions
+	 * @param inFileLength length of the archive
+	 * @param inComment    comment of the archive
+	 */
+	private CentralDirectory(MappedByteBuffer inBuffer, long inNumEntries, long inBaseOffset, long inFileLength,
+			byte[] inComment) {
+		buffer = inBuffer;
+		numEntries = inNumEntries;
+		baseOffset = inBaseOffset;
+		fileLength = inFileLength;
+		comment = inComment;
+	}
+
+	/**
+	 * Map the central directory of the given file
+	 *
+	 * @param inFile zip or jar file
+	 * @return central directory object
+	 * @throws IOException if the file couldn't be read or isn't a zip file
+	 */
+	public static CentralDirectory open(File inFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+			return open(channel, 0L, channel.size(), inFile.getName());
+		}
+	}
+
+	/**
+	 * Map the central directory of a zip file stored in the given region of a
+	 * channel, for example a jar stored uncompressed inside another jar
+	 *
+	 * @param inChannel channel to read, which may be closed afterwards
+	 * @param inStart   start position of the zip file in the channel
+	 * @param inLength  length of the zip file
+	 * @param inName    name of the zip file for error messages
+	 * @return central directory object
+	 * @throws IOException if the region couldn't be read or isn't a zip file
+	 */
+	public static CentralDirectory open(FileChannel inChannel, long inStart, long inLength, String inName)
+			throws IOException {
+		if (inLength < END_LENGTH || inStart + inLength > inChannel.size()) {
+			throw new IOException(inName + " is too short to be a zip file");
+		}
+		// The end record is followed by a comment of up to 64k
+		final long tailStart = Math.max(0L, inLength - END_LENGTH - 0xffff - ZIP64_LOCATOR_LENGTH);
+		MappedByteBuffer tail = inChannel.map(FileChannel.MapMode.READ_ONLY, inStart + tailStart,
+				inLength - tailStart);
+		tail.order(ByteOrder.LITTLE_ENDIAN);
+		int endPos = tail.limit() - END_LENGTH;
+		while (endPos >= 0 && tail.getInt(endPos) != END_SIGNATURE) {
+			endPos--;
+		}
+		if (endPos < 0) {
+			throw new IOException(inName + " has no end of central directory");
+		}
+		long numEntries = tail.getShort(endPos + 10) & 0xffff;
+		long dirSize = tail.getInt(endPos + 12) & ZIP64_MAGIC;
+		long dirOffset = tail.getInt(endPos + 16) & ZIP64_MAGIC;
+		byte[] comment = new byte[Math.min(tail.getShort(endPos + 20) & 0xffff, tail.limit() - endPos - END_LENGTH)];
+		for (int i = 0; i < comment.length; i++) {
+			comment[i] = tail.get(endPos + END_LENGTH + i);
+		}
+		long dirEnd = tailStart + endPos;
+		final int locatorPos = endPos - ZIP64_LOCATOR_LENGTH;
+		if ((numEntries == ZIP64_MAGIC_COUNT || dirSize == ZIP64_MAGIC || dirOffset == ZIP64_MAGIC)
+				&& locatorPos >= 0 && tail.getInt(locatorPos) == ZIP64_LOCATOR_SIGNATURE) {
+			// Read the zip64 end record instead
+			long zip64EndPos = tail.getLong(locatorPos + 8);
+			MappedByteBuffer zip64End = mapZip64End(inChannel, inStart, inLength, zip64EndPos);
+			if (zip64End == null) {
+				// Data before the start of the archive moves the record, which usually comes just before the locator
+				zip64EndPos = tailStart + locatorPos - ZIP64_END_LENGTH;
+				zip64End = mapZip64End(inChannel, inStart, inLength, zip64EndPos);
+			}
+			if (zip64End == null) {
+				throw new IOException(inName + " has an invalid zip64 end record");
+			}
+			numEntries = zip64End.getLong(32);
+			dirSize = zip64End.getLong(40);
+			dirOffset = zip64End.getLong(48);
+			dirEnd = zip64EndPos;
+		}
+		if (dirSize > Integer.MAX_VALUE || dirSize > dirEnd) {
+			throw new IOException(inName + " has an invalid central directory size");
+		}
+		// Allow for data before the start of the archive, such as a launch script
+		final long dirStart = dirEnd - dirSize;
+		MappedByteBuffer directory = inChannel.map(FileChannel.MapMode.READ_ONLY, inStart + dirStart, dirSize);
+		directory.order(ByteOrder.LITTLE_ENDIAN);
+		if (dirSize >= (numEntries + 0x10000L) * RECORD_HEADER_LENGTH) {
+			// Room for more records than the 16-bit count says, so the count may have wrapped without zip64
+			numEntries = countRecords(directory, inName);
+		}
+		return new CentralDirectory(directory, numEntries, inStart + dirStart - dirOffset, inLength, comment);
+	}
+
+	/**
+	 * Count the records by stepping through the whole central directory
+	 *
+	 * @param inDirectory mapping of central directory
+	 * @param inName      name of the zip file for error messages
+	 * @return number of records
+	 * @throws IOException if any record is invalid
+	 */
+	private static long countRecords(MappedByteBuffer inDirectory, String inName) throws IOException {
+		long numRecords = 0L;
+		int position = 0;
+		while (position + RECORD_HEADER_LENGTH <= inDirectory.limit()) {
+			position += checkRecord(inDirectory, position);
+			numRecords++;
+		}
+		return numRecords;
+	}
+
+	/**
+	 * Check that a record has the right signature and fits in the central directory
+	 *
+	 * @param inDirectory mapping of central directory
+	 * @param inPosition  position of the record, whose fixed part must be in the buffer
+	 * @return length of the record
+	 * @throws IOException if the record is invalid
+	 */
+	private static int checkRecord(MappedByteBuffer inDirectory, int inPosition) throws IOException {
+		if (inDirectory.getInt(inPosition) != RECORD_SIGNATURE) {
+			throw new IOException("Invalid central directory record at " + inPosition);
+		}
+		final int length = RECORD_HEADER_LENGTH + (inDirectory.getShort(inPosition + 28) & 0xffff)
+				+ (inDirectory.getShort(inPosition + 30) & 0xffff) + (inDirectory.getShort(inPosition + 32) & 0xffff);
+		if (inPosition + length > inDirectory.limit()) {
+			throw new IOException("Central directory record at " + inPosition + " runs past the end");
+		}
+		return length;
+	}
+
+	/**
+	 * Map the zip64 end record expected at the given position
+	 *
+	 * @param inChannel channel to read
+	 * @param inStart   start position of the zip file in the channel
+	 * @param inLength  length of the zip file
+	 * @param inPos     position of the record within the zip file
+	 * @return mapping of the record, or null if there isn't one at this position
+	 * @throws IOException if the channel couldn't be read
+	 */
+	private static MappedByteBuffer mapZip64End(FileChannel inChannel, long inStart, long inLength, long inPos)
+			throws IOException {
+		if (inPos < 0L || inPos + ZIP64_END_LENGTH > inLength) {
+			return null;
+		}
+		MappedByteBuffer zip64End = inChannel.map(FileChannel.MapMode.READ_ONLY, inStart + inPos, ZIP64_END_LENGTH);
+		zip64End.order(ByteOrder.LITTLE_ENDIAN);
+		return zip64End.getInt(0) == ZIP64_END_SIGNATURE ? zip64End : null;
+	}
+
+	/**
+	 * Find the start of an entry's data by reading its local file header
+	 *
+	 * @param inChannel      channel to read
+	 * @param inHeaderOffset position of local file header
+	 * @return position of the first byte of data
+	 * @throws IOException if the header couldn't be read
+	 */
+	public static long getDataOffset(FileChannel inChannel, long inHeaderOffset) throws IOException {
+		ByteBuffer header = readLocal(inChannel, inHeaderOffset, LOCAL_HEADER_LENGTH);
+		final int nameLength = header.getShort(26) & 0xffff;
+		final int extraLength = header.getShort(28) & 0xffff;
+		return inHeaderOffset + LOCAL_HEADER_LENGTH + nameLength + extraLength;
+	}
+
+	/**
+	 * Read a whole local file header, including the name and extra field
+	 *
+	 * @param inChannel      channel to read
+	 * @param inHeaderOffset position of local file header
+	 * @return buffer holding the header, in little-endian order
+	 * @throws IOException if the header couldn't be read
+	 */
+	public static ByteBuffer readLocalHeader(FileChannel inChannel, long inHeaderOffset) throws IOException {
+		ByteBuffer header = readLocal(inChannel, inHeaderOffset, LOCAL_HEADER_LENGTH);
+		final int length = LOCAL_HEADER_LENGTH + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+		return readLocal(inChannel, inHeaderOffset, length);
+	}
+
+	/**
+	 * @param inChannel      channel to read
+	 * @param inHeaderOffset position of local file header
+	 * @param inLength       number of bytes to read
+	 * @return buffer holding the start of the header, in little-endian order
+	 * @throws IOException if the bytes couldn't be read or aren't a local header
+	 */
+	private static ByteBuffer readLocal(FileChannel inChannel, long inHeaderOffset, int inLength)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(inLength).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining()) {
+			if (inChannel.read(header, inHeaderOffset + header.position()) < 0) {
+				throw new IOException("Unexpected end of file in local header at " + inHeaderOffset);
+			}
+		}
+		if (header.getInt(0) != LOCAL_SIGNATURE) {
+			throw new IOException("Invalid local header at " + inHeaderOffset);
+		}
+		return header;
+	}
+
+	/**
+	 * @return number of records, including directories
+	 */
+	public long getNumEntries() {
+		return numEntries;
+	}
+
+	/**
+	 * @return length of the archive
+	 */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * @return comment of the whole archive, empty if there isn't one
+	 */
+	public byte[] getComment() {
+		return comment.clone();
+	}
+
+	/**
+	 * Check whether two central directories are byte for byte the same, which
+	 * means that all the names, sizes, crcs and positions are the same
+	 *
+	 * @param inOther other central directory
+	 * @return true if the directories are identical
+	 */
+	public boolean hasSameContents(CentralDirectory inOther) {
+		return numEntries == inOther.numEntries && buffer.equals(inOther.buffer);
+	}
+
+	/**
+	 * @return a new cursor positioned before the first record
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Cursor to step through the records of the central directory in order
+	 */
+	public class Cursor {
+		/** Position of current record in buffer, or -1 before the first one */
+		private int position = -1;
+		/** Length of current record */
+		private int recordLength = 0;
+		/** Number of current record */
+		private long recordNumber = -1L;
+		/** Decoded name of current record, or null if not decoded yet */
+		private String name = null;
+		/** Buffer for the undecoded name, reused for each record */
+		private byte[] nameBytes = new byte[256];
+
+		/**
+		 * Move to the next record
+		 *
+		 * @return true if there is a next record, false at the end
+		 * @throws IOException if the record is invalid
+		 */
+		public boolean next() throws IOException {
+			final int nextPosition = (position < 0 ? 0 : position + recordLength);
+			// The end of the directory is the end of the records, whatever the count says
+			if (nextPosition + RECORD_HEADER_LENGTH > buffer.limit()) {
+				return false;
+			}
+			if (recordNumber + 1 >= numEntries) {
+				throw new IOException("More central directory records than the " + numEntries + " expected");
+			}
+			recordLength = checkRecord(buffer, nextPosition);
+			position = nextPosition;
+			recordNumber++;
+			name = null;
+			return true;
+		}
+
+		/**
+		 * @return number of current record, starting from 0
+		 */
+		public long getRecordNumber() {
+			return recordNumber;
+		}
+
+		/**
+		 * @return version of the zip format and system which made the record
+		 */
+		public int getVersionMadeBy() {
+			return getUnsignedShort(4);
+		}
+
+		/**
+		 * @return version of the zip format needed to extract the entry
+		 */
+		public int getVersionNeeded() {
+			return getUnsignedShort(6);
+		}
+
+		/**
+		 * @return general purpose flags
+		 */
+		public int getFlags() {
+			return getUnsignedShort(8);
+		}
+
+		/**
+		 * @return compression method, 0 for stored and 8 for deflated
+		 */
+		public int getMethod() {
+			return getUnsignedShort(10);
+		}
+
+		/**
+		 * @return modification time and date in dos format, the date in the upper half
+		 */
+		public long getDosTime() {
+			return getUnsignedInt(12);
+		}
+
+		/**
+		 * @return crc of uncompressed contents
+		 */
+		public long getCrc() {
+			return getUnsignedInt(16);
+		}
+
+		/**
+		 * @return compressed size in bytes
+		 */
+		public long getCompressedSize() {
+			return getZip64Value(getUnsignedInt(20), 1);
+		}
+
+		/**
+		 * @return uncompressed size in bytes
+		 */
+		public long getSize() {
+			return getZip64Value(getUnsignedInt(24), 0);
+		}
+
+		/**
+		 * @return position of local file header in the underlying file
+		 */
+		public long getLocalHeaderOffset() {
+			return baseOffset + getZip64Value(getUnsignedInt(42), 2);
+		}
+
+		/**
+		 * @return length of name in bytes
+		 */
+		public int getNameLength() {
+			return getUnsignedShort(28);
+		}
+
+		/**
+		 * @return internal file attributes
+		 */
+		public int getInternalAttributes() {
+			return getUnsignedShort(36);
+		}
+
+		/**
+		 * @return external file attributes, such as the unix permissions in the upper half
+		 */
+		public long getExternalAttributes() {
+			return getUnsignedInt(38);
+		}
+
+		/**
+		 * @return extra field of the record
+		 */
+		public byte[] getExtra() {
+			return getBytes(RECORD_HEADER_LENGTH + getNameLength(), getExtraLength());
+		}
+
+		/**
+		 * @return comment of the record, empty if there isn't one
+		 */
+		public byte[] getComment() {
+			return getBytes(RECORD_HEADER_LENGTH + getNameLength() + getExtraLength(), getCommentLength());
+		}
+
+		/**
+		 * @return true if the record is for a directory
+		 */
+		public boolean isDirectory() {
+			final int nameLength = getNameLength();
+			return nameLength > 0 && buffer.get(position + RECORD_HEADER_LENGTH + nameLength - 1) == '/';
+		}
+
+		/**
+		 * @return name of the record, decoded when first asked for
+		 */
+		public String getName() {
+			if (name == null) {
+				name = new String(getBytes(RECORD_HEADER_LENGTH, getNameLength()), StandardCharsets.UTF_8);
+			}
+			return name;
+		}
+
+		/**
+		 * Copy the name of the record without decoding it, into a buffer which is
+		 * reused for each record so that nothing is allocated
+		 *
+		 * @return buffer starting with the name as utf-8 bytes, of length getNameLength()
+		 */
+		public byte[] getNameBytes() {
+			final int nameLength = getNameLength();
+			if (nameLength > nameBytes.length) {
+				nameBytes = new byte[Math.max(nameLength, nameBytes.length * 2)];
+			}
+			for (int i = 0; i < nameLength; i++) {
+				nameBytes[i] = buffer.get(position + RECORD_HEADER_LENGTH + i);
+			}
+			return nameBytes;
+		}
+
+		/**
+		 * Compare the name of the current record with that of another cursor, byte
+		 * for byte and without decoding either one
+		 *
+		 * @param inOther other cursor, possibly from a different archive
+		 * @return true if the names are identical
+		 */
+		public boolean nameEquals(Cursor inOther) {
+			final int nameLength = getNameLength();
+			if (inOther.getNameLength() != nameLength) {
+				return false;
+			}
+			final MappedByteBuffer otherBuffer = inOther.getDirectory().buffer;
+			final int start = position + RECORD_HEADER_LENGTH;
+			final int otherStart = inOther.position + RECORD_HEADER_LENGTH;
+			int i = 0;
+			// Compare eight bytes at a time, then the rest one by one
+			for (; i + 8 <= nameLength; i += 8) {
+				if (buffer.getLong(start + i) != otherBuffer.getLong(otherStart + i)) {
+					return false;
+				}
+			}
+			for (; i < nameLength; i++) {
+				if (buffer.get(start + i) != otherBuffer.get(otherStart + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the central directory of this cursor
+		 */
+		private CentralDirectory getDirectory() {
+			return CentralDirectory.this;
+		}
+
+		private int getExtraLength() {
+			return getUnsignedShort(30);
+		}
+
+		private int getCommentLength() {
+			return getUnsignedShort(32);
+		}
+
+		private int getUnsignedShort(int inOffset) {
+			return buffer.getShort(position + inOffset) & 0xffff;
+		}
+
+		private long getUnsignedInt(int inOffset) {
+			return buffer.getInt(position + inOffset) & ZIP64_MAGIC;
+		}
+
+		private byte[] getBytes(int inOffset, int inLength) {
+			byte[] bytes = new byte[inLength];
+			for (int i = 0; i < inLength; i++) {
+				bytes[i] = buffer.get(position + inOffset + i);
+			}
+			return bytes;
+		}
+
+		/**
+		 * Get a value from the zip64 extra field if the stored value doesn't fit
+		 *
+		 * @param inValue    value from the record
+		 * @param inFieldNum 0 for size, 1 for compressed size, 2 for header offset
+		 * @return actual value
+		 */
+		private long getZip64Value(long inValue, int inFieldNum) {
+			if (inValue != ZIP64_MAGIC) {
+				return inValue;
+			}
+			// Fields are only present in the extra data if their stored values are the magic
+			int skip = 0;
+			if (inFieldNum > 0 && getUnsignedInt(24) == ZIP64_MAGIC) {
+				skip++;
+			}
+			if (inFieldNum > 1 && getUnsignedInt(20) == ZIP64_MAGIC) {
+				skip++;
+			}
+			int extraPos = position + RECORD_HEADER_LENGTH + getNameLength();
+			final int extraEnd = extraPos + getExtraLength();
+			while (extraPos + 4 <= extraEnd) {
+				final int id = buffer.getShort(extraPos) & 0xffff;
+				final int length = buffer.getShort(extraPos + 2) & 0xffff;
+				if (id == ZIP64_EXTRA_ID) {
+					if ((skip + 1) * 8 <= length) {
+						return buffer.getLong(extraPos + 4 + skip * 8);
+					}
+					break;
+				}
+				extraPos += 4 + length;
+			}
+			return inValue;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Class to compare changed class files by their code, so that classes which
+ * were only recompiled, with different line numbers or a different order of
+ * constants, aren't shown as changed. The fingerprints of the classes are kept
+ * by checksum, so each version of a class is only parsed once
+ */
+abstract class ClassComparer {
+	/** Ending of the names of class files */
+	private static final String CLASS_SUFFIX = ".class";
+
+	private ClassComparer() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Compare those of the given entries which are changed class files, and
+	 * record which of their members changed
+	 *
+	 * @param inEntries  entries to check
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings giving the fingerprints, progress and listener for errors
+	 */
+	static void compareClasses(List<EntryDetails> inEntries, File inFile1, File inFile2,
+			CompareSettings inSettings) {
+		ArrayList<EntryDetails> classes = new ArrayList<>();
+		for (EntryDetails entry : inEntries) {
+			if (isChangedClass(entry, inSettings)) {
+				classes.add(entry);
+			}
+		}
+		if (classes.isEmpty()) {
+			return;
+		}
+		try (ZipFile zip1 = new ZipFile(inFile1); ZipFile zip2 = new ZipFile(inFile2)) {
+			for (EntryDetails entry : classes) {
+				inSettings.getProgress().checkCancelled();
+				ClassFingerprint fingerprint1 = getFingerprint(zip1, entry, 0, inSettings);
+				ClassFingerprint fingerprint2 = getFingerprint(zip2, entry, 1, inSettings);
+				if (fingerprint1 != null && fingerprint2 != null) {
+					entry.getStore().setClassChanges(entry.getEntryNum(), fingerprint1.describeChanges(fingerprint2));
+				}
+			}
+		} catch (IOException e) {
+			Comparer.reportError(inSettings, "Exception: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param inEntry    entry to check
+	 * @param inSettings settings saying whether nested archives were expanded
+	 * @return true if the entry is a class file in both archives, known to have
+	 *         changed but not yet compared by its code
+	 */
+	private static boolean isChangedClass(EntryDetails inEntry, CompareSettings inSettings) {
+		final EntryDetails.EntryStatus status = inEntry.getStatus();
+		return (status == EntryDetails.EntryStatus.CHANGED_SIZE || status == EntryDetails.EntryStatus.CHANGED_SUM)
+				&& inEntry.getName().endsWith(CLASS_SUFFIX)
+				&& NestedArchives.getContainerPath(inEntry.getName(), inSettings) == null
+				&& inEntry.getClassChanges() == null;
+	}
+
+	/**
+	 * Get the fingerprint of one version of a class, from the fingerprints already
+	 * made if it has a checksum
+	 *
+	 * @param inZip      zip file to read from
+	 * @param inEntry    entry
+	 * @param inIndex    file index, either 0 or 1
+	 * @param inSettings settings giving the fingerprints and digest algorithm
+	 * @return fingerprint, or null if the class couldn't be parsed
+	 */
+	private static ClassFingerprint getFingerprint(ZipFile inZip, EntryDetails inEntry, int inIndex,
+			CompareSettings inSettings) throws IOException {
+		final Map<String, ClassFingerprint> fingerprints = inSettings.getClassFingerprints();
+		final String digest = inEntry.getMd5Sum(inIndex);
+		final String key = digest == null ? null : inSettings.getDigestAlgorithm().getKey() + ":" + digest;
+		ClassFingerprint fingerprint = key == null ? null : fingerprints.get(key);
+		if (fingerprint != null) {
+			return fingerprint;
+		}
+		ZipEntry zipEntry = inZip.getEntry(inEntry.getName());
+		if (zipEntry == null) {
+			Comparer.reportError(inSettings, "zipEntry for " + inEntry.getName() + " shouldn't be null!");
+			return null;
+		}
+		final byte[] contents;
+		try (InputStream in = inSettings.getProgress().wrap(inZip.getInputStream(zipEntry))) {
+			contents = in.readAllBytes();
+		}
+		try {
+			fingerprint = ClassFingerprint.parse(contents);
+		} catch (IOException e) {
+			// Not a valid class file, so leave it to be shown as changed without counting as an error
+			System.err.println("Couldn't parse " + inEntry.getName() + ": " + e.getMessage());
+			return null;
+		}
+		if (key != null) {
+			fingerprints.put(key, fingerprint);
+		}
+		return fingerprint;
+	}
+}
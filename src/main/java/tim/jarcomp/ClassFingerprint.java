@@ -0,0 +1,700 @@
+package tim.jarcomp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Class to hold a fingerprint of a compiled class which covers what the class
+ * does, but not the details of how it was compiled. Debug information such as
+ * line numbers, local variable names and the source file name is left out, and
+ * each reference into the constant pool is replaced by the constant itself, so
+ * the order of the pool doesn't matter. There's one hash for the class itself
+ * and one for each field and method, so that the changed members can be listed
+ */
+final class ClassFingerprint {
+	/** Hash of the class declaration and its attributes */
+	private final byte[] classHash;
+	/** Names of the fields and methods, with their descriptors, in sorted order */
+	private final String[] memberNames;
+	/** Hashes of the fields and methods, in the same order as the names */
+	private final byte[][] memberHashes;
+
+	/** Algorithm used for the hashes */
+	private static final String HASH_ALGORITHM = "MD5";
+	/** Name used for changes to the class declaration */
+	private static final String CLASS_NAME = "(class)";
+
+	/**
+	 * Constructor
+	 *
+	 * @param inClassHash    hash of the class declaration
+	 * @param inMemberNames  names of the members, sorted
+	 * @param inMemberHashes hashes of the members
+	 */
+	private ClassFingerprint(byte[] inClassHash, String[] inMemberNames, byte[][] inMemberHashes) {
+		classHash = inClassHash;
+		memberNames = inMemberNames;
+		memberHashes = inMemberHashes;
+	}
+
+	/**
+	 * Make the fingerprint of a class file
+	 *
+	 * @param inBytes contents of the class file
+	 * @return fingerprint
+	 * @throws IOException if the contents aren't a valid class file
+	 */
+	static ClassFingerprint parse(byte[] inBytes) throws IOException {
+		try {
+			return new Parser(inBytes).parse();
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Class file is truncated");
+		} catch (RuntimeException e) {
+			// Such as a negative length or a bad constant pool index
+			throw new IOException("Class file is malformed: " + e);
+		}
+	}
+
+	/**
+	 * List the members which differ between this class and another version of it
+	 *
+	 * @param inOther fingerprint of the other version
+	 * @return names of the changed members separated by commas, with + for added
+	 *         and - for removed ones, or an empty string if the code is the same
+	 */
+	String describeChanges(ClassFingerprint inOther) {
+		ArrayList<String> changes = new ArrayList<>();
+		if (!Arrays.equals(classHash, inOther.classHash)) {
+			changes.add(CLASS_NAME);
+		}
+		int i = 0;
+		int j = 0;
+		while (i < memberNames.length || j < inOther.memberNames.length) {
+			final int comparison = i == memberNames.length ? 1
+					: (j == inOther.memberNames.length ? -1 : memberNames[i].compareTo(inOther.memberNames[j]));
+			if (comparison < 0) {
+				changes.add("-" + memberNames[i++]);
+			} else if (comparison > 0) {
+				changes.add("+" + inOther.memberNames[j++]);
+			} else {
+				if (!Arrays.equals(memberHashes[i], inOther.memberHashes[j])) {
+					changes.add(memberNames[i]);
+				}
+				i++;
+				j++;
+			}
+		}
+		return String.join(", ", changes);
+	}
+
+	/**
+	 * Parser of a single class file, feeding the canonical form of each part
+	 * straight into a digest without building any objects for the constants
+	 */
+	private static final class Parser {
+		/** Contents of the class file */
+		private final byte[] bytes;
+		/** Position of each constant, from its tag byte */
+		private int[] constants;
+		/** Positions of the bootstrap methods, or null if there aren't any */
+		private int[] bootstrapMethods = null;
+		/** Current position */
+		private int position = 0;
+		/** Digest for hashing the class declaration */
+		private final MessageDigest classDigest;
+		/** Digest for hashing each member */
+		private final MessageDigest memberDigest;
+		/** Digest currently in use, either for the class or for a member */
+		private MessageDigest digest;
+
+		/** Tags of the constants */
+		private static final int CONSTANT_UTF8 = 1;
+		private static final int CONSTANT_INTEGER = 3;
+		private static final int CONSTANT_FLOAT = 4;
+		private static final int CONSTANT_LONG = 5;
+		private static final int CONSTANT_DOUBLE = 6;
+		private static final int CONSTANT_CLASS = 7;
+		private static final int CONSTANT_STRING = 8;
+		private static final int CONSTANT_FIELDREF = 9;
+		private static final int CONSTANT_METHODREF = 10;
+		private static final int CONSTANT_INTERFACE_METHODREF = 11;
+		private static final int CONSTANT_NAME_AND_TYPE = 12;
+		private static final int CONSTANT_METHOD_HANDLE = 15;
+		private static final int CONSTANT_METHOD_TYPE = 16;
+		private static final int CONSTANT_DYNAMIC = 17;
+		private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+		private static final int CONSTANT_MODULE = 19;
+		private static final int CONSTANT_PACKAGE = 20;
+
+		/** Lengths of the instructions by opcode, 0 for variable lengths and -1 for invalid ones */
+		private static final int[] INSTRUCTION_LENGTHS = new int[256];
+		/** True for the opcodes of instructions with a two-byte constant index after the opcode */
+		private static final boolean[] HAS_CONSTANT_INDEX = new boolean[256];
+		/** Opcode of ldc, with a one-byte constant index */
+		private static final int OPCODE_LDC = 0x12;
+		/** Opcode of ldc_w, which does the same as ldc with a wider index */
+		private static final int OPCODE_LDC_W = 0x13;
+		/** Opcode of tableswitch */
+		private static final int OPCODE_TABLESWITCH = 0xaa;
+		/** Opcode of lookupswitch */
+		private static final int OPCODE_LOOKUPSWITCH = 0xab;
+		/** Opcode of wide */
+		private static final int OPCODE_WIDE = 0xc4;
+		/** Opcode of iinc */
+		private static final int OPCODE_IINC = 0x84;
+
+		static {
+			Arrays.fill(INSTRUCTION_LENGTHS, -1);
+			Arrays.fill(INSTRUCTION_LENGTHS, 0x00, 0xca, 1);
+			INSTRUCTION_LENGTHS[0x10] = 2;
+			INSTRUCTION_LENGTHS[0x11] = 3;
+			INSTRUCTION_LENGTHS[OPCODE_LDC] = 2;
+			INSTRUCTION_LENGTHS[OPCODE_LDC_W] = 3;
+			INSTRUCTION_LENGTHS[0x14] = 3;
+			Arrays.fill(INSTRUCTION_LENGTHS, 0x15, 0x1a, 2);
+			Arrays.fill(INSTRUCTION_LENGTHS, 0x36, 0x3b, 2);
+			INSTRUCTION_LENGTHS[OPCODE_IINC] = 3;
+			Arrays.fill(INSTRUCTION_LENGTHS, 0x99, 0xa9, 3);
+			INSTRUCTION_LENGTHS[0xa9] = 2;
+			INSTRUCTION_LENGTHS[OPCODE_TABLESWITCH] = 0;
+			INSTRUCTION_LENGTHS[OPCODE_LOOKUPSWITCH] = 0;
+			Arrays.fill(INSTRUCTION_LENGTHS, 0xb2, 0xb9, 3);
+			INSTRUCTION_LENGTHS[0xb9] = 5;
+			INSTRUCTION_LENGTHS[0xba] = 5;
+			INSTRUCTION_LENGTHS[0xbb] = 3;
+			INSTRUCTION_LENGTHS[0xbc] = 2;
+			INSTRUCTION_LENGTHS[0xbd] = 3;
+			INSTRUCTION_LENGTHS[0xc0] = 3;
+			INSTRUCTION_LENGTHS[0xc1] = 3;
+			INSTRUCTION_LENGTHS[OPCODE_WIDE] = 0;
+			INSTRUCTION_LENGTHS[0xc5] = 4;
+			INSTRUCTION_LENGTHS[0xc6] = 3;
+			INSTRUCTION_LENGTHS[0xc7] = 3;
+			INSTRUCTION_LENGTHS[0xc8] = 5;
+			INSTRUCTION_LENGTHS[0xc9] = 5;
+			// ldc_w, ldc2_w, field and method instructions, new, anewarray, checkcast, instanceof, multianewarray
+			for (int opcode : new int[] {OPCODE_LDC_W, 0x14, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba,
+					0xbb, 0xbd, 0xc0, 0xc1, 0xc5}) {
+				HAS_CONSTANT_INDEX[opcode] = true;
+			}
+		}
+
+		/**
+		 * Constructor
+		 *
+		 * @param inBytes contents of the class file
+		 */
+		private Parser(byte[] inBytes) {
+			bytes = inBytes;
+			try {
+				classDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+				memberDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				// Every jdk has to provide md5
+				throw new IllegalStateException(e);
+			}
+			digest = classDigest;
+		}
+
+		/**
+		 * @return fingerprint of the whole class
+		 * @throws IOException if the class file isn't valid
+		 */
+		private ClassFingerprint parse() throws IOException {
+			if (readInt() != 0xcafebabe) {
+				throw new IOException("Not a class file");
+			}
+			// Versions
+			digest.update(bytes, position, 4);
+			position += 4;
+			readConstants();
+			final int declarationStart = position;
+			// Skip to the attributes of the class first, to find the bootstrap methods
+			position += 6;
+			final int numInterfaces = readShort();
+			position += numInterfaces * 2;
+			skipMembers();
+			skipMembers();
+			findBootstrapMethods();
+
+			position = declarationStart;
+			digest.update(bytes, position, 2);
+			hashConstant(readShort(position + 2));
+			hashConstant(readShort(position + 4));
+			position += 8;
+			for (int i = 0; i < numInterfaces; i++) {
+				hashConstant(readShort());
+			}
+			ArrayList<String> names = new ArrayList<>();
+			ArrayList<byte[]> hashes = new ArrayList<>();
+			parseMembers(":", names, hashes);
+			parseMembers("", names, hashes);
+			hashAttributes();
+			final byte[] classHash = digest.digest();
+
+			Integer[] order = new Integer[names.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> names.get(a).compareTo(names.get(b)));
+			String[] memberNames = new String[order.length];
+			byte[][] memberHashes = new byte[order.length][];
+			for (int i = 0; i < order.length; i++) {
+				memberNames[i] = names.get(order[i]);
+				memberHashes[i] = hashes.get(order[i]);
+			}
+			return new ClassFingerprint(classHash, memberNames, memberHashes);
+		}
+
+		/**
+		 * Note the position of each constant in the pool
+		 *
+		 * @throws IOException if a constant has an unknown tag
+		 */
+		private void readConstants() throws IOException {
+			final int numConstants = readShort();
+			constants = new int[numConstants];
+			for (int i = 1; i < numConstants; i++) {
+				constants[i] = position;
+				final int tag = bytes[position++];
+				switch (tag) {
+				case CONSTANT_UTF8:
+					position += 2 + readShort(position);
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					// These take up two slots
+					position += 8;
+					i++;
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					position += 4;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					position += 3;
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					position += 2;
+					break;
+				default:
+					throw new IOException("Unknown constant tag " + tag);
+				}
+			}
+		}
+
+		/**
+		 * Skip over the fields or the methods
+		 */
+		private void skipMembers() {
+			final int numMembers = readShort();
+			for (int i = 0; i < numMembers; i++) {
+				position += 6;
+				skipAttributes();
+			}
+		}
+
+		/**
+		 * Skip over a list of attributes
+		 */
+		private void skipAttributes() {
+			final int numAttributes = readShort();
+			for (int i = 0; i < numAttributes; i++) {
+				position += 2;
+				final int length = readInt();
+				position += length;
+			}
+		}
+
+		/**
+		 * Find the bootstrap methods among the attributes of the class, if there are any
+		 */
+		private void findBootstrapMethods() {
+			final int numAttributes = readShort();
+			for (int i = 0; i < numAttributes; i++) {
+				final int nameIndex = readShort();
+				final int length = readInt();
+				if (utf8Equals(nameIndex, "BootstrapMethods")) {
+					int bootstrapPosition = position;
+					bootstrapMethods = new int[readShort(bootstrapPosition)];
+					bootstrapPosition += 2;
+					for (int j = 0; j < bootstrapMethods.length; j++) {
+						bootstrapMethods[j] = bootstrapPosition;
+						bootstrapPosition += 4 + readShort(bootstrapPosition + 2) * 2;
+					}
+				}
+				position += length;
+			}
+		}
+
+		/**
+		 * Hash each of the fields or methods separately
+		 *
+		 * @param inSeparator text between the name and descriptor of each member
+		 * @param inNames     list to receive the names of the members
+		 * @param inHashes    list to receive the hashes of the members
+		 */
+		private void parseMembers(String inSeparator, ArrayList<String> inNames, ArrayList<byte[]> inHashes)
+				throws IOException {
+			digest = memberDigest;
+			final int numMembers = readShort();
+			for (int i = 0; i < numMembers; i++) {
+				// Access flags
+				digest.update(bytes, position, 2);
+				inNames.add(getUtf8(readShort(position + 2)) + inSeparator + getUtf8(readShort(position + 4)));
+				position += 6;
+				hashAttributes();
+				inHashes.add(digest.digest());
+			}
+			digest = classDigest;
+		}
+
+		/**
+		 * Hash a list of attributes, leaving out debug information and anything
+		 * which can be worked out from the rest of the class
+		 */
+		private void hashAttributes() throws IOException {
+			final int numAttributes = readShort();
+			for (int i = 0; i < numAttributes; i++) {
+				final int nameIndex = readShort();
+				final int length = readInt();
+				final int end = position + length;
+				if (!isIgnored(nameIndex)) {
+					hashConstant(nameIndex);
+					hashAttribute(nameIndex, end);
+				}
+				position = end;
+			}
+		}
+
+		/**
+		 * @param inNameIndex index of the attribute's name
+		 * @return true if the attribute doesn't affect what the class does
+		 */
+		private boolean isIgnored(int inNameIndex) {
+			// The stack map frames and bootstrap methods follow from the code
+			return utf8Equals(inNameIndex, "SourceFile") || utf8Equals(inNameIndex, "SourceDebugExtension")
+					|| utf8Equals(inNameIndex, "LineNumberTable") || utf8Equals(inNameIndex, "LocalVariableTable")
+					|| utf8Equals(inNameIndex, "LocalVariableTypeTable") || utf8Equals(inNameIndex, "StackMapTable")
+					|| utf8Equals(inNameIndex, "BootstrapMethods");
+		}
+
+		/**
+		 * Hash the contents of a single attribute
+		 *
+		 * @param inNameIndex index of the attribute's name
+		 * @param inEnd       position of the end of the attribute
+		 */
+		private void hashAttribute(int inNameIndex, int inEnd) throws IOException {
+			if (utf8Equals(inNameIndex, "Code")) {
+				hashCode(inEnd);
+			} else if (utf8Equals(inNameIndex, "ConstantValue") || utf8Equals(inNameIndex, "Signature")
+					|| utf8Equals(inNameIndex, "NestHost")) {
+				hashConstant(readShort());
+			} else if (utf8Equals(inNameIndex, "Exceptions") || utf8Equals(inNameIndex, "NestMembers")
+					|| utf8Equals(inNameIndex, "PermittedSubclasses")) {
+				final int num = readShort();
+				for (int i = 0; i < num; i++) {
+					hashConstant(readShort());
+				}
+			} else if (utf8Equals(inNameIndex, "InnerClasses")) {
+				final int num = readShort();
+				for (int i = 0; i < num; i++) {
+					hashConstant(readShort());
+					hashConstant(readShort());
+					hashConstant(readShort());
+					digest.update(bytes, position, 2);
+					position += 2;
+				}
+			} else if (utf8Equals(inNameIndex, "EnclosingMethod")) {
+				hashConstant(readShort());
+				hashConstant(readShort());
+			} else if (utf8Equals(inNameIndex, "MethodParameters")) {
+				final int num = bytes[position++] & 0xff;
+				for (int i = 0; i < num; i++) {
+					hashConstant(readShort());
+					digest.update(bytes, position, 2);
+					position += 2;
+				}
+			} else if (utf8Equals(inNameIndex, "RuntimeVisibleAnnotations")
+					|| utf8Equals(inNameIndex, "RuntimeInvisibleAnnotations")) {
+				hashAnnotations();
+			} else if (utf8Equals(inNameIndex, "RuntimeVisibleParameterAnnotations")
+					|| utf8Equals(inNameIndex, "RuntimeInvisibleParameterAnnotations")) {
+				final int num = bytes[position++] & 0xff;
+				for (int i = 0; i < num; i++) {
+					hashAnnotations();
+				}
+			} else if (utf8Equals(inNameIndex, "AnnotationDefault")) {
+				hashElementValue();
+			} else if (utf8Equals(inNameIndex, "Record")) {
+				final int num = readShort();
+				for (int i = 0; i < num; i++) {
+					hashConstant(readShort());
+					hashConstant(readShort());
+					hashAttributes();
+				}
+			} else {
+				// Other attributes are compared as they are, which may find differences that don't matter
+				digest.update(bytes, position, inEnd - position);
+			}
+		}
+
+		/**
+		 * Hash the code of a method, replacing each constant index by the constant
+		 *
+		 * @param inEnd position of the end of the code attribute
+		 */
+		private void hashCode(int inEnd) throws IOException {
+			// Maximum stack size and number of locals
+			digest.update(bytes, position, 4);
+			position += 4;
+			final int codeLength = readInt();
+			final int codeStart = position;
+			final int codeEnd = codeStart + codeLength;
+			while (position < codeEnd) {
+				final int opcode = bytes[position] & 0xff;
+				int length = INSTRUCTION_LENGTHS[opcode];
+				if (length < 0) {
+					throw new IOException("Unknown opcode " + opcode);
+				}
+				if (opcode == OPCODE_LDC) {
+					digest.update((byte) OPCODE_LDC_W);
+					hashConstant(bytes[position + 1] & 0xff);
+				} else if (HAS_CONSTANT_INDEX[opcode]) {
+					digest.update((byte) opcode);
+					hashConstant(readShort(position + 1));
+					digest.update(bytes, position + 3, length - 3);
+				} else {
+					if (length == 0) {
+						length = getVariableLength(opcode, position - codeStart);
+					}
+					digest.update(bytes, position, length);
+				}
+				position += length;
+			}
+			final int numHandlers = readShort();
+			for (int i = 0; i < numHandlers; i++) {
+				digest.update(bytes, position, 6);
+				position += 6;
+				hashConstant(readShort());
+			}
+			hashAttributes();
+			if (position != inEnd) {
+				throw new IOException("Invalid length of code attribute");
+			}
+		}
+
+		/**
+		 * @param inOpcode opcode of switch or wide instruction
+		 * @param inOffset offset of the instruction in the code
+		 * @return length of the instruction
+		 */
+		private int getVariableLength(int inOpcode, int inOffset) {
+			if (inOpcode == OPCODE_WIDE) {
+				return (bytes[position + 1] & 0xff) == OPCODE_IINC ? 6 : 4;
+			}
+			// The operands of switches are aligned to four bytes from the start of the code
+			final int padding = 3 - (inOffset & 3);
+			final int operands = position + 1 + padding;
+			if (inOpcode == OPCODE_TABLESWITCH) {
+				final int low = readInt(operands + 4);
+				final int high = readInt(operands + 8);
+				return 1 + padding + 12 + (high - low + 1) * 4;
+			}
+			return 1 + padding + 8 + readInt(operands + 4) * 8;
+		}
+
+		/**
+		 * Hash a list of annotations
+		 */
+		private void hashAnnotations() throws IOException {
+			final int num = readShort();
+			for (int i = 0; i < num; i++) {
+				hashAnnotation();
+			}
+		}
+
+		/**
+		 * Hash a single annotation
+		 */
+		private void hashAnnotation() throws IOException {
+			hashConstant(readShort());
+			final int numPairs = readShort();
+			for (int i = 0; i < numPairs; i++) {
+				hashConstant(readShort());
+				hashElementValue();
+			}
+		}
+
+		/**
+		 * Hash a single value of an annotation
+		 */
+		private void hashElementValue() throws IOException {
+			final int tag = bytes[position++];
+			digest.update((byte) tag);
+			switch (tag) {
+			case 'e':
+				hashConstant(readShort());
+				hashConstant(readShort());
+				break;
+			case '@':
+				hashAnnotation();
+				break;
+			case '[':
+				final int num = readShort();
+				for (int i = 0; i < num; i++) {
+					hashElementValue();
+				}
+				break;
+			default:
+				// Constants and classes
+				hashConstant(readShort());
+			}
+		}
+
+		/**
+		 * Hash a constant and everything it refers to
+		 *
+		 * @param inIndex index of the constant, or 0 for none
+		 */
+		private void hashConstant(int inIndex) throws IOException {
+			if (inIndex == 0) {
+				digest.update((byte) 0);
+				return;
+			}
+			final int start = constants[inIndex];
+			final int tag = bytes[start];
+			digest.update((byte) tag);
+			switch (tag) {
+			case CONSTANT_UTF8:
+				digest.update(bytes, start + 3, readShort(start + 1));
+				digest.update((byte) 0);
+				break;
+			case CONSTANT_INTEGER:
+			case CONSTANT_FLOAT:
+				digest.update(bytes, start + 1, 4);
+				break;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				digest.update(bytes, start + 1, 8);
+				break;
+			case CONSTANT_FIELDREF:
+			case CONSTANT_METHODREF:
+			case CONSTANT_INTERFACE_METHODREF:
+			case CONSTANT_NAME_AND_TYPE:
+				hashConstant(readShort(start + 1));
+				hashConstant(readShort(start + 3));
+				break;
+			case CONSTANT_METHOD_HANDLE:
+				digest.update(bytes[start + 1]);
+				hashConstant(readShort(start + 2));
+				break;
+			case CONSTANT_DYNAMIC:
+			case CONSTANT_INVOKE_DYNAMIC:
+				hashBootstrapMethod(readShort(start + 1));
+				hashConstant(readShort(start + 3));
+				break;
+			default:
+				// Class, string, method type, module and package refer to a single constant
+				hashConstant(readShort(start + 1));
+			}
+		}
+
+		/**
+		 * Hash a bootstrap method with its arguments
+		 *
+		 * @param inIndex index of the bootstrap method
+		 */
+		private void hashBootstrapMethod(int inIndex) throws IOException {
+			if (bootstrapMethods == null || inIndex >= bootstrapMethods.length) {
+				throw new IOException("Missing bootstrap method " + inIndex);
+			}
+			final int start = bootstrapMethods[inIndex];
+			hashConstant(readShort(start));
+			final int numArguments = readShort(start + 2);
+			for (int i = 0; i < numArguments; i++) {
+				hashConstant(readShort(start + 4 + i * 2));
+			}
+		}
+
+		/**
+		 * @param inIndex index of a utf8 constant
+		 * @param inValue ascii string to compare with
+		 * @return true if the constant holds the given string
+		 */
+		private boolean utf8Equals(int inIndex, String inValue) {
+			final int start = constants[inIndex];
+			if (bytes[start] != CONSTANT_UTF8 || readShort(start + 1) != inValue.length()) {
+				return false;
+			}
+			for (int i = 0; i < inValue.length(); i++) {
+				if (bytes[start + 3 + i] != inValue.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param inIndex index of a utf8 constant
+		 * @return the constant as a string
+		 */
+		private String getUtf8(int inIndex) throws IOException {
+			final int start = constants[inIndex];
+			if (bytes[start] != CONSTANT_UTF8) {
+				throw new IOException("Constant " + inIndex + " isn't a string");
+			}
+			// Class files use a modified utf-8, which only differs for rare characters
+			return new String(bytes, start + 3, readShort(start + 1), StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return unsigned two-byte value at the current position, moving past it
+		 */
+		private int readShort() {
+			final int value = readShort(position);
+			position += 2;
+			return value;
+		}
+
+		/**
+		 * @param inPosition position in the class file
+		 * @return unsigned two-byte value at that position
+		 */
+		private int readShort(int inPosition) {
+			return ((bytes[inPosition] & 0xff) << 8) | (bytes[inPosition + 1] & 0xff);
+		}
+
+		/**
+		 * @return four-byte value at the current position, moving past it
+		 */
+		private int readInt() {
+			final int value = readInt(position);
+			position += 4;
+			return value;
+		}
+
+		/**
+		 * @param inPosition position in the class file
+		 * @return four-byte value at that position
+		 */
+		private int readInt(int inPosition) {
+			return (readShort(inPosition) << 16) | readShort(inPosition + 2);
+		}
+	}
+}
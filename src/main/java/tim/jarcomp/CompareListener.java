@@ -0,0 +1,45 @@
+package tim.jarcomp;
+
+import java.util.List;
+
+/**
+ * Interface to be informed about the progress of a compare operation
+ */
+public interface CompareListener {
+	/**
+	 * Called when the status of an entry is final. May be called from several
+	 * threads at once
+	 *
+	 * @param inEntry entry which has been classified
+	 */
+	void entryClassified(EntryDetails inEntry);
+
+	/**
+	 * Called with a batch of entries once both files have been listed, before
+	 * their contents are checked. Their statuses may still change
+	 *
+	 * @param inEntries batch of entries
+	 */
+	default void entriesListed(List<EntryDetails> inEntries) {
+		// ignored by default
+	}
+
+	/**
+	 * Called when the comparison moves on, possibly very often and from several
+	 * threads at once
+	 *
+	 * @param inProgress progress of the comparison
+	 */
+	default void progressChanged(CompareProgress inProgress) {
+		// ignored by default
+	}
+
+	/**
+	 * Called when a file or entry couldn't be read
+	 *
+	 * @param inMessage description of the problem
+	 */
+	default void errorOccurred(String inMessage) {
+		// ignored by default
+	}
+}
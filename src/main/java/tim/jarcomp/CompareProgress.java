@@ -0,0 +1,147 @@
+package tim.jarcomp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class to follow the progress of a compare operation and to cancel it. It can
+ * be read and cancelled from any thread while the comparison is running
+ */
+public class CompareProgress {
+	/** Current phase */
+	private volatile Phase phase = Phase.LISTING;
+	/** Flag set when the comparison should stop */
+	private volatile boolean cancelled = false;
+	/** Number of entries to be processed in the current phase */
+	private volatile long entriesToProcess = 0L;
+	/** Number of entries processed so far in the current phase */
+	private final AtomicLong entriesProcessed = new AtomicLong();
+	/** Number of uncompressed bytes read so far */
+	private final AtomicLong bytesInflated = new AtomicLong();
+
+	/** Constants for the phases of a comparison */
+	public enum Phase {
+		/** Reading the lists of entries */
+		LISTING,
+		/** Checking the contents of same-sized entries */
+		CHECKING_CONTENTS,
+		/** Finished */
+		FINISHED,
+		/** Stopped before finishing */
+		CANCELLED
+	}
+
+	/**
+	 * Ask the comparison to stop as soon as possible
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the comparison has been asked to stop
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException if the comparison has been asked to stop
+	 */
+	void checkCancelled() {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+	}
+
+	/**
+	 * @return current phase
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Start a new phase
+	 *
+	 * @param inPhase            new phase
+	 * @param inEntriesToProcess number of entries to be processed, or 0 if not known
+	 */
+	void setPhase(Phase inPhase, long inEntriesToProcess) {
+		entriesToProcess = inEntriesToProcess;
+		entriesProcessed.set(0L);
+		phase = inPhase;
+	}
+
+	/**
+	 * End the comparison, keeping the counts of the last phase
+	 *
+	 * @param inPhase either FINISHED or CANCELLED
+	 */
+	void finish(Phase inPhase) {
+		phase = inPhase;
+	}
+
+	/**
+	 * @return number of entries to be processed in the current phase, or 0 if not
+	 *         known
+	 */
+	public long getEntriesToProcess() {
+		return entriesToProcess;
+	}
+
+	/**
+	 * @return number of entries processed so far in the current phase
+	 */
+	public long getEntriesProcessed() {
+		return entriesProcessed.get();
+	}
+
+	/**
+	 * Count another entry as processed
+	 */
+	void entryProcessed() {
+		entriesProcessed.incrementAndGet();
+	}
+
+	/**
+	 * @return number of uncompressed bytes read so far
+	 */
+	public long getBytesInflated() {
+		return bytesInflated.get();
+	}
+
+	/**
+	 * Wrap the given stream to count the bytes read from it, and to stop reading
+	 * as soon as the comparison is cancelled
+	 *
+	 * @param inStream stream of uncompressed data
+	 * @return wrapped stream
+	 */
+	InputStream wrap(InputStream inStream) {
+		return new FilterInputStream(inStream) {
+			@Override
+			public int read() throws IOException {
+				checkCancelled();
+				final int value = super.read();
+				if (value >= 0) {
+					bytesInflated.incrementAndGet();
+				}
+				return value;
+			}
+
+			@Override
+			public int read(byte[] inBuffer, int inOffset, int inLength) throws IOException {
+				checkCancelled();
+				final int numRead = super.read(inBuffer, inOffset, inLength);
+				if (numRead > 0) {
+					bytesInflated.addAndGet(numRead);
+				}
+				return numRead;
+			}
+		};
+	}
+}
@@ -1,28 +1,54 @@
 package tim.jarcomp;
 
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class to hold the results of a compare operation
  */
 public class CompareResults extends EntryDetails {
-	/** list of entries */
-	private ArrayList<EntryDetails> entries = null;
+	/** store holding the entries */
+	private EntryStore entryStore = null;
 	/** Number of files in each archive */
 	private final int[] numFiles = new int[2];
+	/** True if the entries of nested archives were listed too */
+	private boolean recursive = false;
 
 	/**
-	 * @param inList list of EntryDetails objects
+	 * @param inStore store holding the entries
 	 */
-	public void setEntryList(ArrayList<EntryDetails> inList) {
-		entries = inList;
+	public void setEntryStore(EntryStore inStore) {
+		entryStore = inStore;
 	}
 
 	/**
-	 * @return entry list
+	 * @return store holding the entries
 	 */
-	public ArrayList<EntryDetails> getEntryList() {
-		return entries;
+	public EntryStore getEntryStore() {
+		return entryStore;
+	}
+
+	/**
+	 * @return entry list, with the details objects made as needed
+	 */
+	public List<EntryDetails> getEntryList() {
+		if (entryStore == null) {
+			return null;
+		}
+		return entryStore.asList();
+	}
+
+	/**
+	 * Look up an entry by its name
+	 *
+	 * @param inName name of entry, including full path
+	 * @return matching entry, or null if not found in either archive
+	 */
+	public EntryDetails getEntry(String inName) {
+		if (entryStore == null || inName == null) {
+			return null;
+		}
+		final int entryNum = entryStore.find(inName);
+		return entryNum < 0 ? null : entryStore.get(entryNum);
 	}
 
 	/**
@@ -46,30 +72,42 @@ public class CompareResults extends EntryDetails {
 		}
 	}
 
+	/**
+	 * @return true if the entries of nested archives were listed too
+	 */
+	public boolean getRecursive() {
+		return recursive;
+	}
+
+	/**
+	 * @param inRecursive true if the entries of nested archives were listed too
+	 */
+	public void setRecursive(boolean inRecursive) {
+		recursive = inRecursive;
+	}
+
+	/**
+	 * @param inStatus status to count
+	 * @return number of entries with this status
+	 */
+	public int getNumEntries(EntryStatus inStatus) {
+		return entryStore == null ? 0 : entryStore.getNumEntries(inStatus);
+	}
+
 	/**
 	 * @return true if the entries are in any way different
 	 */
 	public boolean getEntriesDifferent() {
-		// Loop over all entries
-		for (EntryDetails entry : entries) {
-			EntryStatus status = entry.getStatus();
-			if (status != EntryStatus.EQUAL && status != EntryStatus.SAME_SIZE) {
-				return true;
-			}
-		}
-		return false;
+		return getNumEntries(EntryStatus.ADDED) > 0 || getNumEntries(EntryStatus.REMOVED) > 0
+				|| getNumEntries(EntryStatus.CHANGED_SIZE) > 0 || getNumEntries(EntryStatus.CHANGED_SUM) > 0
+				|| getNumEntries(EntryStatus.MOVED) > 0 || getNumEntries(EntryStatus.RENAMED) > 0;
 	}
 
 	/**
 	 * @return true if the md5 sums of all (necessary) entries have been checked
 	 */
 	public boolean getEntriesMd5Checked() {
-		// Loop over all entries
-		for (EntryDetails entry : entries) {
-			if (entry.getStatus() == EntryStatus.SAME_SIZE) {
-				return false;
-			}
-		}
-		return true;
+		return entryStore == null
+				|| (entryStore.getNumEntries(EntryStatus.SAME_SIZE) == 0 && entryStore.getNumCrcEqual() == 0);
 	}
 }
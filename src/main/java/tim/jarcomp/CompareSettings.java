@@ -0,0 +1,227 @@
+package tim.jarcomp;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to hold the options for a compare operation
+ */
+public class CompareSettings {
+	/** How to decide whether same-sized entries are equal */
+	private CompareMode mode = CompareMode.SIZE_ONLY;
+	/** Number of threads for reading the archives, or 0 to use all processors */
+	private int numThreads = 0;
+	/** Algorithm for checksums in DIGEST mode */
+	private DigestAlgorithm digestAlgorithm = DigestAlgorithm.MD5;
+	/** True to look inside nested archives */
+	private boolean recursive = false;
+	/** True to find entries which have moved or been renamed */
+	private boolean detectMoves = false;
+	/** True to compare changed class files by their code */
+	private boolean compareClasses = false;
+	/** Fingerprints of class files keyed by their checksums, shared by all copies, or null */
+	private Map<String, ClassFingerprint> classFingerprints = null;
+	/** Cache of checksums from previous runs, or null */
+	private DigestCache digestCache = null;
+	/** Listener to receive results as they're found, or null */
+	private CompareListener listener = null;
+	/** Progress of the comparison, or null for a new one */
+	private CompareProgress progress = null;
+
+	/** Largest number of class fingerprints to keep in memory */
+	private static final int MAX_CLASS_FINGERPRINTS = 10000;
+
+	/** Constants for comparison mode */
+	public enum CompareMode {
+		/** Only compare sizes, leaving same-sized entries unchecked */
+		SIZE_ONLY,
+		/** Compare sizes and the crc values stored in the central directory */
+		CRC,
+		/** Compare sizes and calculate checksums of same-sized entries */
+		DIGEST,
+		/** Compare sizes and the contents of same-sized entries byte by byte */
+		DIRECT;
+
+		/**
+		 * @return true if this mode reads the contents of same-sized entries
+		 */
+		public boolean readsContents() {
+			return this == DIGEST || this == DIRECT;
+		}
+	}
+
+	/**
+	 * @return a copy of these settings
+	 */
+	public CompareSettings copy() {
+		CompareSettings settings = new CompareSettings();
+		settings.mode = mode;
+		settings.numThreads = numThreads;
+		settings.digestAlgorithm = digestAlgorithm;
+		settings.recursive = recursive;
+		settings.detectMoves = detectMoves;
+		settings.compareClasses = compareClasses;
+		settings.classFingerprints = classFingerprints;
+		settings.digestCache = digestCache;
+		settings.listener = listener;
+		settings.progress = progress;
+		return settings;
+	}
+
+	/**
+	 * @return comparison mode
+	 */
+	public CompareMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @param inMode comparison mode to set
+	 */
+	public void setMode(CompareMode inMode) {
+		if (inMode != null) {
+			mode = inMode;
+		}
+	}
+
+	/**
+	 * @return number of threads to use for reading the archives
+	 */
+	public int getNumThreads() {
+		if (numThreads <= 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return numThreads;
+	}
+
+	/**
+	 * @param inThreads number of threads to use, or 0 to use all processors
+	 */
+	public void setNumThreads(int inThreads) {
+		numThreads = Math.max(inThreads, 0);
+	}
+
+	/**
+	 * @return algorithm for calculating checksums
+	 */
+	public DigestAlgorithm getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+
+	/**
+	 * @param inAlgorithm algorithm for calculating checksums
+	 */
+	public void setDigestAlgorithm(DigestAlgorithm inAlgorithm) {
+		if (inAlgorithm != null) {
+			digestAlgorithm = inAlgorithm;
+		}
+	}
+
+	/**
+	 * @return true to look inside archives contained in the files
+	 */
+	public boolean getRecursive() {
+		return recursive;
+	}
+
+	/**
+	 * @param inRecursive true to look inside archives contained in the files
+	 */
+	public void setRecursive(boolean inRecursive) {
+		recursive = inRecursive;
+	}
+
+	/**
+	 * @return true to find entries which have moved or been renamed
+	 */
+	public boolean getDetectMoves() {
+		return detectMoves;
+	}
+
+	/**
+	 * @param inDetectMoves true to find entries which have moved or been renamed,
+	 *                      by matching their contents across different paths
+	 */
+	public void setDetectMoves(boolean inDetectMoves) {
+		detectMoves = inDetectMoves;
+	}
+
+	/**
+	 * @return true to compare changed class files by their code
+	 */
+	public boolean getCompareClasses() {
+		return compareClasses;
+	}
+
+	/**
+	 * @param inCompareClasses true to compare changed class files by their code,
+	 *                         ignoring debug information and the order of constants
+	 */
+	public void setCompareClasses(boolean inCompareClasses) {
+		compareClasses = inCompareClasses;
+		if (compareClasses && classFingerprints == null) {
+			// Kept in order of access, so that the least recently used are removed first
+			classFingerprints = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ClassFingerprint> inEldest) {
+					return size() > MAX_CLASS_FINGERPRINTS;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return fingerprints of class files keyed by their checksums, or null
+	 */
+	Map<String, ClassFingerprint> getClassFingerprints() {
+		return classFingerprints;
+	}
+
+	/**
+	 * @return listener to receive results, or null
+	 */
+	public CompareListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @param inListener listener to receive results as they're found
+	 */
+	public void setListener(CompareListener inListener) {
+		listener = inListener;
+	}
+
+	/**
+	 * @return cache of checksums, or null
+	 */
+	public DigestCache getDigestCache() {
+		return digestCache;
+	}
+
+	/**
+	 * @param inCache cache of checksums to use, or null
+	 */
+	public void setDigestCache(DigestCache inCache) {
+		digestCache = inCache;
+	}
+
+	/**
+	 * @return progress object for following and cancelling the comparison
+	 */
+	public CompareProgress getProgress() {
+		if (progress == null) {
+			progress = new CompareProgress();
+		}
+		return progress;
+	}
+
+	/**
+	 * @param inProgress progress object for following and cancelling the comparison
+	 */
+	public void setProgress(CompareProgress inProgress) {
+		progress = inProgress;
+	}
+}
@@ -4,21 +4,37 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
 
 /**
  * Class to manage the main compare window
@@ -36,14 +52,48 @@ public class CompareWindow {
 	private JLabel statusLabel2 = null;
 	/** Table model */
 	private EntryTableModel tableModel = null;
+	/** Tree model of the directories */
+	private EntryTreeModel treeModel = null;
 	/** File chooser */
 	private JFileChooser fileChooser = null;
 	/** Button to check md5 sums */
 	private JButton md5Button = null;
+	/** Button to compare contents directly */
+	private JButton contentsButton = null;
 	/** Refresh button to repeat comparison */
 	private JButton refreshButton = null;
-	/** Flag to process md5 sums */
-	private boolean checkMd5 = false;
+	/** Checkbox to use crc values from the archives */
+	private JCheckBox crcCheckbox = null;
+	/** Checkbox to look inside nested archives */
+	private JCheckBox recursiveCheckbox = null;
+	/** Checkbox to find moved and renamed files */
+	private JCheckBox movesCheckbox = null;
+	/** Checkbox to compare class files by their code */
+	private JCheckBox classesCheckbox = null;
+	/** Checkbox to remember checksums between runs */
+	private JCheckBox cacheCheckbox = null;
+	/** Cache of checksums, loaded when first needed */
+	private DigestCache digestCache = null;
+	/** Dropdown to select the checksum algorithm */
+	private JComboBox<DigestAlgorithm> digestChooser = null;
+	/** Button to stop the running comparison */
+	private JButton cancelButton = null;
+	/** Progress of the running comparison, or null if none has been started */
+	private volatile CompareProgress currentProgress = null;
+	/** Checkbox to check the rows on screen in the background */
+	private JCheckBox lazyCheckbox = null;
+	/** Checker for the rows on screen, or null if not running */
+	private LazyChecker lazyChecker = null;
+	/** Table of entries */
+	private JTable table = null;
+	/** Text field to filter the table rows by name */
+	private JTextField filterField = null;
+	/** Checkbox to only show the changed entries in the table */
+	private JCheckBox changesCheckbox = null;
+	/** Results of the last finished comparison, or null */
+	private CompareResults lastResults = null;
+	/** True if a progress update is already queued on the event thread */
+	private final AtomicBoolean progressUpdateQueued = new AtomicBoolean();
 
 	/**
 	 * Constructor
@@ -82,6 +132,21 @@ public class CompareWindow {
 		refreshButton.setEnabled(false);
 		refreshButton.addActionListener(e -> startCompare(filesToCompare[0], filesToCompare[1], false));
 		buttonPanel.add(refreshButton);
+		cancelButton = new JButton("Cancel");
+		cancelButton.setEnabled(false);
+		cancelButton.addActionListener(e -> cancelCompare());
+		buttonPanel.add(cancelButton);
+		crcCheckbox = new JCheckBox("Compare crc values");
+		crcCheckbox.setToolTipText("Use the crc values stored in the archives to check same-sized files");
+		buttonPanel.add(crcCheckbox);
+		recursiveCheckbox = new JCheckBox("Look inside nested archives");
+		buttonPanel.add(recursiveCheckbox);
+		movesCheckbox = new JCheckBox("Find moved files");
+		movesCheckbox.setToolTipText("Match removed and added files which have the same contents");
+		buttonPanel.add(movesCheckbox);
+		classesCheckbox = new JCheckBox("Compare class code");
+		classesCheckbox.setToolTipText("Ignore debug information and constant order when comparing class files");
+		buttonPanel.add(classesCheckbox);
 		buttonPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
 		topPanel.add(buttonPanel);
 
@@ -107,7 +172,7 @@ public class CompareWindow {
 
 		// main table panel
 		tableModel = new EntryTableModel();
-		JTable table = new JTable(tableModel) {
+		table = new JTable(tableModel) {
 			private static final long serialVersionUID = 1L;
 
 			/** Modify the renderer according to the row status */
@@ -125,17 +190,58 @@ public class CompareWindow {
 		table.getColumnModel().getColumn(0).setPreferredWidth(300);
 		table.getColumnModel().getColumn(1).setPreferredWidth(70);
 		table.getColumnModel().getColumn(2).setPreferredWidth(70);
-		// Table sorting by clicking on column headings
-		table.setAutoCreateRowSorter(true);
-		mainPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+		// Table sorting by clicking on column headings, done by the model to cope with many rows
+		table.getTableHeader().addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent inEvent) {
+				int column = table.columnAtPoint(inEvent.getPoint());
+				if (column >= 0) {
+					sortByColumn(table.convertColumnIndexToModel(column));
+				}
+			}
+		});
+		tableModel.addTableModelListener(e -> checkVisibleRows());
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.getViewport().addChangeListener(e -> checkVisibleRows());
+		JPanel tablePanel = new JPanel();
+		tablePanel.setLayout(new BorderLayout());
+		tablePanel.add(makeFilterPanel(), BorderLayout.NORTH);
+		tablePanel.add(scrollPane, BorderLayout.CENTER);
+		// tree of directories as an alternative to the table
+		treeModel = new EntryTreeModel();
+		JTree tree = new JTree(treeModel);
+		tree.setLargeModel(true);
+		JTabbedPane tabs = new JTabbedPane();
+		tabs.addTab("Files", tablePanel);
+		tabs.addTab("Directories", new JScrollPane(tree));
+		mainPanel.add(tabs, BorderLayout.CENTER);
 
 		// button panel at bottom
 		JPanel bottomPanel = new JPanel();
 		bottomPanel.setLayout(new FlowLayout(FlowLayout.RIGHT));
-		md5Button = new JButton("Check Md5 sums");
+		cacheCheckbox = new JCheckBox("Remember sums");
+		cacheCheckbox.setToolTipText("Keep checksums in " + DigestCache.getDefaultFile() + " to reuse them later");
+		bottomPanel.add(cacheCheckbox);
+		lazyCheckbox = new JCheckBox("Check visible rows");
+		lazyCheckbox.setToolTipText("Check the sums of the rows on screen in the background");
+		lazyCheckbox.addActionListener(e -> {
+			if (lazyCheckbox.isSelected() && lastResults != null) {
+				startLazyCheck();
+			} else {
+				stopLazyCheck();
+			}
+		});
+		bottomPanel.add(lazyCheckbox);
+		digestChooser = new JComboBox<>(DigestAlgorithm.values());
+		bottomPanel.add(digestChooser);
+		md5Button = new JButton("Check sums");
 		md5Button.setEnabled(false);
-		md5Button.addActionListener(arg0 -> startCompare(filesToCompare[0], filesToCompare[1], true));
+		md5Button.addActionListener(arg0 -> startContentsCheck(CompareSettings.CompareMode.DIGEST));
 		bottomPanel.add(md5Button);
+		contentsButton = new JButton("Compare contents");
+		contentsButton.setEnabled(false);
+		contentsButton.addActionListener(arg0 -> startContentsCheck(CompareSettings.CompareMode.DIRECT));
+		bottomPanel.add(contentsButton);
 		JButton closeButton = new JButton("Close");
 		closeButton.addActionListener(arg0 -> System.exit(0));
 		bottomPanel.add(closeButton);
@@ -143,6 +249,91 @@ public class CompareWindow {
 		return mainPanel;
 	}
 
+	/**
+	 * @return panel with the controls to filter the table rows
+	 */
+	private JPanel makeFilterPanel() {
+		JPanel filterPanel = new JPanel();
+		filterPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		filterPanel.add(new JLabel("Filter:"));
+		filterField = new JTextField(30);
+		filterField.setToolTipText("Only show the files whose names contain this text, or match it using * and ?");
+		filterField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent inEvent) {
+				applyFilter();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent inEvent) {
+				applyFilter();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent inEvent) {
+				applyFilter();
+			}
+		});
+		filterPanel.add(filterField);
+		changesCheckbox = new JCheckBox("Only changes");
+		changesCheckbox.addActionListener(e -> applyFilter());
+		filterPanel.add(changesCheckbox);
+		return filterPanel;
+	}
+
+	/**
+	 * Filter the table rows according to the filter controls
+	 */
+	private void applyFilter() {
+		tableModel.setFilter(filterField.getText().trim(), changesCheckbox.isSelected());
+	}
+
+	/**
+	 * Sort the table rows by the given column and show the order in the headings
+	 *
+	 * @param inColNum column number in the model
+	 */
+	private void sortByColumn(int inColNum) {
+		tableModel.sortByColumn(inColNum);
+		for (int i = 0; i < table.getColumnCount(); i++) {
+			TableColumn column = table.getColumnModel().getColumn(i);
+			String name = tableModel.getColumnName(column.getModelIndex());
+			if (column.getModelIndex() == tableModel.getSortColumn()) {
+				name += (tableModel.isSortAscending() ? " \u25b2" : " \u25bc");
+			}
+			column.setHeaderValue(name);
+		}
+		table.getTableHeader().repaint();
+	}
+
+	/**
+	 * @param inResults results of the comparison
+	 * @return text giving the number of moved files, or empty if none
+	 */
+	private static String getMovedText(CompareResults inResults) {
+		// Both the old and the new path of each file are counted
+		final int numMoved = (inResults.getNumEntries(EntryDetails.EntryStatus.MOVED)
+				+ inResults.getNumEntries(EntryDetails.EntryStatus.RENAMED)) / 2;
+		return numMoved == 0 ? "" : ", " + numMoved + " moved";
+	}
+
+	/**
+	 * Set the controls according to the given settings
+	 *
+	 * @param inSettings settings from the command line
+	 */
+	public void applySettings(CompareSettings inSettings) {
+		digestChooser.setSelectedItem(inSettings.getDigestAlgorithm());
+		crcCheckbox.setSelected(inSettings.getMode() == CompareSettings.CompareMode.CRC);
+		recursiveCheckbox.setSelected(inSettings.getRecursive());
+		movesCheckbox.setSelected(inSettings.getDetectMoves());
+		classesCheckbox.setSelected(inSettings.getCompareClasses());
+		if (inSettings.getDigestCache() != null) {
+			digestCache = inSettings.getDigestCache();
+			cacheCheckbox.setSelected(true);
+		}
+	}
+
 	/**
 	 * Start the comparison process by prompting for two files
 	 */
@@ -158,8 +349,19 @@ public class CompareWindow {
 	 * @param inMd5   true to check Md5 sums as well
 	 */
 	public void startCompare(File inFile1, File inFile2, boolean inMd5) {
-		// Clear table model
-		tableModel.reset();
+		startCompare(inFile1, inFile2, inMd5 ? CompareSettings.CompareMode.DIGEST : null);
+	}
+
+	/**
+	 * Start the comparison using the two specified files
+	 *
+	 * @param inFile1        first file
+	 * @param inFile2        second file
+	 * @param inContentsMode mode for checking contents, or null to use the checkbox
+	 */
+	private void startCompare(File inFile1, File inFile2, CompareSettings.CompareMode inContentsMode) {
+		// Stop any comparison still running
+		cancelCompare();
 
 		File file1 = inFile1;
 		File file2 = inFile2;
@@ -181,45 +383,300 @@ public class CompareWindow {
 		filesToCompare[0] = file1;
 		filesToCompare[1] = file2;
 
-		// Clear displays
+		// Clear displays and table model, now that a new comparison is starting
+		tableModel.reset();
+		treeModel.reset();
 		detailsDisplays[0].clear();
 		detailsDisplays[1].clear();
 		statusLabel.setText("comparing...");
+		statusLabel2.setText("");
+		lastResults = null;
 
 		// Start separate thread to compare files
-		checkMd5 = inMd5;
-		new Thread(this::doCompare).start();
+		final File[] files = { file1, file2 };
+		final CompareSettings settings = makeSettings(inContentsMode);
+		final boolean useCache = cacheCheckbox.isSelected();
+		new Thread(() -> {
+			CompareResults results = Comparer.compare(files[0], files[1], prepareSettings(settings, useCache));
+			showResultsLater(files, results, settings);
+		}).start();
 	}
 
 	/**
-	 * Compare method, to be done in separate thread
+	 * Check the contents of the entries in the last results, without comparing
+	 * the archives again
+	 *
+	 * @param inMode mode for checking the contents
 	 */
-	private void doCompare() {
-		CompareResults results = Comparer.compare(filesToCompare[0], filesToCompare[1], checkMd5);
-		tableModel.setEntryList(results.getEntryList());
-		final boolean archivesDifferent = (results.getStatus() == EntryDetails.EntryStatus.CHANGED_SIZE);
+	private void startContentsCheck(CompareSettings.CompareMode inMode) {
+		final CompareResults results = lastResults;
+		if (results == null) {
+			startCompare(filesToCompare[0], filesToCompare[1], inMode);
+			return;
+		}
+		// The results stay usable even if this check is cancelled
+		cancelCompare();
+		statusLabel2.setText("");
+		final File[] files = { filesToCompare[0], filesToCompare[1] };
+		final CompareSettings settings = makeSettings(inMode);
+		final boolean useCache = cacheCheckbox.isSelected();
+		new Thread(() -> {
+			Comparer.checkContents(results, files[0], files[1], prepareSettings(settings, useCache));
+			showResultsLater(files, results, settings);
+		}).start();
+	}
+
+	/**
+	 * Take the settings from the controls, must be called on the event thread.
+	 * This also starts a new progress, so that the previous comparison is ignored
+	 *
+	 * @param inContentsMode mode for checking contents, or null to use the checkbox
+	 * @return settings for the comparison, with listener and progress
+	 */
+	private CompareSettings makeSettings(CompareSettings.CompareMode inContentsMode) {
+		md5Button.setEnabled(false);
+		contentsButton.setEnabled(false);
+		refreshButton.setEnabled(false);
+		CompareSettings settings = new CompareSettings();
+		settings.setDigestAlgorithm((DigestAlgorithm) digestChooser.getSelectedItem());
+		settings.setRecursive(recursiveCheckbox.isSelected());
+		settings.setDetectMoves(movesCheckbox.isSelected());
+		settings.setCompareClasses(classesCheckbox.isSelected());
+		if (inContentsMode != null) {
+			settings.setMode(inContentsMode);
+		} else if (crcCheckbox.isSelected()) {
+			settings.setMode(CompareSettings.CompareMode.CRC);
+		}
+		final CompareProgress progress = new CompareProgress();
+		settings.setProgress(progress);
+		settings.setListener(makeListener(progress));
+		currentProgress = progress;
+		cancelButton.setEnabled(true);
+		return settings;
+	}
+
+	/**
+	 * Finish preparing the settings in the comparison thread
+	 *
+	 * @param inSettings settings from the controls
+	 * @param inUseCache true to remember the checksums
+	 * @return the given settings
+	 */
+	private CompareSettings prepareSettings(CompareSettings inSettings, boolean inUseCache) {
+		if (inUseCache) {
+			// Load the cache now even if it's not needed yet, to keep it off the event thread
+			DigestCache cache = getDigestCache();
+			if (inSettings.getMode().readsContents()) {
+				inSettings.setDigestCache(cache);
+			}
+		}
+		return inSettings;
+	}
+
+	/**
+	 * Show the results on the event thread, unless another comparison has started
+	 *
+	 * @param inFiles    files compared
+	 * @param inResults  results of comparison
+	 * @param inSettings settings used for the comparison
+	 */
+	private void showResultsLater(File[] inFiles, CompareResults inResults, CompareSettings inSettings) {
+		SwingUtilities.invokeLater(() -> {
+			if (inSettings.getProgress() == currentProgress) {
+				currentProgress = null;
+				showResults(inFiles, inResults, inSettings.getProgress().isCancelled());
+			}
+		});
+	}
+
+	/**
+	 * Stop the running comparison, if any
+	 */
+	private void cancelCompare() {
+		if (currentProgress != null) {
+			currentProgress.cancel();
+			// Ignore anything more from the cancelled run, which may still be finishing
+			currentProgress = null;
+			statusLabel2.setText("but the comparison was cancelled");
+			md5Button.setEnabled(true);
+			contentsButton.setEnabled(true);
+			refreshButton.setEnabled(true);
+		}
+		cancelButton.setEnabled(false);
+		stopLazyCheck();
+	}
+
+	/**
+	 * Start checking the rows on screen in the background, using the last results
+	 */
+	private void startLazyCheck() {
+		stopLazyCheck();
+		CompareSettings settings = new CompareSettings();
+		settings.setMode(CompareSettings.CompareMode.DIGEST);
+		settings.setDigestAlgorithm((DigestAlgorithm) digestChooser.getSelectedItem());
+		settings.setRecursive(lastResults != null && lastResults.getRecursive());
+		synchronized (this) {
+			// Only use the cache if it's already been loaded
+			if (cacheCheckbox.isSelected() && digestCache != null) {
+				settings.setDigestCache(digestCache);
+			}
+		}
+		settings.setListener(inEntry -> {
+			tableModel.entriesChanged();
+			treeModel.entryChanged(inEntry);
+		});
+		lazyChecker = new LazyChecker(filesToCompare[0], filesToCompare[1], settings);
+		checkVisibleRows();
+	}
+
+	/**
+	 * Stop checking the rows on screen, if running
+	 */
+	private void stopLazyCheck() {
+		if (lazyChecker != null) {
+			lazyChecker.stop();
+			lazyChecker = null;
+		}
+	}
+
+	/**
+	 * Queue the rows on screen to be checked, if the lazy check is running
+	 */
+	private void checkVisibleRows() {
+		if (lazyChecker == null || table.getRowCount() == 0) {
+			return;
+		}
+		Rectangle visible = table.getVisibleRect();
+		int firstRow = table.rowAtPoint(visible.getLocation());
+		int lastRow = table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+		if (firstRow < 0) {
+			return;
+		}
+		if (lastRow < 0) {
+			lastRow = table.getRowCount() - 1;
+		}
+		ArrayList<EntryDetails> entries = new ArrayList<>();
+		for (int row = firstRow; row <= lastRow; row++) {
+			entries.add(tableModel.getEntry(row));
+		}
+		lazyChecker.request(entries);
+	}
+
+	/**
+	 * Make a listener to fill the table while the results arrive
+	 *
+	 * @param inRunProgress progress of the comparison, to ignore it once another one has started
+	 * @return listener for the comparison
+	 */
+	private CompareListener makeListener(CompareProgress inRunProgress) {
+		return new CompareListener() {
+			@Override
+			public void entriesListed(List<EntryDetails> inEntries) {
+				if (inRunProgress == currentProgress) {
+					tableModel.addEntries(inEntries);
+				}
+			}
+
+			@Override
+			public void entryClassified(EntryDetails inEntry) {
+				if (inRunProgress == currentProgress) {
+					tableModel.entriesChanged();
+					treeModel.entryChanged(inEntry);
+				}
+			}
+
+			@Override
+			public void progressChanged(CompareProgress inProgress) {
+				if (inProgress == currentProgress && progressUpdateQueued.compareAndSet(false, true)) {
+					SwingUtilities.invokeLater(() -> {
+						progressUpdateQueued.set(false);
+						if (inRunProgress == currentProgress) {
+							showProgress(inProgress);
+						}
+					});
+				}
+			}
+		};
+	}
+
+	/**
+	 * Show the progress of the running comparison
+	 *
+	 * @param inProgress progress to show
+	 */
+	private void showProgress(CompareProgress inProgress) {
+		switch (inProgress.getPhase()) {
+		case LISTING:
+			statusLabel2.setText("reading entries...");
+			break;
+		case CHECKING_CONTENTS:
+			statusLabel2.setText("checked " + inProgress.getEntriesProcessed() + " of "
+					+ inProgress.getEntriesToProcess() + " entries, " + (inProgress.getBytesInflated() >> 10)
+					+ " kB read");
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return cache of checksums, loaded when first needed
+	 */
+	private synchronized DigestCache getDigestCache() {
+		if (digestCache == null) {
+			digestCache = new DigestCache(DigestCache.getDefaultFile(), DigestCache.DEFAULT_MAX_SIZE);
+		}
+		return digestCache;
+	}
+
+	/**
+	 * Show the results of the comparison, must be called on the event thread
+	 *
+	 * @param inFiles     files compared
+	 * @param inResults   results of comparison
+	 * @param inCancelled true if the comparison was stopped before finishing
+	 */
+	private void showResults(File[] inFiles, CompareResults inResults, boolean inCancelled) {
+		cancelButton.setEnabled(false);
+		refreshButton.setEnabled(true);
+		final boolean archivesDifferent = (inResults.getStatus() == EntryDetails.EntryStatus.CHANGED_SIZE);
 		if (archivesDifferent) {
-			statusLabel
-					.setText("Archives have different size (" + results.getSize(0) + ", " + results.getSize(1) + ")");
+			statusLabel.setText(
+					"Archives have different size (" + inResults.getSize(0) + ", " + inResults.getSize(1) + ")");
 		} else {
-			statusLabel.setText("Archives have the same size (" + results.getSize(0) + ")");
+			statusLabel.setText("Archives have the same size (" + inResults.getSize(0) + ")");
 		}
-		detailsDisplays[0].setContents(filesToCompare[0], results, 0);
-		detailsDisplays[1].setContents(filesToCompare[1], results, 1);
+		if (inCancelled) {
+			statusLabel2.setText("but the comparison was cancelled");
+			md5Button.setEnabled(true);
+			contentsButton.setEnabled(true);
+			return;
+		}
+		lastResults = inResults;
+		treeModel.setEntryStore(inResults.getEntryStore());
+		detailsDisplays[0].setContents(inFiles[0], inResults, 0);
+		detailsDisplays[1].setContents(inFiles[1], inResults, 1);
 
-		if (results.getEntriesDifferent()) {
-			statusLabel2.setText((archivesDifferent ? "and" : "but") + " the files have different contents");
+		if (inResults.getEntriesDifferent()) {
+			statusLabel2.setText((archivesDifferent ? "and" : "but") + " the files have different contents ("
+					+ inResults.getNumEntries(EntryDetails.EntryStatus.ADDED) + " added, "
+					+ inResults.getNumEntries(EntryDetails.EntryStatus.REMOVED) + " removed, "
+					+ (inResults.getNumEntries(EntryDetails.EntryStatus.CHANGED_SIZE)
+							+ inResults.getNumEntries(EntryDetails.EntryStatus.CHANGED_SUM))
+					+ " changed" + getMovedText(inResults) + ")");
 		} else {
-			if (results.getEntriesMd5Checked()) {
+			if (inResults.getEntriesMd5Checked()) {
 				statusLabel2.setText((archivesDifferent ? "but" : "and") + " the files have exactly the same contents");
 			} else {
 				statusLabel2
 						.setText((archivesDifferent ? "but" : "and") + " the files appear to have the same contents");
 			}
 		}
-		md5Button.setEnabled(!results.getEntriesMd5Checked());
-		checkMd5 = false;
-		refreshButton.setEnabled(true);
+		md5Button.setEnabled(!inResults.getEntriesMd5Checked());
+		contentsButton.setEnabled(!inResults.getEntriesMd5Checked());
+		if (lazyCheckbox.isSelected() && !inResults.getEntriesMd5Checked()) {
+			startLazyCheck();
+		}
 		// Possibilities:
 		// Jars have same size, same md5 sum, same contents
 		// Jars have same size but different md5 sum, different contents
@@ -4,16 +4,18 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import org.w3c.tools.crypt.Md5;
-
 /**
  * Class to do the actual comparison of jar files, populating a list of
  * EntryDetails objects
  */
 public abstract class Comparer {
+	/** Number of entries passed to the listener at once after listing */
+	private static final int LISTED_BATCH_SIZE = 1000;
 
 	private Comparer() {
 		// Just here to hide the implicit public default constructor
@@ -28,111 +30,394 @@ public abstract class Comparer {
 	 * @return results of comparison
 	 */
 	public static CompareResults compare(File inFile1, File inFile2, boolean inMd5) {
+		CompareSettings settings = new CompareSettings();
+		settings.setMode(inMd5 ? CompareSettings.CompareMode.DIGEST : CompareSettings.CompareMode.SIZE_ONLY);
+		return compare(inFile1, inFile2, settings);
+	}
+
+	/**
+	 * Compare the two given files using the given settings and return the results
+	 *
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings options for the comparison
+	 * @return results of comparison
+	 */
+	public static CompareResults compare(File inFile1, File inFile2, CompareSettings inSettings) {
+		CompareProgress progress = inSettings.getProgress();
+		progress.setPhase(CompareProgress.Phase.LISTING, 0L);
+		notifyProgress(inSettings);
+		// Either file may be a snapshot of an archive instead of the archive itself
+		final ArchiveSnapshot[] snapshots = {openSnapshot(inFile1, inSettings), openSnapshot(inFile2, inSettings)};
+		final boolean useSnapshots = useSnapshotSettings(snapshots, inSettings);
+		// Snapshots with the same root hash have the same entries, so their names don't need matching
+		final boolean sameSnapshots = snapshots[0] != null && snapshots[1] != null
+				&& snapshots[0].hasSameContents(snapshots[1]);
 		// Make results object and compare file sizes
 		CompareResults results = new CompareResults();
-		results.setSize(0, inFile1.length());
-		results.setSize(1, inFile2.length());
-		// Make empty list
-		ArrayList<EntryDetails> entryList = new ArrayList<>();
-		// load first file, make entrydetails object for each one
-		final int numFiles1 = makeEntries(entryList, inFile1, 0);
-		results.setNumFiles(0, numFiles1);
-		// load second file, try to find entrydetails for each file or make new one
-		final int numFiles2 = makeEntries(entryList, inFile2, 1);
-		results.setNumFiles(1, numFiles2);
-		results.setEntryList(entryList);
-
-		// Check md5 sums if necessary
-		if (inMd5) {
-			calculateMd5(results, inFile1, 0);
-			calculateMd5(results, inFile2, 1);
+		results.setSize(0, snapshots[0] == null ? inFile1.length() : snapshots[0].getArchiveLength());
+		results.setSize(1, snapshots[1] == null ? inFile2.length() : snapshots[1].getArchiveLength());
+		// Make empty store, which also indexes the entries by name
+		EntryStore store = new EntryStore();
+		results.setEntryStore(store);
+		final List<EntryDetails> entryList = store.asList();
+		try {
+			if (sameSnapshots) {
+				// One hash comparison was enough, the second side is copied without looking up the names
+				results.setNumFiles(0, snapshots[0].addEntries(store, 0));
+				results.setNumFiles(1, snapshots[1].addEntriesInOrder(store, 1));
+			} else if (useSnapshots || !makeEntries(store, inFile1, inFile2, results, inSettings)) {
+				// snapshots, or central directories which couldn't be read directly
+				store.clear();
+				// load first file, make entry for each one
+				final int numFiles1 = snapshots[0] == null ? makeEntries(store, inFile1, 0, inSettings)
+						: snapshots[0].addEntries(store, 0);
+				results.setNumFiles(0, numFiles1);
+				// load second file, try to find entry for each file or make new one
+				final int numFiles2 = snapshots[1] == null ? makeEntries(store, inFile2, 1, inSettings)
+						: snapshots[1].addEntries(store, 1);
+				results.setNumFiles(1, numFiles2);
+			}
+			if (inSettings.getRecursive()) {
+				if (useSnapshots) {
+					System.err.println("Nested archives aren't expanded when comparing with a snapshot");
+					inSettings.setRecursive(false);
+				} else {
+					NestedArchives.expand(store, inFile1, inFile2, inSettings);
+					results.setRecursive(true);
+				}
+			}
+			if (inSettings.getDetectMoves()) {
+				MoveDetector.matchMoves(store, inFile1, inFile2, inSettings);
+			}
+
+			final CompareSettings.CompareMode mode = inSettings.getMode();
+			if (mode == CompareSettings.CompareMode.CRC) {
+				// Use the stored crc values, no need to read the contents
+				compareCrcs(results);
+			}
+			if (inSettings.getCompareClasses()) {
+				// Classes with changed sizes are compared before they're passed on
+				ClassComparer.compareClasses(entryList, inFile1, inFile2, inSettings);
+			}
+			CompareListener listener = inSettings.getListener();
+			if (listener != null) {
+				for (int i = 0; i < entryList.size(); i += LISTED_BATCH_SIZE) {
+					progress.checkCancelled();
+					listener.entriesListed(entryList.subList(i, Math.min(i + LISTED_BATCH_SIZE, entryList.size())));
+				}
+				// Pass on the entries which won't be checked any further
+				for (EntryDetails entry : entryList) {
+					progress.checkCancelled();
+					if (!mode.readsContents() || entry.getStatus() != EntryDetails.EntryStatus.SAME_SIZE) {
+						listener.entryClassified(entry);
+					}
+				}
+			}
+			if (mode.readsContents()) {
+				calculateMd5(entryList, inFile1, inFile2, inSettings);
+			}
+			progress.finish(CompareProgress.Phase.FINISHED);
+		} catch (CancellationException e) {
+			progress.finish(CompareProgress.Phase.CANCELLED);
 		}
+		notifyProgress(inSettings);
 		return results;
 	}
 
-	// TODO: Maybe we need to add an option to ignore path, just look at filenames?
+	/**
+	 * Check the contents of those entries in the given results which haven't been
+	 * checked yet, without listing the archives again. The entries are updated in
+	 * place, so a table showing them only needs to be refreshed
+	 *
+	 * @param inResults  results of a previous comparison of the same files
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings options giving the mode for checking the contents
+	 */
+	public static void checkContents(CompareResults inResults, File inFile1, File inFile2,
+			CompareSettings inSettings) {
+		// Only names from expanded archives refer to nested entries
+		inSettings.setRecursive(inResults.getRecursive());
+		checkContents(inResults.getEntryList(), inFile1, inFile2, inSettings);
+	}
+
+	/**
+	 * Check the contents of those of the given entries which haven't been checked
+	 * yet, for example just the ones being looked at
+	 *
+	 * @param inEntries  entries from a previous comparison of the same files
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings options giving the mode for checking the contents
+	 */
+	public static void checkContents(List<EntryDetails> inEntries, File inFile1, File inFile2,
+			CompareSettings inSettings) {
+		CompareProgress progress = inSettings.getProgress();
+		useSnapshotSettings(inFile1, inFile2, inSettings);
+		if (inSettings.getMode().readsContents()) {
+			try {
+				calculateMd5(inEntries, inFile1, inFile2, inSettings);
+				progress.finish(CompareProgress.Phase.FINISHED);
+			} catch (CancellationException e) {
+				progress.finish(CompareProgress.Phase.CANCELLED);
+			}
+		} else {
+			progress.finish(CompareProgress.Phase.FINISHED);
+		}
+		notifyProgress(inSettings);
+	}
+
+	/**
+	 * Inform the listener, if any, about the progress
+	 *
+	 * @param inSettings settings giving listener and progress
+	 */
+	static void notifyProgress(CompareSettings inSettings) {
+		if (inSettings.getListener() != null) {
+			inSettings.getListener().progressChanged(inSettings.getProgress());
+		}
+	}
+
+	/**
+	 * Make entrydetails objects for the entries of both files by reading their
+	 * central directories directly. While the records of the second file match
+	 * those of the first, the names are only compared byte by byte
+	 *
+	 * @param inStore    empty store to fill
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inResults  results object to receive the numbers of files
+	 * @param inSettings settings giving the progress
+	 * @return true if successful, false if the files have to be read using ZipFile
+	 */
+	private static boolean makeEntries(EntryStore inStore, File inFile1, File inFile2, CompareResults inResults,
+			CompareSettings inSettings) {
+		final CompareProgress progress = inSettings.getProgress();
+		try {
+			CentralDirectory dir1 = CentralDirectory.open(inFile1);
+			CentralDirectory dir2 = CentralDirectory.open(inFile2);
+			if (dir1.getNumEntries() > Integer.MAX_VALUE) {
+				return false;
+			}
+			// make room for all the entries at once
+			inStore.ensureCapacity((int) Math.max(dir1.getNumEntries(), dir2.getNumEntries()));
+			// load first file, remembering which entry belongs to which record
+			int[] entriesByRecord = new int[(int) dir1.getNumEntries()];
+			int numFiles = 0;
+			CentralDirectory.Cursor cursor = dir1.cursor();
+			while (cursor.next()) {
+				progress.checkCancelled();
+				if (cursor.isDirectory()) {
+					continue; // ignore these
+				}
+				numFiles++;
+				final int entry = inStore.getOrAdd(cursor);
+				setEntry(inStore, entry, 0, cursor);
+				entriesByRecord[(int) cursor.getRecordNumber()] = entry + 1;
+			}
+			inResults.setNumFiles(0, numFiles);
+
+			// load second file, stepping through the first one in parallel
+			numFiles = 0;
+			cursor = dir2.cursor();
+			CentralDirectory.Cursor firstCursor = dir1.cursor();
+			boolean inStep = true;
+			while (cursor.next()) {
+				progress.checkCancelled();
+				inStep = inStep && firstCursor.next();
+				if (cursor.isDirectory()) {
+					continue; // ignore these
+				}
+				numFiles++;
+				int entry = -1;
+				if (inStep && cursor.nameEquals(firstCursor)) {
+					entry = entriesByRecord[(int) firstCursor.getRecordNumber()] - 1;
+				}
+				if (entry < 0) {
+					entry = inStore.getOrAdd(cursor);
+				}
+				setEntry(inStore, entry, 1, cursor);
+			}
+			inResults.setNumFiles(1, numFiles);
+			return true;
+		} catch (IOException ioe) {
+			System.err.println("Reading central directory failed: " + ioe.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Copy the details of the cursor's current record into one side of an entry
+	 *
+	 * @param inStore  store holding the entry
+	 * @param inEntry  entry number
+	 * @param inIndex  0 for first file, 1 for second
+	 * @param inCursor cursor positioned on the entry's record
+	 */
+	private static void setEntry(EntryStore inStore, int inEntry, int inIndex, CentralDirectory.Cursor inCursor) {
+		inStore.setSize(inEntry, inIndex, inCursor.getSize());
+		inStore.setCrc(inEntry, inIndex, inCursor.getCrc());
+		inStore.setCompressedSize(inEntry, inIndex, inCursor.getCompressedSize());
+		inStore.setLocation(inEntry, inIndex, inCursor.getLocalHeaderOffset(), inCursor.getMethod());
+	}
+
+	/**
+	 * @param inFile     file to check
+	 * @param inSettings settings giving the listener for errors
+	 * @return snapshot, or null if the file is an archive or the snapshot couldn't be read
+	 */
+	private static ArchiveSnapshot openSnapshot(File inFile, CompareSettings inSettings) {
+		if (!ArchiveSnapshot.isSnapshot(inFile)) {
+			return null;
+		}
+		try {
+			return ArchiveSnapshot.open(inFile);
+		} catch (IOException ioe) {
+			reportError(inSettings, "Ouch: " + ioe.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Adjust the settings to fit the given files, if either of them is a snapshot
+	 *
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings to adjust
+	 */
+	static void useSnapshotSettings(File inFile1, File inFile2, CompareSettings inSettings) {
+		final ArchiveSnapshot[] snapshots = {openSnapshot(inFile1, inSettings), openSnapshot(inFile2, inSettings)};
+		useSnapshotSettings(snapshots, inSettings);
+	}
+
+	/**
+	 * Adjust the settings to fit the given snapshots, if any. The checksums have to
+	 * use the same algorithm as the snapshot, and the contents can't be compared
+	 * directly as the snapshot doesn't hold them
+	 *
+	 * @param inSnapshots snapshots of each file, or null for real archives
+	 * @param inSettings  settings to adjust
+	 * @return true if either file is a snapshot
+	 */
+	private static boolean useSnapshotSettings(ArchiveSnapshot[] inSnapshots, CompareSettings inSettings) {
+		boolean anySnapshots = false;
+		for (ArchiveSnapshot snapshot : inSnapshots) {
+			if (snapshot != null) {
+				anySnapshots = true;
+				if (inSettings.getMode() == CompareSettings.CompareMode.DIRECT) {
+					inSettings.setMode(CompareSettings.CompareMode.DIGEST);
+				}
+				if (snapshot.getDigestAlgorithm() != null) {
+					inSettings.setDigestAlgorithm(snapshot.getDigestAlgorithm());
+				}
+				if (inSettings.getCompareClasses()) {
+					System.err.println("Class files can't be compared by their code with a snapshot");
+					inSettings.setCompareClasses(false);
+				}
+			}
+		}
+		return anySnapshots;
+	}
 
 	/**
 	 * Make entrydetails objects for each entry in the given file and put in list
 	 *
-	 * @param inList  list of entries so far
-	 * @param inFile  zip/jar file to search through
-	 * @param inIndex 0 for first file, 1 for second
+	 * @param inStore    store of entries so far
+	 * @param inFile     zip/jar file to search through
+	 * @param inIndex    0 for first file, 1 for second
+	 * @param inSettings settings giving the listener for errors
 	 * @return number of files found
 	 */
-	private static int makeEntries(ArrayList<EntryDetails> inList, File inFile, int inIndex) {
-		boolean checkList = !inList.isEmpty();
+	static int makeEntries(EntryStore inStore, File inFile, int inIndex, CompareSettings inSettings) {
 		int numFiles = 0;
 		try (ZipFile zip = new ZipFile(inFile)) {
 			Enumeration<?> zipEntries = zip.entries();
 			while (zipEntries.hasMoreElements()) {
+				inSettings.getProgress().checkCancelled();
 				ZipEntry ze = (ZipEntry) zipEntries.nextElement();
 				if (ze.isDirectory()) {
 					continue; // ignore these
 				}
 				numFiles++;
-				String name = ze.getName();
-				EntryDetails details = null;
-				if (checkList) {
-					details = getEntryFromList(inList, name);
-				}
-				// Construct new details object if necessary
-				if (details == null) {
-					details = new EntryDetails();
-					details.setName(name);
-					inList.add(details);
-				}
-				// set size
+				EntryDetails details = inStore.getOrAdd(ze.getName());
+				// set size and crc
 				details.setSize(inIndex, ze.getSize());
+				details.setCrc(inIndex, ze.getCrc());
+				details.setCompressedSize(inIndex, ze.getCompressedSize());
 			}
 		} catch (IOException ioe) {
-			System.err.println("Ouch: " + ioe.getMessage());
+			reportError(inSettings, "Ouch: " + ioe.getMessage());
 		}
 		return numFiles;
 	}
 
 	/**
-	 * Look up the given name in the list
+	 * Use the crc values from the central directories to decide whether same-sized
+	 * entries are equal, without decompressing anything
 	 *
-	 * @param inList list of EntryDetails objects
-	 * @param inName name to look up
+	 * @param inResults results from preliminary check
 	 */
-	private static EntryDetails getEntryFromList(ArrayList<EntryDetails> inList, String inName) {
-		for (EntryDetails details : inList) {
-			if (details.getName() != null && details.getName().equals(inName)) {
-				return details;
+	private static void compareCrcs(CompareResults inResults) {
+		for (EntryDetails entry : inResults.getEntryList()) {
+			if (entry.getStatus() == EntryDetails.EntryStatus.SAME_SIZE && entry.getCrc(0) >= 0L
+					&& entry.getCrc(1) >= 0L) {
+				entry.setContentsEqual(entry.getCrc(0) == entry.getCrc(1));
 			}
 		}
-		return null;
 	}
 
 	/**
-	 * Calculate the md5 sums of all relevant entries
+	 * Calculate the checksums of all relevant entries, or compare their contents
+	 * directly, depending on the mode
 	 *
-	 * @param inResults results from preliminary check
-	 * @param inFile    file to read
-	 * @param inIndex   file index, either 0 or 1
+	 * @param inEntries  entries from preliminary check
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings giving digest algorithm, threads and listener
 	 */
-	private static void calculateMd5(CompareResults inResults, File inFile, int inIndex) {
-		ArrayList<EntryDetails> list = inResults.getEntryList();
-		try (ZipFile zip = new ZipFile(inFile)) {
-			for (EntryDetails entry : list) {
-				if (entry.getStatus() == EntryDetails.EntryStatus.SAME_SIZE) {
-					// Must be present in both archives if size is the same
-					ZipEntry zipEntry = zip.getEntry(entry.getName());
-					if (zipEntry == null) {
-						System.err.println("zipEntry for " + entry.getName() + " shouldn't be null!");
-					} else {
-						Md5 hasher = new Md5(zip.getInputStream(zipEntry));
-						byte[] digest = hasher.getDigest();
-						if (digest != null) {
-							entry.setMd5Sum(inIndex, hasher.getStringDigest());
-						}
-					}
-				}
+	private static void calculateMd5(List<EntryDetails> inEntries, File inFile1, File inFile2,
+			CompareSettings inSettings) {
+		ArrayList<EntryDetails> toHash = new ArrayList<>();
+		for (EntryDetails entry : inEntries) {
+			if (needsContentsCheck(entry)) {
+				toHash.add(entry);
 			}
-		} catch (Exception e) {
-			System.err.println("Exception: " + e.getMessage());
+		}
+		inSettings.getProgress().setPhase(CompareProgress.Phase.CHECKING_CONTENTS, toHash.size());
+		notifyProgress(inSettings);
+		try {
+			new ParallelHasher(inFile1, inFile2, toHash, inSettings).run();
+		} finally {
+			// Keep the sums calculated so far, even if cancelled
+			if (inSettings.getDigestCache() != null) {
+				inSettings.getDigestCache().save();
+			}
+		}
+	}
+
+	/**
+	 * @param inEntry entry to check
+	 * @return true if the contents of the entry still have to be read to know
+	 *         whether it has changed
+	 */
+	static boolean needsContentsCheck(EntryDetails inEntry) {
+		// Must be present in both archives if size is the same, equal crcs need confirming
+		final EntryDetails.EntryStatus status = inEntry.getStatus();
+		return status == EntryDetails.EntryStatus.SAME_SIZE
+				|| (status == EntryDetails.EntryStatus.EQUAL && !inEntry.getContentsChecked());
+	}
+
+	/**
+	 * Report a problem reading one of the files
+	 *
+	 * @param inSettings settings giving the listener, if any
+	 * @param inMessage  description of the problem
+	 */
+	static void reportError(CompareSettings inSettings, String inMessage) {
+		System.err.println(inMessage);
+		if (inSettings.getListener() != null) {
+			inSettings.getListener().errorOccurred(inMessage);
 		}
 	}
 }
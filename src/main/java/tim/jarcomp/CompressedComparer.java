@@ -0,0 +1,116 @@
+package tim.jarcomp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class to compare the stored bytes of entries in two archives without
+ * inflating them. Entries compressed with the same method to the same size,
+ * and with the same crc, usually have exactly the same compressed bytes, and
+ * then their contents must be the same too. The bytes are read straight from
+ * the files into buffers outside the heap
+ */
+class CompressedComparer implements Closeable {
+	/** Channels to read both files */
+	private final FileChannel[] channels = new FileChannel[2];
+	/** Buffers for reading both files */
+	private final ByteBuffer[] buffers = new ByteBuffer[2];
+
+	/** Size of each buffer */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inFile1 first file
+	 * @param inFile2 second file
+	 * @throws IOException if either file couldn't be opened
+	 */
+	CompressedComparer(File inFile1, File inFile2) throws IOException {
+		channels[0] = FileChannel.open(inFile1.toPath(), StandardOpenOption.READ);
+		try {
+			channels[1] = FileChannel.open(inFile2.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			channels[0].close();
+			throw e;
+		}
+		buffers[0] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffers[1] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * @param inEntry entry to check
+	 * @return true if the entry is stored in the same way in both archives, so that
+	 *         its compressed bytes are worth comparing
+	 */
+	static boolean canCompare(EntryDetails inEntry) {
+		final EntryStore store = inEntry.getStore();
+		final int entry = inEntry.getEntryNum();
+		return store.getHeaderOffset(entry, 0) >= 0L && store.getHeaderOffset(entry, 1) >= 0L
+				&& store.getMethod(entry, 0) == store.getMethod(entry, 1)
+				&& store.getCompressedSize(entry, 0) >= 0L
+				&& store.getCompressedSize(entry, 0) == store.getCompressedSize(entry, 1)
+				&& store.getCrc(entry, 0) >= 0L && store.getCrc(entry, 0) == store.getCrc(entry, 1);
+	}
+
+	/**
+	 * Compare the compressed bytes of an entry in both archives
+	 *
+	 * @param inEntry entry to compare, which must pass canCompare
+	 * @return true if the compressed bytes are exactly the same
+	 * @throws IOException if either file couldn't be read
+	 */
+	boolean compressedEqual(EntryDetails inEntry) throws IOException {
+		final EntryStore store = inEntry.getStore();
+		final int entry = inEntry.getEntryNum();
+		long[] positions = new long[2];
+		for (int f = 0; f < 2; f++) {
+			positions[f] = CentralDirectory.getDataOffset(channels[f], store.getHeaderOffset(entry, f));
+		}
+		long remaining = store.getCompressedSize(entry, 0);
+		while (remaining > 0L) {
+			final int length = (int) Math.min(remaining, BUFFER_SIZE);
+			for (int f = 0; f < 2; f++) {
+				fill(f, positions[f], length);
+				positions[f] += length;
+			}
+			if (buffers[0].mismatch(buffers[1]) >= 0) {
+				return false;
+			}
+			remaining -= length;
+		}
+		return true;
+	}
+
+	/**
+	 * Fill a buffer from the given position in one of the files
+	 *
+	 * @param inIndex    file index, either 0 or 1
+	 * @param inPosition position in the file
+	 * @param inLength   number of bytes to read
+	 * @throws IOException if the file ends too early
+	 */
+	private void fill(int inIndex, long inPosition, int inLength) throws IOException {
+		ByteBuffer buffer = buffers[inIndex];
+		buffer.clear().limit(inLength);
+		while (buffer.hasRemaining()) {
+			if (channels[inIndex].read(buffer, inPosition + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file in entry data at " + inPosition);
+			}
+		}
+		buffer.flip();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channels[0].close();
+		} finally {
+			channels[1].close();
+		}
+	}
+}
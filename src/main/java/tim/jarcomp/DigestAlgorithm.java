@@ -0,0 +1,104 @@
+package tim.jarcomp;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.w3c.tools.crypt.Md5;
+
+/**
+ * Constants for the available digest algorithms, used to create the
+ * corresponding DigestEngine objects
+ */
+public enum DigestAlgorithm {
+	/** Md5 using the jdk's MessageDigest */
+	MD5("md5", "Md5"),
+	/** Sha-256 using the jdk's MessageDigest */
+	SHA_256("sha256", "Sha-256"),
+	/** Non-cryptographic 64-bit xxHash, only suitable for equality checks */
+	XXHASH64("xxh64", "xxHash64"),
+	/** Bundled pure-java md5 implementation */
+	LEGACY_MD5("legacy-md5", "Md5 (legacy)");
+
+	/** Name used on the command line */
+	private final String key;
+	/** Name for display */
+	private final String displayName;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inKey         name used on the command line
+	 * @param inDisplayName name for display
+	 */
+	DigestAlgorithm(String inKey, String inDisplayName) {
+		key = inKey;
+		displayName = inDisplayName;
+	}
+
+	/**
+	 * @return name used on the command line
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return name for display
+	 */
+	@Override
+	public String toString() {
+		return displayName;
+	}
+
+	/**
+	 * @return a new engine for this algorithm, only to be used by a single thread
+	 */
+	public DigestEngine createEngine() {
+		switch (this) {
+		case MD5:
+			return new MessageDigestEngine(getMessageDigest("MD5"));
+		case SHA_256:
+			return new MessageDigestEngine(getMessageDigest("SHA-256"));
+		case XXHASH64:
+			return new XxHash64Engine();
+		case LEGACY_MD5:
+		default:
+			return inStream -> {
+				Md5 hasher = new Md5(inStream);
+				if (hasher.getDigest() == null) {
+					throw new IOException("Md5 failed");
+				}
+				return hasher.getStringDigest();
+			};
+		}
+	}
+
+	/**
+	 * Look up an algorithm by its command line name
+	 *
+	 * @param inKey name of algorithm, such as "sha256"
+	 * @return matching algorithm, or null if not found
+	 */
+	public static DigestAlgorithm fromKey(String inKey) {
+		for (DigestAlgorithm algorithm : values()) {
+			if (algorithm.key.equalsIgnoreCase(inKey)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param inName name of jdk algorithm
+	 * @return MessageDigest object
+	 */
+	private static MessageDigest getMessageDigest(String inName) {
+		try {
+			return MessageDigest.getInstance(inName);
+		} catch (NoSuchAlgorithmException e) {
+			// Every jdk has to provide md5 and sha-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,498 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Class to remember the checksums of entries between runs, so that entries which
+ * haven't changed don't have to be read again. Each checksum is keyed by the
+ * archive's path, size and modification time together with the entry's name,
+ * crc and sizes. The file is only ever appended to, except when it grows too
+ * big and the least recently used checksums are dropped. A separate lock file
+ * protects it from other processes using the same cache
+ */
+public class DigestCache {
+	/** Cache file */
+	private final File cacheFile;
+	/** Lock file, held while writing the cache file */
+	private final File lockFile;
+	/** Maximum size of cache file in bytes */
+	private final long maxFileSize;
+	/** Checksums keyed by hash of entry identity */
+	private RecordTable records = new RecordTable(0);
+
+	/** Default maximum size of the cache file */
+	public static final long DEFAULT_MAX_SIZE = 64L * 1024L * 1024L;
+	/** Marker at the start of the file, including the format version */
+	private static final byte[] FILE_HEADER = "JarComp digests 1\n".getBytes(StandardCharsets.US_ASCII);
+	/** Length of each record without the digest */
+	private static final int RECORD_HEADER_LENGTH = 8 + 8 + 8 + 1;
+	/** Smallest digest, used to estimate the number of records from the size of the file */
+	private static final int MIN_DIGEST_LENGTH = 8;
+	/** Time after which an entry used again is recorded again, to keep it in the cache */
+	private static final long TOUCH_INTERVAL_MILLIS = 24L * 60L * 60L * 1000L;
+	/** Time stored for records which haven't been written to the file yet */
+	private static final long NOT_STORED = 0L;
+
+	/**
+	 * Table of records held in arrays of primitives, with an open-addressing
+	 * index of the keys, so that even a large cache needs only a few objects
+	 */
+	private static final class RecordTable {
+		/** Number of records */
+		private int numRecords = 0;
+		/** Both halves of the hash of each record's identity */
+		private long[] keys;
+		/** Time of last use of each record in milliseconds */
+		private long[] lastUsed;
+		/** Time of last use of each record as stored in the file, or NOT_STORED */
+		private long[] lastStored;
+		/** Start of each record's digest in the pool */
+		private int[] digestStarts;
+		/** Length of each record's digest */
+		private byte[] digestLengths;
+		/** Digests of all the records, one after the other */
+		private byte[] digestPool;
+		/** Length of the used part of the pool */
+		private int poolLength = 0;
+		/** Hash table of record number + 1, 0 for an empty slot */
+		private int[] table;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inCapacity expected number of records
+		 */
+		RecordTable(int inCapacity) {
+			final int capacity = Math.max(inCapacity, 16);
+			keys = new long[capacity * 2];
+			lastUsed = new long[capacity];
+			lastStored = new long[capacity];
+			digestStarts = new int[capacity];
+			digestLengths = new byte[capacity];
+			digestPool = new byte[capacity * 16];
+			table = new int[tableSizeFor(capacity)];
+		}
+
+		/**
+		 * @param inHigh first half of key
+		 * @param inLow  second half of key
+		 * @return record number, or -1 if not found
+		 */
+		int find(long inHigh, long inLow) {
+			final int mask = table.length - 1;
+			for (int slot = hash(inHigh, inLow) & mask;; slot = (slot + 1) & mask) {
+				final int record = table[slot] - 1;
+				if (record < 0) {
+					return -1;
+				}
+				if (keys[record * 2] == inHigh && keys[record * 2 + 1] == inLow) {
+					return record;
+				}
+			}
+		}
+
+		/**
+		 * Add a record, or replace the one with the same key
+		 *
+		 * @param inHigh       first half of key
+		 * @param inLow        second half of key
+		 * @param inDigest     array holding the digest
+		 * @param inStart      start of the digest in the array
+		 * @param inLength     length of the digest
+		 * @param inLastUsed   time of last use
+		 * @param inLastStored time of last use as stored in the file, or NOT_STORED
+		 * @return record number
+		 */
+		int put(long inHigh, long inLow, byte[] inDigest, int inStart, int inLength, long inLastUsed,
+				long inLastStored) {
+			int record = find(inHigh, inLow);
+			final boolean isNew = record < 0;
+			if (isNew) {
+				if (numRecords == lastUsed.length) {
+					resize(numRecords * 2);
+				}
+				record = numRecords++;
+				keys[record * 2] = inHigh;
+				keys[record * 2 + 1] = inLow;
+				insert(record);
+			}
+			if (isNew || (digestLengths[record] & 0xff) != inLength) {
+				// The digest of a new record goes at the end of the pool
+				if (poolLength + inLength > digestPool.length) {
+					digestPool = Arrays.copyOf(digestPool, Math.max(digestPool.length * 2, poolLength + inLength));
+				}
+				digestStarts[record] = poolLength;
+				poolLength += inLength;
+			}
+			System.arraycopy(inDigest, inStart, digestPool, digestStarts[record], inLength);
+			digestLengths[record] = (byte) inLength;
+			lastUsed[record] = inLastUsed;
+			lastStored[record] = inLastStored;
+			return record;
+		}
+
+		/**
+		 * @param inRecord record number
+		 * @return length of the record in the file
+		 */
+		int getRecordLength(int inRecord) {
+			return RECORD_HEADER_LENGTH + (digestLengths[inRecord] & 0xff);
+		}
+
+		/**
+		 * @param inRecord record number
+		 * @return digest as a hex string
+		 */
+		String getDigest(int inRecord) {
+			final int start = digestStarts[inRecord];
+			return MessageDigestEngine.toHex(
+					Arrays.copyOfRange(digestPool, start, start + (digestLengths[inRecord] & 0xff)));
+		}
+
+		/**
+		 * Copy a record from another table, replacing any with the same key
+		 *
+		 * @param inOther  other table
+		 * @param inRecord record number in the other table
+		 */
+		void copyFrom(RecordTable inOther, int inRecord) {
+			put(inOther.keys[inRecord * 2], inOther.keys[inRecord * 2 + 1], inOther.digestPool,
+					inOther.digestStarts[inRecord], inOther.digestLengths[inRecord] & 0xff,
+					inOther.lastUsed[inRecord], inOther.lastStored[inRecord]);
+		}
+
+		/**
+		 * @param inRecords record numbers to encode
+		 * @param inNumRecords number of records
+		 * @return buffer ready for writing
+		 */
+		ByteBuffer encode(int[] inRecords, int inNumRecords) {
+			int length = 0;
+			for (int i = 0; i < inNumRecords; i++) {
+				length += getRecordLength(inRecords[i]);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			for (int i = 0; i < inNumRecords; i++) {
+				final int record = inRecords[i];
+				buffer.putLong(keys[record * 2]).putLong(keys[record * 2 + 1]).putLong(lastUsed[record]);
+				buffer.put(digestLengths[record]).put(digestPool, digestStarts[record], digestLengths[record] & 0xff);
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		/**
+		 * @param inRecord record to put into the hash table
+		 */
+		private void insert(int inRecord) {
+			final int mask = table.length - 1;
+			int slot = hash(keys[inRecord * 2], keys[inRecord * 2 + 1]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = inRecord + 1;
+		}
+
+		/**
+		 * @param inCapacity new number of records
+		 */
+		private void resize(int inCapacity) {
+			keys = Arrays.copyOf(keys, inCapacity * 2);
+			lastUsed = Arrays.copyOf(lastUsed, inCapacity);
+			lastStored = Arrays.copyOf(lastStored, inCapacity);
+			digestStarts = Arrays.copyOf(digestStarts, inCapacity);
+			digestLengths = Arrays.copyOf(digestLengths, inCapacity);
+			table = new int[tableSizeFor(inCapacity)];
+			for (int i = 0; i < numRecords; i++) {
+				insert(i);
+			}
+		}
+
+		/**
+		 * @param inCapacity number of records
+		 * @return size of hash table to keep it at most half full
+		 */
+		private static int tableSizeFor(int inCapacity) {
+			return Integer.highestOneBit(Math.max(inCapacity, 8) * 2 - 1) * 2;
+		}
+
+		/**
+		 * @param inHigh first half of key
+		 * @param inLow  second half of key
+		 * @return hash value, from bits which are already well mixed by md5
+		 */
+		private static int hash(long inHigh, long inLow) {
+			return (int) (inHigh ^ (inLow >>> 32));
+		}
+	}
+
+	/**
+	 * Identity of one of the archives, shared by all its entries
+	 */
+	public static final class ArchiveKey {
+		/** Path, size and modification time as bytes */
+		private final byte[] bytes;
+
+		/**
+		 * @param inFile archive file
+		 */
+		public ArchiveKey(File inFile) {
+			String path;
+			try {
+				path = inFile.getCanonicalPath();
+			} catch (IOException e) {
+				path = inFile.getAbsolutePath();
+			}
+			bytes = (path + "\0" + inFile.length() + "\0" + inFile.lastModified() + "\0")
+					.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Constructor, loading any existing contents
+	 *
+	 * @param inFile    cache file, which needn't exist yet
+	 * @param inMaxSize maximum size of file in bytes
+	 */
+	public DigestCache(File inFile, long inMaxSize) {
+		cacheFile = inFile;
+		lockFile = new File(inFile.getPath() + ".lock");
+		maxFileSize = inMaxSize;
+		try {
+			records = readRecords();
+		} catch (IOException e) {
+			System.err.println("Couldn't read digest cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return default location of the cache file, in the user's home directory
+	 */
+	public static File getDefaultFile() {
+		return new File(new File(System.getProperty("user.home"), ".jarcomp"), "digests.cache");
+	}
+
+	/**
+	 * Look up the checksum of an entry
+	 *
+	 * @param inArchive   identity of archive
+	 * @param inEntry     entry details
+	 * @param inIndex     index of archive, either 0 or 1
+	 * @param inAlgorithm digest algorithm
+	 * @return checksum as a hex string, or null if not known
+	 */
+	public String get(ArchiveKey inArchive, EntryDetails inEntry, int inIndex, DigestAlgorithm inAlgorithm) {
+		// Only the lookup needs the lock, not the hashing of the key
+		final long[] key = makeKey(inArchive, inEntry, inIndex, inAlgorithm);
+		synchronized (this) {
+			final int record = records.find(key[0], key[1]);
+			if (record < 0) {
+				return null;
+			}
+			records.lastUsed[record] = System.currentTimeMillis();
+			return records.getDigest(record);
+		}
+	}
+
+	/**
+	 * Remember the checksum of an entry
+	 *
+	 * @param inArchive   identity of archive
+	 * @param inEntry     entry details
+	 * @param inIndex     index of archive, either 0 or 1
+	 * @param inAlgorithm digest algorithm
+	 * @param inDigest    checksum as a hex string
+	 */
+	public void put(ArchiveKey inArchive, EntryDetails inEntry, int inIndex, DigestAlgorithm inAlgorithm,
+			String inDigest) {
+		final long[] key = makeKey(inArchive, inEntry, inIndex, inAlgorithm);
+		final byte[] digest = fromHex(inDigest);
+		synchronized (this) {
+			if (records.find(key[0], key[1]) < 0) {
+				records.put(key[0], key[1], digest, 0, digest.length, System.currentTimeMillis(), NOT_STORED);
+			}
+		}
+	}
+
+	/**
+	 * Append the new checksums to the file, and those which have been used again,
+	 * shrinking the file if it's grown too big
+	 */
+	public synchronized void save() {
+		int[] toWrite = new int[records.numRecords];
+		int numToWrite = 0;
+		for (int i = 0; i < records.numRecords; i++) {
+			// New records are never stored, so they always count as used again
+			if (records.lastUsed[i] - records.lastStored[i] > TOUCH_INTERVAL_MILLIS) {
+				toWrite[numToWrite++] = i;
+			}
+		}
+		if (numToWrite == 0) {
+			return;
+		}
+		try {
+			File dir = cacheFile.getAbsoluteFile().getParentFile();
+			if (dir != null && !dir.exists() && !dir.mkdirs()) {
+				throw new IOException("Couldn't create " + dir);
+			}
+			try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				// The lock is released when the channel is closed
+				lockChannel.lock();
+				appendRecords(toWrite, numToWrite);
+				for (int i = 0; i < numToWrite; i++) {
+					records.lastStored[toWrite[i]] = records.lastUsed[toWrite[i]];
+				}
+				if (cacheFile.length() > maxFileSize) {
+					compact();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't write digest cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Append the given records to the end of the file, writing the header first
+	 * if the file is new
+	 *
+	 * @param inRecords    numbers of records to write
+	 * @param inNumRecords number of records
+	 */
+	private void appendRecords(int[] inRecords, int inNumRecords) throws IOException {
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			if (channel.size() == 0L) {
+				writeFully(channel, ByteBuffer.wrap(FILE_HEADER));
+			}
+			writeFully(channel, records.encode(inRecords, inNumRecords));
+		}
+	}
+
+	/**
+	 * Rewrite the file keeping only the most recently used records, up to three
+	 * quarters of the maximum size. Must be called while holding the lock
+	 */
+	private void compact() throws IOException {
+		// Reread the file to include records written by other processes
+		RecordTable all = readRecords();
+		for (int i = 0; i < records.numRecords; i++) {
+			all.copyFrom(records, i);
+		}
+		int[] order = new int[all.numRecords];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		IndexSorter.sort(order, order.length, (a, b) -> Long.compare(all.lastUsed[b], all.lastUsed[a]));
+		int numKept = 0;
+		long size = FILE_HEADER.length;
+		while (numKept < order.length) {
+			size += all.getRecordLength(order[numKept]);
+			if (size > maxFileSize * 3 / 4) {
+				break;
+			}
+			numKept++;
+		}
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, ByteBuffer.wrap(FILE_HEADER));
+			writeFully(channel, all.encode(order, numKept));
+		}
+		Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		// Keep just what's in the file now
+		RecordTable kept = new RecordTable(numKept);
+		for (int i = 0; i < numKept; i++) {
+			kept.copyFrom(all, order[i]);
+		}
+		records = kept;
+	}
+
+	/**
+	 * Read all the complete records from the file, ignoring any partly written
+	 * record at the end. The file is mapped, and the table is sized from its
+	 * length so that it doesn't have to grow while reading
+	 *
+	 * @return table of the records, later records replacing earlier ones
+	 */
+	private RecordTable readRecords() throws IOException {
+		if (!cacheFile.exists()) {
+			return new RecordTable(0);
+		}
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			final long maxRecords = channel.size() / (RECORD_HEADER_LENGTH + MIN_DIGEST_LENGTH);
+			RecordTable table = new RecordTable((int) Math.min(maxRecords, Integer.MAX_VALUE / 4));
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			byte[] header = new byte[FILE_HEADER.length];
+			if (buffer.remaining() < header.length) {
+				return table;
+			}
+			buffer.get(header);
+			if (!MessageDigest.isEqual(header, FILE_HEADER)) {
+				throw new IOException(cacheFile + " isn't a digest cache");
+			}
+			byte[] digest = new byte[255];
+			while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+				final long high = buffer.getLong();
+				final long low = buffer.getLong();
+				final long lastUsed = buffer.getLong();
+				final int digestLength = buffer.get() & 0xff;
+				if (buffer.remaining() < digestLength) {
+					break;
+				}
+				buffer.get(digest, 0, digestLength);
+				table.put(high, low, digest, 0, digestLength, lastUsed, lastUsed);
+			}
+			return table;
+		}
+	}
+
+	private static void writeFully(FileChannel inChannel, ByteBuffer inBuffer) throws IOException {
+		while (inBuffer.hasRemaining()) {
+			inChannel.write(inBuffer);
+		}
+	}
+
+	/**
+	 * Make the key for an entry by hashing all the values identifying it
+	 *
+	 * @return both halves of the key
+	 */
+	private static long[] makeKey(ArchiveKey inArchive, EntryDetails inEntry, int inIndex,
+			DigestAlgorithm inAlgorithm) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(inArchive.bytes);
+			digest.update((inEntry.getName() + "\0" + inEntry.getCrc(inIndex) + "\0" + inEntry.getSize(inIndex) + "\0"
+					+ inEntry.getCompressedSize(inIndex) + "\0" + inAlgorithm.getKey())
+					.getBytes(StandardCharsets.UTF_8));
+			ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+			return new long[] {hash.getLong(), hash.getLong()};
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param inHex hex string
+	 * @return bytes
+	 */
+	private static byte[] fromHex(String inHex) {
+		byte[] bytes = new byte[inHex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(inHex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,18 @@
+package tim.jarcomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Interface for calculating the checksum of an entry's contents
+ */
+public interface DigestEngine {
+	/**
+	 * Read the given stream to the end and calculate its digest
+	 *
+	 * @param inStream stream to read, not closed by this method
+	 * @return digest as a hex string
+	 * @throws IOException if the stream couldn't be read
+	 */
+	String digest(InputStream inStream) throws IOException;
+}
@@ -2,19 +2,33 @@ package tim.jarcomp;
 
 /**
  * Class to represent a single entry in the jar file for displaying in the
- * comparison table
+ * comparison table. The details are held in an EntryStore, so these objects are
+ * only views which can be made and thrown away as needed
  */
 public class EntryDetails {
-	/** Name of entry, including full path */
-	private String name = null;
-	/** Flag to show if it's present or not (might be zero length) */
-	private final boolean[] present = new boolean[2];
-	/** Sizes of this file, in bytes, in archives */
-	private final long[] sizes = new long[2];
-	/** Md5 sums in both archives */
-	private final String[] md5Sums = new String[2];
-	/** SizeChange */
-	private final SizeChange sizeChange = new SizeChange();
+	/** Store holding the details */
+	private final EntryStore store;
+	/** Number of this entry in the store */
+	private final int entryNum;
+
+	/**
+	 * Constructor for a single entry, with its own store
+	 */
+	public EntryDetails() {
+		store = new EntryStore(1);
+		entryNum = store.add("");
+	}
+
+	/**
+	 * Constructor for an entry held in the given store
+	 *
+	 * @param inStore    store holding the details
+	 * @param inEntryNum number of the entry in the store
+	 */
+	EntryDetails(EntryStore inStore, int inEntryNum) {
+		store = inStore;
+		entryNum = inEntryNum;
+	}
 
 	/** Constants for entry status */
 	public enum EntryStatus {
@@ -24,27 +38,47 @@ public class EntryDetails {
 		REMOVED,
 		/** File size different in two files */
 		CHANGED_SIZE,
-		/** File size same (md5 not checked) */
+		/** File size same (contents not checked) */
 		SAME_SIZE,
 		/** File checksum different */
 		CHANGED_SUM,
 		/** Files really equal */
-		EQUAL
+		EQUAL,
+		/** File with the same name and contents found in another directory */
+		MOVED,
+		/** File with the same contents found under another name */
+		RENAMED,
+		/** Class file with different bytes but the same code */
+		EQUAL_SEMANTIC
 	}
 	// TODO: Each of these status flags needs an icon
 
+	/**
+	 * @return store holding the details
+	 */
+	EntryStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return number of this entry in the store
+	 */
+	int getEntryNum() {
+		return entryNum;
+	}
+
 	/**
 	 * @return name of entry
 	 */
 	public String getName() {
-		return name;
+		return store.getName(entryNum);
 	}
 
 	/**
 	 * @param inName name to set
 	 */
 	public void setName(String inName) {
-		name = inName;
+		store.setName(entryNum, inName);
 	}
 
 	/**
@@ -55,7 +89,18 @@ public class EntryDetails {
 		if (inIndex < 0 || inIndex > 1) {
 			return 0L;
 		}
-		return sizes[inIndex];
+		return store.getSize(entryNum, inIndex);
+	}
+
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @return true if this file is present in corresponding archive
+	 */
+	public boolean isPresent(int inIndex) {
+		if (inIndex < 0 || inIndex > 1) {
+			return false;
+		}
+		return store.isPresent(entryNum, inIndex);
 	}
 
 	/**
@@ -64,58 +109,128 @@ public class EntryDetails {
 	 */
 	public void setSize(int inIndex, long inSize) {
 		if (inIndex == 0 || inIndex == 1) {
-			sizes[inIndex] = inSize;
-			present[inIndex] = true;
-			sizeChange.update(sizes[1] - sizes[0], isChanged());
+			store.setSize(entryNum, inIndex, inSize);
 		}
 	}
 
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @return checksum of this file in corresponding archive, or null if not known
+	 */
+	public String getMd5Sum(int inIndex) {
+		if (inIndex < 0 || inIndex > 1) {
+			return null;
+		}
+		return store.getDigest(entryNum, inIndex);
+	}
+
 	/**
 	 * @param inIndex  index, either 0 or 1
 	 * @param inMd5Sum md5 checksum of this file
 	 */
 	public void setMd5Sum(int inIndex, String inMd5Sum) {
 		if (inIndex == 0 || inIndex == 1) {
-			md5Sums[inIndex] = inMd5Sum;
-			sizeChange.update(sizes[1] - sizes[0], isChanged());
+			store.setDigest(entryNum, inIndex, inMd5Sum);
+		}
+	}
+
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @return compressed size in corresponding archive, or -1 if not known
+	 */
+	public long getCompressedSize(int inIndex) {
+		if (inIndex < 0 || inIndex > 1) {
+			return -1L;
+		}
+		return store.getCompressedSize(entryNum, inIndex);
+	}
+
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @param inSize  compressed size in bytes, or -1 if not known
+	 */
+	public void setCompressedSize(int inIndex, long inSize) {
+		if (inIndex == 0 || inIndex == 1) {
+			store.setCompressedSize(entryNum, inIndex, inSize);
+		}
+	}
+
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @return crc of this file in corresponding archive, or -1 if not known
+	 */
+	public long getCrc(int inIndex) {
+		if (inIndex < 0 || inIndex > 1) {
+			return -1L;
+		}
+		return store.getCrc(entryNum, inIndex);
+	}
+
+	/**
+	 * @param inIndex index, either 0 or 1
+	 * @param inCrc   crc of this file, or -1 if not known
+	 */
+	public void setCrc(int inIndex, long inCrc) {
+		if (inIndex == 0 || inIndex == 1) {
+			store.setCrc(entryNum, inIndex, inCrc);
 		}
 	}
 
+	/**
+	 * Set the result of a content check which didn't produce md5 sums, such as a
+	 * crc comparison
+	 *
+	 * @param inEqual true if the contents were found to be equal
+	 */
+	public void setContentsEqual(boolean inEqual) {
+		store.setContentsEqual(entryNum, inEqual, false);
+	}
+
+	/**
+	 * Set the result of comparing the actual contents without producing md5 sums
+	 *
+	 * @param inEqual true if the contents are exactly the same
+	 */
+	public void setContentsCompared(boolean inEqual) {
+		store.setContentsEqual(entryNum, inEqual, true);
+	}
+
+	/**
+	 * @return true if the contents have been checked, either by md5 sums or by
+	 *         comparing them directly. A difference found by the crcs is final too
+	 */
+	public boolean getContentsChecked() {
+		return getMd5Checked() || store.getContentsCompared(entryNum);
+	}
+
 	/**
 	 * @return true if md5 sums have been generated for this entry
 	 */
 	public boolean getMd5Checked() {
-		return (md5Sums[0] != null && md5Sums[1] != null);
+		return store.hasDigest(entryNum, 0) && store.hasDigest(entryNum, 1);
 	}
 
 	/**
 	 * @return status of entry
 	 */
 	public EntryStatus getStatus() {
-		if (!present[0] && present[1]) {
-			return EntryStatus.ADDED;
-		}
-		if (present[0] && !present[1]) {
-			return EntryStatus.REMOVED;
-		}
-		if (sizes[0] != sizes[1]) {
-			return EntryStatus.CHANGED_SIZE;
-		}
-		if (!getMd5Checked()) {
-			return EntryStatus.SAME_SIZE;
-		}
-		// md5 sums have been checked
-		if (!md5Sums[0].equals(md5Sums[1])) {
-			return EntryStatus.CHANGED_SUM;
-		}
-		return EntryStatus.EQUAL;
+		return store.getStatus(entryNum);
+	}
+
+	/**
+	 * @return entry at another path with the same contents, if this one was moved
+	 *         or renamed, otherwise null
+	 */
+	public EntryDetails getMatchingEntry() {
+		final int partner = store.getPartner(entryNum);
+		return partner < 0 ? null : store.get(partner);
 	}
 
 	/**
 	 * @return size change object
 	 */
 	public SizeChange getSizeChange() {
-		return sizeChange;
+		return new SizeChange(getSize(1) - getSize(0), isChanged());
 	}
 
 	/**
@@ -123,6 +238,35 @@ public class EntryDetails {
 	 */
 	public boolean isChanged() {
 		EntryStatus status = getStatus();
-		return status != EntryStatus.SAME_SIZE && status != EntryStatus.EQUAL;
+		return status != EntryStatus.SAME_SIZE && status != EntryStatus.EQUAL && status != EntryStatus.EQUAL_SEMANTIC;
+	}
+
+	/**
+	 * @return names of the changed fields and methods if this is a class file
+	 *         compared by its code, an empty string if the code is the same, or
+	 *         null if not compared
+	 */
+	public String getClassChanges() {
+		return store.getClassChanges(entryNum);
+	}
+
+	/**
+	 * @return true if the other object is a details object for the same entry
+	 */
+	@Override
+	public boolean equals(Object inOther) {
+		if (!(inOther instanceof EntryDetails)) {
+			return false;
+		}
+		EntryDetails other = (EntryDetails) inOther;
+		return other.store == store && other.entryNum == entryNum;
+	}
+
+	/**
+	 * @return hash code matching equals
+	 */
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(store) * 31 + entryNum;
 	}
 }
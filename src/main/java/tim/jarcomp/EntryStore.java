@@ -0,0 +1,696 @@
+package tim.jarcomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import tim.jarcomp.EntryDetails.EntryStatus;
+
+/**
+ * Class to hold the details of all the entries of a comparison in parallel
+ * arrays of primitives, rather than in one object per entry. The names are kept
+ * in a dictionary of directories, and the entries are only wrapped in
+ * EntryDetails objects when they're looked at. Setters are synchronized so that
+ * several threads can store checksums at the same time
+ */
+public class EntryStore {
+	/** Number of entries */
+	private int numEntries = 0;
+	/** Names of all entries, held as a tree of directories */
+	private PathDictionary names;
+	/** Sizes, two for each entry */
+	private long[] sizes;
+	/** Compressed sizes, two for each entry, or -1 if not known */
+	private long[] compressedSizes;
+	/** Crc values, two for each entry */
+	private int[] crcs;
+	/** Flags for each entry, combining presence, known values and the contents state */
+	private byte[] flags;
+	/** Status code of each entry, updated whenever its details change */
+	private byte[] statuses;
+	/** Number of entries with each status code */
+	private final int[] statusCounts = new int[STATUS_CODES.length];
+	/** Checksums as numbers, two for each entry, or null if none set yet */
+	private long[] digests = null;
+	/** Number of longs needed for one checksum */
+	private int digestWords = 0;
+	/** Number of hex characters in each checksum */
+	private int digestHexLength = 0;
+	/** Checksums which couldn't be stored as numbers, keyed by entry * 2 + index */
+	private HashMap<Integer, String> otherDigests = null;
+	/** Number of the entry with the same contents at another path, -1 if none, or null if none matched yet */
+	private int[] partners = null;
+	/** Local header position shifted left by 16 bits plus compression method, or -1 if not known */
+	private long[] locations = null;
+	/** Changed members of class files compared by their code, keyed by entry, or null if none compared yet */
+	private HashMap<Integer, String> classChanges = null;
+
+	/** Flag for presence in the first archive, shifted left by index */
+	private static final int FLAG_PRESENT = 0x01;
+	/** Flag for a known crc in the first archive, shifted left by index */
+	private static final int FLAG_CRC = 0x04;
+	/** Flag for a known checksum in the first archive, shifted left by index */
+	private static final int FLAG_DIGEST = 0x10;
+	/** Mask for the contents state */
+	private static final int MASK_CONTENTS = 0xc0;
+	/** Contents state: found equal by their crcs */
+	private static final int CONTENTS_CRC_EQUAL = 0x40;
+	/** Contents state: found exactly equal by comparing them */
+	private static final int CONTENTS_EQUAL = 0x80;
+	/** Contents state: found to be different, by either method */
+	private static final int CONTENTS_DIFFERENT = 0xc0;
+	/** Number of hex characters held by one long */
+	private static final int HEX_PER_WORD = 16;
+	/** Status code for entries which aren't present in either archive yet */
+	private static final int STATUS_NONE = 0;
+	/** Status code for entries found equal only by their crcs */
+	private static final int STATUS_CRC_EQUAL = 1;
+	/** Status code of the first status, the others following in order */
+	private static final int STATUS_FIRST = 2;
+	/** Statuses for each status code */
+	private static final EntryStatus[] STATUS_CODES = new EntryStatus[STATUS_FIRST + EntryStatus.values().length];
+
+	static {
+		STATUS_CODES[STATUS_NONE] = EntryStatus.SAME_SIZE;
+		STATUS_CODES[STATUS_CRC_EQUAL] = EntryStatus.EQUAL;
+		for (EntryStatus status : EntryStatus.values()) {
+			STATUS_CODES[STATUS_FIRST + status.ordinal()] = status;
+		}
+	}
+
+	/**
+	 * Constructor
+	 */
+	public EntryStore() {
+		this(16);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param inCapacity expected number of entries
+	 */
+	public EntryStore(int inCapacity) {
+		allocate(Math.max(inCapacity, 1));
+	}
+
+	/**
+	 * Make empty arrays for the given number of entries
+	 *
+	 * @param inCapacity number of entries
+	 */
+	private void allocate(int inCapacity) {
+		numEntries = 0;
+		names = new PathDictionary(inCapacity);
+		sizes = new long[inCapacity * 2];
+		compressedSizes = new long[inCapacity * 2];
+		crcs = new int[inCapacity * 2];
+		flags = new byte[inCapacity];
+		statuses = new byte[inCapacity];
+		Arrays.fill(statusCounts, 0);
+		digests = null;
+		digestWords = 0;
+		digestHexLength = 0;
+		otherDigests = null;
+		partners = null;
+		locations = null;
+		classChanges = null;
+	}
+
+	/**
+	 * Remove all the entries
+	 */
+	public synchronized void clear() {
+		allocate(16);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return numEntries;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return details object for the given entry
+	 */
+	public EntryDetails get(int inEntry) {
+		return new EntryDetails(this, inEntry);
+	}
+
+	/**
+	 * @return list of all the entries, with the details objects made as needed
+	 */
+	public List<EntryDetails> asList() {
+		return new EntryList();
+	}
+
+	/**
+	 * @param inName name of entry, including full path
+	 * @return number of the entry with this name, or -1 if not found
+	 */
+	public synchronized int find(String inName) {
+		return names.find(inName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Add a new entry, which isn't present in either archive yet
+	 *
+	 * @param inName name of entry, which mustn't be in the store already
+	 * @return number of the new entry
+	 */
+	public synchronized int add(String inName) {
+		final byte[] name = inName.getBytes(StandardCharsets.UTF_8);
+		return add(name, name.length);
+	}
+
+	/**
+	 * @param inName   array starting with the name of entry as utf-8 bytes
+	 * @param inLength length of the name
+	 * @return number of the new entry
+	 */
+	private int add(byte[] inName, int inLength) {
+		if (numEntries == flags.length) {
+			grow();
+		}
+		final int entry = names.add(inName, inLength);
+		compressedSizes[entry * 2] = -1L;
+		compressedSizes[entry * 2 + 1] = -1L;
+		numEntries++;
+		statusCounts[STATUS_NONE]++;
+		return entry;
+	}
+
+	/**
+	 * Find the entry with the given name, adding it if necessary
+	 *
+	 * @param inName name of entry, including full path
+	 * @return details object for the entry
+	 */
+	public synchronized EntryDetails getOrAdd(String inName) {
+		byte[] name = inName.getBytes(StandardCharsets.UTF_8);
+		int entry = names.find(name);
+		if (entry < 0) {
+			entry = add(name, name.length);
+		}
+		return get(entry);
+	}
+
+	/**
+	 * Find the entry with the name of the cursor's current record, adding it if
+	 * necessary. The name is looked up as bytes, without decoding it
+	 *
+	 * @param inCursor cursor positioned on a record
+	 * @return number of the entry
+	 */
+	synchronized int getOrAdd(CentralDirectory.Cursor inCursor) {
+		final byte[] name = inCursor.getNameBytes();
+		final int nameLength = inCursor.getNameLength();
+		int entry = names.find(name, nameLength);
+		if (entry < 0) {
+			entry = add(name, nameLength);
+		}
+		return entry;
+	}
+
+	/**
+	 * Make room for the given number of entries, to avoid growing the arrays step
+	 * by step
+	 *
+	 * @param inNumEntries number of entries
+	 */
+	public synchronized void ensureCapacity(int inNumEntries) {
+		if (inNumEntries > flags.length) {
+			resize(inNumEntries);
+		}
+	}
+
+	/**
+	 * Make all the arrays twice as big
+	 */
+	private void grow() {
+		resize(flags.length * 2);
+	}
+
+	/**
+	 * Change the size of all the arrays
+	 *
+	 * @param inCapacity new number of entries
+	 */
+	private void resize(int inCapacity) {
+		names.ensureCapacity(inCapacity);
+		sizes = Arrays.copyOf(sizes, inCapacity * 2);
+		compressedSizes = Arrays.copyOf(compressedSizes, inCapacity * 2);
+		crcs = Arrays.copyOf(crcs, inCapacity * 2);
+		flags = Arrays.copyOf(flags, inCapacity);
+		statuses = Arrays.copyOf(statuses, inCapacity);
+		if (digests != null) {
+			digests = Arrays.copyOf(digests, inCapacity * 2 * digestWords);
+		}
+		if (partners != null) {
+			final int oldLength = partners.length;
+			partners = Arrays.copyOf(partners, inCapacity);
+			Arrays.fill(partners, oldLength, inCapacity, -1);
+		}
+		if (locations != null) {
+			final int oldLength = locations.length;
+			locations = Arrays.copyOf(locations, inCapacity * 2);
+			Arrays.fill(locations, oldLength, inCapacity * 2, -1L);
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return name of entry
+	 */
+	String getName(int inEntry) {
+		return names.getName(inEntry);
+	}
+
+	/**
+	 * @return names of the entries, as a tree of directories
+	 */
+	PathDictionary getPaths() {
+		return names;
+	}
+
+	/**
+	 * Rename the last entry, the others can't be renamed
+	 *
+	 * @param inEntry entry number
+	 * @param inName  new name
+	 */
+	synchronized void setName(int inEntry, String inName) {
+		if (inEntry != numEntries - 1) {
+			throw new IllegalStateException("Only the last entry can be renamed");
+		}
+		names.renameLast(inName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return true if the entry is present in the corresponding archive
+	 */
+	boolean isPresent(int inEntry, int inIndex) {
+		return (flags[inEntry] & (FLAG_PRESENT << inIndex)) != 0;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return size in corresponding archive
+	 */
+	long getSize(int inEntry, int inIndex) {
+		return sizes[inEntry * 2 + inIndex];
+	}
+
+	/**
+	 * Set the size, which also marks the entry as present
+	 *
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @param inSize  size in bytes
+	 */
+	synchronized void setSize(int inEntry, int inIndex, long inSize) {
+		sizes[inEntry * 2 + inIndex] = inSize;
+		flags[inEntry] |= FLAG_PRESENT << inIndex;
+		updateStatus(inEntry);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return compressed size, or -1 if not known
+	 */
+	long getCompressedSize(int inEntry, int inIndex) {
+		return compressedSizes[inEntry * 2 + inIndex];
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @param inSize  compressed size, or -1 if not known
+	 */
+	synchronized void setCompressedSize(int inEntry, int inIndex, long inSize) {
+		compressedSizes[inEntry * 2 + inIndex] = inSize;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return position of the local file header in the archive, or -1 if not known
+	 */
+	long getHeaderOffset(int inEntry, int inIndex) {
+		return locations == null || locations[inEntry * 2 + inIndex] < 0L ? -1L
+				: locations[inEntry * 2 + inIndex] >>> 16;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return compression method, or -1 if not known
+	 */
+	int getMethod(int inEntry, int inIndex) {
+		return locations == null || locations[inEntry * 2 + inIndex] < 0L ? -1
+				: (int) (locations[inEntry * 2 + inIndex] & 0xffffL);
+	}
+
+	/**
+	 * Set where an entry's data is stored, as read from the central directory
+	 *
+	 * @param inEntry        entry number
+	 * @param inIndex        index, either 0 or 1
+	 * @param inHeaderOffset position of the local file header in the archive
+	 * @param inMethod       compression method
+	 */
+	synchronized void setLocation(int inEntry, int inIndex, long inHeaderOffset, int inMethod) {
+		if (locations == null) {
+			locations = new long[flags.length * 2];
+			Arrays.fill(locations, -1L);
+		}
+		locations[inEntry * 2 + inIndex] = (inHeaderOffset << 16) | (inMethod & 0xffff);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return crc, or -1 if not known
+	 */
+	long getCrc(int inEntry, int inIndex) {
+		if ((flags[inEntry] & (FLAG_CRC << inIndex)) == 0) {
+			return -1L;
+		}
+		return crcs[inEntry * 2 + inIndex] & 0xffffffffL;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @param inCrc   crc, or -1 if not known
+	 */
+	synchronized void setCrc(int inEntry, int inIndex, long inCrc) {
+		crcs[inEntry * 2 + inIndex] = (int) inCrc;
+		if (inCrc < 0L) {
+			flags[inEntry] &= ~(FLAG_CRC << inIndex);
+		} else {
+			flags[inEntry] |= FLAG_CRC << inIndex;
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return true if the checksum is known
+	 */
+	boolean hasDigest(int inEntry, int inIndex) {
+		return (flags[inEntry] & (FLAG_DIGEST << inIndex)) != 0;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @param inIndex index, either 0 or 1
+	 * @return checksum as a hex string, or null if not known
+	 */
+	synchronized String getDigest(int inEntry, int inIndex) {
+		if (!hasDigest(inEntry, inIndex)) {
+			return null;
+		}
+		final int key = inEntry * 2 + inIndex;
+		if (otherDigests != null && otherDigests.containsKey(key)) {
+			return otherDigests.get(key);
+		}
+		StringBuilder builder = new StringBuilder(digestWords * HEX_PER_WORD);
+		for (int w = 0; w < digestWords; w++) {
+			String word = Long.toHexString(digests[key * digestWords + w]);
+			for (int i = word.length(); i < HEX_PER_WORD; i++) {
+				builder.append('0');
+			}
+			builder.append(word);
+		}
+		// the first word is padded with zeroes at the front
+		return builder.substring(digestWords * HEX_PER_WORD - digestHexLength);
+	}
+
+	/**
+	 * @param inEntry  entry number
+	 * @param inIndex  index, either 0 or 1
+	 * @param inDigest checksum as a hex string, or null to clear it
+	 */
+	synchronized void setDigest(int inEntry, int inIndex, String inDigest) {
+		final int key = inEntry * 2 + inIndex;
+		if (otherDigests != null) {
+			otherDigests.remove(key);
+		}
+		if (inDigest == null) {
+			flags[inEntry] &= ~(FLAG_DIGEST << inIndex);
+			updateStatus(inEntry);
+			return;
+		}
+		flags[inEntry] |= FLAG_DIGEST << inIndex;
+		if (digests == null && isHex(inDigest)) {
+			digestHexLength = inDigest.length();
+			digestWords = (digestHexLength + HEX_PER_WORD - 1) / HEX_PER_WORD;
+			digests = new long[flags.length * 2 * digestWords];
+		}
+		if (digests != null && inDigest.length() == digestHexLength && isHex(inDigest)) {
+			// fill the words from the end, so that the first one is the short one
+			int end = digestHexLength;
+			for (int w = digestWords - 1; w >= 0; w--) {
+				final int start = Math.max(end - HEX_PER_WORD, 0);
+				digests[key * digestWords + w] = Long.parseUnsignedLong(inDigest.substring(start, end), 16);
+				end = start;
+			}
+		} else {
+			if (otherDigests == null) {
+				otherDigests = new HashMap<>();
+			}
+			otherDigests.put(key, inDigest);
+		}
+		updateStatus(inEntry);
+	}
+
+	/**
+	 * @param inString string to check
+	 * @return true if the string is a non-empty lower-case hex number
+	 */
+	private static boolean isHex(String inString) {
+		for (int i = 0; i < inString.length(); i++) {
+			final char c = inString.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return !inString.isEmpty();
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return true if both checksums are known and equal
+	 */
+	synchronized boolean digestsEqual(int inEntry) {
+		if (!hasDigest(inEntry, 0) || !hasDigest(inEntry, 1)) {
+			return false;
+		}
+		if (otherDigests != null
+				&& (otherDigests.containsKey(inEntry * 2) || otherDigests.containsKey(inEntry * 2 + 1))) {
+			return getDigest(inEntry, 0).equals(getDigest(inEntry, 1));
+		}
+		final int start = inEntry * 2 * digestWords;
+		return Arrays.equals(digests, start, start + digestWords, digests, start + digestWords,
+				start + 2 * digestWords);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return true if the contents were found equal, null if not checked
+	 */
+	Boolean getContentsEqual(int inEntry) {
+		final int state = flags[inEntry] & MASK_CONTENTS;
+		if (state == 0) {
+			return null;
+		}
+		return state != CONTENTS_DIFFERENT;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return true if the contents were compared exactly, or found to be different
+	 */
+	boolean getContentsCompared(int inEntry) {
+		final int state = flags[inEntry] & MASK_CONTENTS;
+		return state == CONTENTS_EQUAL || state == CONTENTS_DIFFERENT;
+	}
+
+	/**
+	 * @param inEntry    entry number
+	 * @param inEqual    true if the contents were found to be equal
+	 * @param inCompared true if the actual contents were compared, not just the crcs
+	 */
+	synchronized void setContentsEqual(int inEntry, boolean inEqual, boolean inCompared) {
+		final int state;
+		if (!inEqual) {
+			state = CONTENTS_DIFFERENT;
+		} else {
+			state = inCompared ? CONTENTS_EQUAL : CONTENTS_CRC_EQUAL;
+		}
+		flags[inEntry] = (byte) ((flags[inEntry] & ~MASK_CONTENTS) | state);
+		updateStatus(inEntry);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return number of the entry with the same contents at another path, or -1
+	 */
+	int getPartner(int inEntry) {
+		return partners == null ? -1 : partners[inEntry];
+	}
+
+	/**
+	 * Match an entry only in the first archive with one only in the second,
+	 * having the same contents, so that they're shown as moved or renamed
+	 *
+	 * @param inRemoved entry only present in the first archive
+	 * @param inAdded   entry only present in the second archive
+	 */
+	synchronized void setPartners(int inRemoved, int inAdded) {
+		if (partners == null) {
+			partners = new int[flags.length];
+			Arrays.fill(partners, -1);
+		}
+		partners[inRemoved] = inAdded;
+		partners[inAdded] = inRemoved;
+		updateStatus(inRemoved);
+		updateStatus(inAdded);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return changed members if the entry is a class file compared by its code,
+	 *         an empty string if the code is the same, or null if not compared
+	 */
+	synchronized String getClassChanges(int inEntry) {
+		return classChanges == null ? null : classChanges.get(inEntry);
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inChanges changed members of the class, or an empty string if the code is the same
+	 */
+	synchronized void setClassChanges(int inEntry, String inChanges) {
+		if (classChanges == null) {
+			classChanges = new HashMap<>();
+		}
+		classChanges.put(inEntry, inChanges);
+		updateStatus(inEntry);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return status of the entry
+	 */
+	EntryStatus getStatus(int inEntry) {
+		return STATUS_CODES[statuses[inEntry]];
+	}
+
+	/**
+	 * @param inStatus status to count
+	 * @return number of entries with this status
+	 */
+	public synchronized int getNumEntries(EntryStatus inStatus) {
+		int total = 0;
+		for (int code = 0; code < STATUS_CODES.length; code++) {
+			if (STATUS_CODES[code] == inStatus && code != STATUS_NONE) {
+				total += statusCounts[code];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return number of entries found equal by their crcs, but not by their contents
+	 */
+	public synchronized int getNumCrcEqual() {
+		return statusCounts[STATUS_CRC_EQUAL];
+	}
+
+	/**
+	 * Work out the status of an entry again after its details have changed, and
+	 * update the counts, must be called while holding the lock
+	 *
+	 * @param inEntry entry number
+	 */
+	private void updateStatus(int inEntry) {
+		final int code = calculateStatus(inEntry);
+		final int oldCode = statuses[inEntry];
+		if (code != oldCode) {
+			statusCounts[oldCode]--;
+			statusCounts[code]++;
+			statuses[inEntry] = (byte) code;
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return status code for the current details of the entry
+	 */
+	private int calculateStatus(int inEntry) {
+		final boolean present0 = isPresent(inEntry, 0);
+		final boolean present1 = isPresent(inEntry, 1);
+		if (!present0 && !present1) {
+			return STATUS_NONE;
+		}
+		EntryStatus status;
+		final int partner = getPartner(inEntry);
+		if (partner >= 0) {
+			// Same name means it's only the directory that changed
+			status = names.leafEquals(inEntry, partner) ? EntryStatus.MOVED : EntryStatus.RENAMED;
+		} else if (!present0) {
+			status = EntryStatus.ADDED;
+		} else if (!present1) {
+			status = EntryStatus.REMOVED;
+		} else if (getSize(inEntry, 0) != getSize(inEntry, 1)) {
+			status = EntryStatus.CHANGED_SIZE;
+		} else if (hasDigest(inEntry, 0) && hasDigest(inEntry, 1)) {
+			// md5 sums have been checked
+			status = digestsEqual(inEntry) ? EntryStatus.EQUAL : EntryStatus.CHANGED_SUM;
+		} else {
+			final int state = flags[inEntry] & MASK_CONTENTS;
+			if (state == 0) {
+				status = EntryStatus.SAME_SIZE;
+			} else if (state == CONTENTS_CRC_EQUAL) {
+				return STATUS_CRC_EQUAL;
+			} else {
+				status = state == CONTENTS_EQUAL ? EntryStatus.EQUAL : EntryStatus.CHANGED_SUM;
+			}
+		}
+		if ((status == EntryStatus.CHANGED_SIZE || status == EntryStatus.CHANGED_SUM) && classChanges != null
+				&& "".equals(classChanges.get(inEntry))) {
+			// Only the debug information or the order of the constants changed
+			status = EntryStatus.EQUAL_SEMANTIC;
+		}
+		return STATUS_FIRST + status.ordinal();
+	}
+
+	/**
+	 * List of all entries, making the details objects when asked for
+	 */
+	private class EntryList extends AbstractList<EntryDetails> implements RandomAccess {
+		@Override
+		public EntryDetails get(int inIndex) {
+			if (inIndex < 0 || inIndex >= numEntries) {
+				throw new IndexOutOfBoundsException("Index: " + inIndex);
+			}
+			return new EntryDetails(EntryStore.this, inIndex);
+		}
+
+		@Override
+		public int size() {
+			return numEntries;
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package tim.jarcomp;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 
 import tim.jarcomp.EntryDetails.EntryStatus;
@@ -11,26 +14,298 @@ import tim.jarcomp.EntryDetails.EntryStatus;
  */
 public class EntryTableModel extends AbstractTableModel {
 	private static final long serialVersionUID = 1L;
-	/** list of entries */
-	private ArrayList<EntryDetails> entries = null;
+	/** Store holding the entries shown, or null if none */
+	private EntryStore store = null;
+	/** Numbers of all the entries, in the order they arrived */
+	private int[] rows = new int[0];
+	/** Number of entries */
+	private int numRows = 0;
+	/** Positions in rows of the entries shown, after filtering and sorting */
+	private int[] view = new int[0];
+	/** Number of rows shown */
+	private int numViewRows = 0;
+	/** Column to sort by, or -1 to keep the order of arrival */
+	private int sortColumn = -1;
+	/** True to sort in ascending order */
+	private boolean sortAscending = true;
+	/** Sort ranks of the names, by position in rows, or null if not made yet */
+	private int[] nameRanks = null;
+	/** Text to filter the names by, empty to show all */
+	private String filterText = "";
+	/** True to only show the entries which have changed */
+	private boolean onlyChanges = false;
+	/** Index of the names, by position in rows */
+	private final NameFilter nameFilter = new NameFilter();
+	/** Store of the entries added but not yet shown, guarded by pendingLock */
+	private EntryStore pendingStore = null;
+	/** Numbers of the entries added from another thread but not yet shown, guarded by pendingLock */
+	private int[] pendingRows = new int[0];
+	/** Number of entries waiting to be shown, guarded by pendingLock */
+	private int numPending = 0;
+	/** True if the statuses of the shown entries have changed, guarded by pendingLock */
+	private boolean statusesChanged = false;
+	/** True if an update is already queued on the event thread, guarded by pendingLock */
+	private boolean updateQueued = false;
+	/** Lock for the entries waiting to be shown */
+	private final Object pendingLock = new Object();
 
 	/**
-	 * Clear list to start a new comparison
+	 * Clear list to start a new comparison, must be called on the event thread
 	 */
 	public void reset() {
-		entries = new ArrayList<>();
+		synchronized (pendingLock) {
+			pendingStore = null;
+			numPending = 0;
+			statusesChanged = false;
+		}
+		store = null;
+		numRows = 0;
+		numViewRows = 0;
+		nameRanks = null;
+		nameFilter.clear();
+		fireTableDataChanged();
 	}
 
 	/**
-	 * Reset the table with the given list
+	 * Add entries to the end of the table, can be called from any thread. The
+	 * table is updated later on the event thread, together with any other entries
+	 * added in the meantime. Only the entry numbers are kept, so all the entries
+	 * must come from the same store
+	 *
+	 * @param inEntries entries to add
+	 */
+	public void addEntries(List<EntryDetails> inEntries) {
+		synchronized (pendingLock) {
+			final int numNeeded = numPending + inEntries.size();
+			if (numNeeded > pendingRows.length) {
+				pendingRows = Arrays.copyOf(pendingRows, Math.max(pendingRows.length * 2, numNeeded));
+			}
+			for (EntryDetails entry : inEntries) {
+				pendingStore = entry.getStore();
+				pendingRows[numPending++] = entry.getEntryNum();
+			}
+			queueUpdate();
+		}
+	}
+
+	/**
+	 * Inform the table that the status of some entries has changed, can be called
+	 * from any thread
+	 */
+	public void entriesChanged() {
+		synchronized (pendingLock) {
+			statusesChanged = true;
+			queueUpdate();
+		}
+	}
+
+	/**
+	 * Queue an update on the event thread unless one is already waiting, must be
+	 * called while holding pendingLock
+	 */
+	private void queueUpdate() {
+		if (!updateQueued) {
+			updateQueued = true;
+			SwingUtilities.invokeLater(this::applyUpdates);
+		}
+	}
+
+	/**
+	 * Show the entries and changes which have arrived since the last update
+	 */
+	private void applyUpdates() {
+		final int numOldRows = numRows;
+		final boolean changed;
+		synchronized (pendingLock) {
+			if (numPending > 0) {
+				store = pendingStore;
+				if (numRows + numPending > rows.length) {
+					rows = Arrays.copyOf(rows, Math.max(rows.length * 2, numRows + numPending));
+				}
+				System.arraycopy(pendingRows, 0, rows, numRows, numPending);
+				numRows += numPending;
+				numPending = 0;
+			}
+			changed = statusesChanged;
+			statusesChanged = false;
+			updateQueued = false;
+		}
+		if (numRows > numOldRows) {
+			nameRanks = null;
+		}
+		if (isFiltered() || sortColumn >= 0) {
+			if (numRows > numOldRows || (changed && dependsOnStatus())) {
+				updateView();
+			} else if (changed && numViewRows > 0) {
+				fireTableRowsUpdated(0, numViewRows - 1);
+			}
+			return;
+		}
+		// Showing everything in order of arrival, so the view can just be extended
+		final int numOldViewRows = numViewRows;
+		if (changed && numOldViewRows > 0) {
+			fireTableRowsUpdated(0, numOldViewRows - 1);
+		}
+		if (numRows > numOldViewRows) {
+			ensureViewCapacity();
+			for (int i = numOldViewRows; i < numRows; i++) {
+				view[i] = i;
+			}
+			numViewRows = numRows;
+			fireTableRowsInserted(numOldViewRows, numViewRows - 1);
+		}
+	}
+
+	/**
+	 * @return true if some entries might be hidden
+	 */
+	private boolean isFiltered() {
+		return onlyChanges || !filterText.isEmpty();
+	}
+
+	/**
+	 * @return true if the rows shown or their order depend on the statuses of the
+	 *         entries, which is the case for the status and size change columns
+	 */
+	private boolean dependsOnStatus() {
+		return onlyChanges || sortColumn > 0;
+	}
+
+	/**
+	 * Make sure the view is big enough for all the entries
+	 */
+	private void ensureViewCapacity() {
+		if (view.length < numRows) {
+			view = Arrays.copyOf(view, Math.max(view.length * 2, numRows));
+		}
+	}
+
+	/**
+	 * Set the filter for the rows shown, must be called on the event thread
+	 *
+	 * @param inText        text which the names must contain, or glob pattern with * and ?
+	 * @param inOnlyChanges true to only show the entries which have changed
+	 */
+	public void setFilter(String inText, boolean inOnlyChanges) {
+		filterText = (inText == null ? "" : inText);
+		onlyChanges = inOnlyChanges;
+		updateView();
+	}
+
+	/**
+	 * Sort by the given column, or reverse the order if already sorted by it
 	 *
-	 * @param inList list of EntryDetails objects
+	 * @param inColNum column number
+	 */
+	public void sortByColumn(int inColNum) {
+		sortAscending = (inColNum != sortColumn || !sortAscending);
+		sortColumn = inColNum;
+		updateView();
+	}
+
+	/**
+	 * @return column the rows are sorted by, or -1 if not sorted
+	 */
+	public int getSortColumn() {
+		return sortColumn;
+	}
+
+	/**
+	 * @return true if sorted in ascending order
 	 */
-	public void setEntryList(ArrayList<EntryDetails> inList) {
-		entries = inList;
+	public boolean isSortAscending() {
+		return sortAscending;
+	}
+
+	/**
+	 * @return number of entries, including those hidden by the filter
+	 */
+	public int getNumEntries() {
+		return numRows;
+	}
+
+	/**
+	 * Filter and sort all the entries again to make the view
+	 */
+	private void updateView() {
+		BitSet nameMatches = null;
+		if (!filterText.isEmpty()) {
+			for (int i = nameFilter.size(); i < numRows; i++) {
+				nameFilter.add(store.getName(rows[i]));
+			}
+			nameMatches = nameFilter.match(filterText);
+		}
+		ensureViewCapacity();
+		numViewRows = 0;
+		for (int i = 0; i < numRows; i++) {
+			if ((nameMatches == null || nameMatches.get(i)) && (!onlyChanges || store.get(rows[i]).isChanged())) {
+				view[numViewRows++] = i;
+			}
+		}
+		if (sortColumn >= 0) {
+			IndexSorter.sort(view, numViewRows, makeComparator());
+		}
 		fireTableDataChanged();
 	}
 
+	/**
+	 * @return comparator for positions in rows according to the sort column
+	 */
+	private IndexSorter.IntComparator makeComparator() {
+		final IndexSorter.IntComparator comparator;
+		if (sortColumn == 0) {
+			final int[] ranks = getNameRanks();
+			comparator = (a, b) -> Integer.compare(ranks[a], ranks[b]);
+		} else if (sortColumn == 1) {
+			final byte[] keys = new byte[numRows];
+			for (int i = 0; i < numViewRows; i++) {
+				keys[view[i]] = (byte) STATUS_RANKS[store.getStatus(rows[view[i]]).ordinal()];
+			}
+			comparator = (a, b) -> Byte.compare(keys[a], keys[b]);
+		} else {
+			final long[] keys = new long[numRows];
+			for (int i = 0; i < numViewRows; i++) {
+				final int entry = rows[view[i]];
+				// Unchanged entries come first, like in SizeChange
+				keys[view[i]] = store.get(entry).isChanged()
+						? Math.max(store.getSize(entry, 1) - store.getSize(entry, 0), Long.MIN_VALUE + 1)
+						: Long.MIN_VALUE;
+			}
+			comparator = (a, b) -> Long.compare(keys[a], keys[b]);
+		}
+		return sortAscending ? comparator : (a, b) -> comparator.compare(b, a);
+	}
+
+	/**
+	 * @return ranks of all names in sorted order, by position in rows
+	 */
+	private int[] getNameRanks() {
+		if (nameRanks == null) {
+			String[] names = new String[numRows];
+			int[] order = new int[numRows];
+			for (int i = 0; i < numRows; i++) {
+				names[i] = store.getName(rows[i]);
+				order[i] = i;
+			}
+			IndexSorter.sort(order, numRows, (a, b) -> names[a].compareTo(names[b]));
+			nameRanks = new int[numRows];
+			for (int i = 0; i < numRows; i++) {
+				nameRanks[order[i]] = i;
+			}
+		}
+		return nameRanks;
+	}
+
+	/**
+	 * Reset the table with the given list
+	 *
+	 * @param inList list of EntryDetails objects, all from the same store
+	 */
+	public void setEntryList(List<EntryDetails> inList) {
+		reset();
+		addEntries(inList);
+	}
+
 	/**
 	 * @return number of columns in table
 	 */
@@ -45,7 +320,8 @@ public class EntryTableModel extends AbstractTableModel {
 	 */
 	@Override
 	public Class<?> getColumnClass(int inColNum) {
-		return getValueAt(0, inColNum).getClass();
+		// Can't look at the first row, the table might still be empty
+		return inColNum == 2 ? SizeChange.class : String.class;
 	}
 
 	/**
@@ -66,10 +342,7 @@ public class EntryTableModel extends AbstractTableModel {
 	 */
 	@Override
 	public int getRowCount() {
-		if (entries == null) {
-			return 0;
-		}
-		return entries.size();
+		return numViewRows;
 	}
 
 	/**
@@ -78,7 +351,7 @@ public class EntryTableModel extends AbstractTableModel {
 	@Override
 	public Object getValueAt(int inRowNum, int inColNum) {
 		if (inRowNum >= 0 && inRowNum < getRowCount()) {
-			EntryDetails entry = entries.get(inRowNum);
+			EntryDetails entry = getEntry(inRowNum);
 			if (inColNum == 0)
 				return entry.getName();
 			else if (inColNum == 1)
@@ -88,13 +361,24 @@ public class EntryTableModel extends AbstractTableModel {
 		return null;
 	}
 
+	/** Sort rank of each status, by ordinal, following the order of their texts */
+	private static final int[] STATUS_RANKS = new int[EntryStatus.values().length];
+
+	static {
+		EntryStatus[] statuses = EntryStatus.values();
+		Arrays.sort(statuses, (a, b) -> getText(a).compareTo(getText(b)));
+		for (int i = 0; i < statuses.length; i++) {
+			STATUS_RANKS[statuses[i].ordinal()] = i;
+		}
+	}
+
 	/**
 	 * Convert an entry status into text
 	 *
 	 * @param inStatus entry status
 	 * @return displayable text
 	 */
-	private static String getText(EntryStatus inStatus) {
+	static String getText(EntryStatus inStatus) {
 		switch (inStatus) {
 		case ADDED:
 			return "Added";
@@ -108,16 +392,30 @@ public class EntryTableModel extends AbstractTableModel {
 			return "Removed";
 		case SAME_SIZE:
 			return "Same size";
+		case MOVED:
+			return "Moved";
+		case RENAMED:
+			return "Renamed";
+		case EQUAL_SEMANTIC:
+			return "Same code";
 		}
 		return inStatus.toString();
 	}
 
+	/**
+	 * @param inRowNum row number in the model
+	 * @return entry shown in the specified row
+	 */
+	public EntryDetails getEntry(int inRowNum) {
+		return store.get(rows[view[inRowNum]]);
+	}
+
 	/**
 	 * @return true if specified row represents a difference between the two files
 	 */
 	public boolean areDifferent(int inRowNum) {
 		if (inRowNum >= 0 && inRowNum < getRowCount()) {
-			return entries.get(inRowNum).isChanged();
+			return getEntry(inRowNum).isChanged();
 		}
 		return false;
 	}
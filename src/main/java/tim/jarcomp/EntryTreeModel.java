@@ -0,0 +1,459 @@
+package tim.jarcomp;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+import tim.jarcomp.EntryDetails.EntryStatus;
+
+/**
+ * Class to hold the tree model for showing the comparison by directory. The
+ * tree is built in one pass over the entry store, using its directories, and
+ * each directory holds the totals of all the entries below it. When the status
+ * of an entry changes, only the totals of its parent directories are adjusted
+ */
+public class EntryTreeModel implements TreeModel {
+	/** Store holding the entries shown, or null if none */
+	private EntryStore store = null;
+	/** Directories of the entries in the store */
+	private PathDictionary paths = null;
+	/** Status of each entry as counted in the totals, by ordinal */
+	private byte[] statuses = new byte[0];
+	/** Number of entries with each status below each directory, NUM_STATUSES per directory */
+	private int[] counts = new int[0];
+	/** Total size difference of the entries below each directory */
+	private long[] sizeDiffs = new long[0];
+	/** Start of each directory's subdirectories in dirChildren, with the end of the last one at the end */
+	private int[] dirChildStarts = new int[1];
+	/** Subdirectories of all directories, sorted by name within each directory */
+	private int[] dirChildren = new int[0];
+	/** Start of each directory's entries in entryChildren, with the end of the last one at the end */
+	private int[] entryChildStarts = new int[1];
+	/** Entries of all directories, sorted by name within each directory */
+	private int[] entryChildren = new int[0];
+	/** Position of each directory among its parent's children */
+	private int[] dirIndexes = new int[0];
+	/** Position of each entry among its directory's children */
+	private int[] entryIndexes = new int[0];
+	/** Store whose changes are of interest, can be read from any thread */
+	private volatile EntryStore changeStore = null;
+	/** Numbers of the entries whose status changed, guarded by pendingLock */
+	private final BitSet pendingChanges = new BitSet();
+	/** True if an update is already queued on the event thread, guarded by pendingLock */
+	private boolean updateQueued = false;
+	/** Lock for the changes waiting to be shown */
+	private final Object pendingLock = new Object();
+	/** Listeners to the model */
+	private final EventListenerList listeners = new EventListenerList();
+
+	/** Number of different statuses */
+	private static final int NUM_STATUSES = EntryStatus.values().length;
+
+	/**
+	 * Node of the tree, either a directory or an entry
+	 */
+	private final class Node {
+		/** Directory or entry number */
+		private final int number;
+		/** True for a directory */
+		private final boolean isDirectory;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inNumber      directory or entry number
+		 * @param inIsDirectory true for a directory
+		 */
+		private Node(int inNumber, boolean inIsDirectory) {
+			number = inNumber;
+			isDirectory = inIsDirectory;
+		}
+
+		/**
+		 * @return text to show in the tree
+		 */
+		@Override
+		public String toString() {
+			return isDirectory ? getDirectoryText(number) : getEntryText(number);
+		}
+
+		@Override
+		public boolean equals(Object inOther) {
+			if (!(inOther instanceof Node)) {
+				return false;
+			}
+			Node other = (Node) inOther;
+			return other.number == number && other.isDirectory == isDirectory;
+		}
+
+		@Override
+		public int hashCode() {
+			return isDirectory ? ~number : number;
+		}
+	}
+
+	/**
+	 * Clear the tree to start a new comparison, must be called on the event thread
+	 */
+	public void reset() {
+		changeStore = null;
+		synchronized (pendingLock) {
+			pendingChanges.clear();
+		}
+		store = null;
+		paths = null;
+		statuses = new byte[0];
+		counts = new int[0];
+		sizeDiffs = new long[0];
+		dirChildStarts = new int[1];
+		dirChildren = new int[0];
+		entryChildStarts = new int[1];
+		entryChildren = new int[0];
+		fireStructureChanged();
+	}
+
+	/**
+	 * Build the tree for all the entries in the given store, must be called on the
+	 * event thread once no more entries are being added
+	 *
+	 * @param inStore store holding the entries
+	 */
+	public void setEntryStore(EntryStore inStore) {
+		changeStore = inStore;
+		synchronized (pendingLock) {
+			pendingChanges.clear();
+		}
+		store = inStore;
+		paths = inStore.getPaths();
+		final int numEntries = inStore.size();
+		final int numDirs = paths.getNumDirectories();
+		statuses = new byte[numEntries];
+		counts = new int[numDirs * NUM_STATUSES];
+		sizeDiffs = new long[numDirs];
+		for (int i = 0; i < numEntries; i++) {
+			final int status = inStore.getStatus(i).ordinal();
+			final int dir = paths.getDirectory(i);
+			statuses[i] = (byte) status;
+			counts[dir * NUM_STATUSES + status]++;
+			sizeDiffs[dir] += getSizeDiff(i);
+		}
+		// Directories are always made after their parents, so going backwards adds up each subtree once
+		for (int dir = numDirs - 1; dir > PathDictionary.ROOT; dir--) {
+			final int parent = paths.getParent(dir);
+			for (int s = 0; s < NUM_STATUSES; s++) {
+				counts[parent * NUM_STATUSES + s] += counts[dir * NUM_STATUSES + s];
+			}
+			sizeDiffs[parent] += sizeDiffs[dir];
+		}
+		// Directories left empty by renamed entries aren't shown
+		dirChildStarts = new int[numDirs + 1];
+		for (int dir = PathDictionary.ROOT + 1; dir < numDirs; dir++) {
+			if (getNumEntries(dir) > 0) {
+				dirChildStarts[paths.getParent(dir) + 1]++;
+			}
+		}
+		entryChildStarts = new int[numDirs + 1];
+		for (int i = 0; i < numEntries; i++) {
+			entryChildStarts[paths.getDirectory(i) + 1]++;
+		}
+		for (int dir = 0; dir < numDirs; dir++) {
+			dirChildStarts[dir + 1] += dirChildStarts[dir];
+			entryChildStarts[dir + 1] += entryChildStarts[dir];
+		}
+		dirChildren = new int[dirChildStarts[numDirs]];
+		int[] positions = Arrays.copyOf(dirChildStarts, numDirs);
+		for (int dir = PathDictionary.ROOT + 1; dir < numDirs; dir++) {
+			if (getNumEntries(dir) > 0) {
+				dirChildren[positions[paths.getParent(dir)]++] = dir;
+			}
+		}
+		entryChildren = new int[numEntries];
+		positions = Arrays.copyOf(entryChildStarts, numDirs);
+		for (int i = 0; i < numEntries; i++) {
+			entryChildren[positions[paths.getDirectory(i)]++] = i;
+		}
+		dirIndexes = new int[numDirs];
+		entryIndexes = new int[numEntries];
+		for (int dir = 0; dir < numDirs; dir++) {
+			sortChildren(dir);
+		}
+		fireStructureChanged();
+	}
+
+	/**
+	 * Sort the children of a directory by name and note their positions
+	 *
+	 * @param inDir directory number
+	 */
+	private void sortChildren(int inDir) {
+		final int dirStart = dirChildStarts[inDir];
+		final int numDirs = dirChildStarts[inDir + 1] - dirStart;
+		int[] dirs = Arrays.copyOfRange(dirChildren, dirStart, dirStart + numDirs);
+		String[] dirNames = new String[numDirs];
+		for (int i = 0; i < numDirs; i++) {
+			dirNames[i] = paths.getDirectoryName(dirs[i]);
+			dirs[i] = i;
+		}
+		IndexSorter.sort(dirs, numDirs, (a, b) -> dirNames[a].compareTo(dirNames[b]));
+		for (int i = 0; i < numDirs; i++) {
+			dirs[i] = dirChildren[dirStart + dirs[i]];
+		}
+		for (int i = 0; i < numDirs; i++) {
+			dirChildren[dirStart + i] = dirs[i];
+			dirIndexes[dirs[i]] = i;
+		}
+		// Entries come after the subdirectories
+		final int entryStart = entryChildStarts[inDir];
+		final int numEntries = entryChildStarts[inDir + 1] - entryStart;
+		int[] entries = new int[numEntries];
+		String[] entryNames = new String[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			entryNames[i] = paths.getLeafName(entryChildren[entryStart + i]);
+			entries[i] = i;
+		}
+		IndexSorter.sort(entries, numEntries, (a, b) -> entryNames[a].compareTo(entryNames[b]));
+		for (int i = 0; i < numEntries; i++) {
+			entries[i] = entryChildren[entryStart + entries[i]];
+		}
+		for (int i = 0; i < numEntries; i++) {
+			entryChildren[entryStart + i] = entries[i];
+			entryIndexes[entries[i]] = numDirs + i;
+		}
+	}
+
+	/**
+	 * Inform the tree that the status of an entry has changed, can be called from
+	 * any thread. Entries from other stores are ignored
+	 *
+	 * @param inEntry entry which has changed
+	 */
+	public void entryChanged(EntryDetails inEntry) {
+		if (inEntry.getStore() != changeStore) {
+			return;
+		}
+		synchronized (pendingLock) {
+			pendingChanges.set(inEntry.getEntryNum());
+			if (!updateQueued) {
+				updateQueued = true;
+				SwingUtilities.invokeLater(this::applyUpdates);
+			}
+		}
+	}
+
+	/**
+	 * Adjust the totals for the entries which have changed since the last update
+	 */
+	private void applyUpdates() {
+		final BitSet changes;
+		synchronized (pendingLock) {
+			changes = (BitSet) pendingChanges.clone();
+			pendingChanges.clear();
+			updateQueued = false;
+		}
+		if (store == null) {
+			return;
+		}
+		BitSet changedDirs = new BitSet();
+		for (int i = changes.nextSetBit(0); i >= 0 && i < statuses.length; i = changes.nextSetBit(i + 1)) {
+			final int oldStatus = statuses[i];
+			final int newStatus = store.getStatus(i).ordinal();
+			if (newStatus == oldStatus) {
+				continue;
+			}
+			statuses[i] = (byte) newStatus;
+			for (int dir = paths.getDirectory(i); dir >= 0; dir = paths.getParent(dir)) {
+				counts[dir * NUM_STATUSES + oldStatus]--;
+				counts[dir * NUM_STATUSES + newStatus]++;
+				changedDirs.set(dir);
+			}
+			final int dir = paths.getDirectory(i);
+			fireNodeChanged(getPath(dir), entryIndexes[i], new Node(i, false));
+		}
+		final int firstDir = PathDictionary.ROOT + 1;
+		for (int dir = changedDirs.nextSetBit(firstDir); dir >= 0; dir = changedDirs.nextSetBit(dir + 1)) {
+			fireNodeChanged(getPath(paths.getParent(dir)), dirIndexes[dir], new Node(dir, true));
+		}
+		if (changedDirs.get(PathDictionary.ROOT)) {
+			fireNodeChanged(new TreePath(getRoot()), -1, null);
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return size difference of the entry
+	 */
+	private long getSizeDiff(int inEntry) {
+		return store.getSize(inEntry, 1) - store.getSize(inEntry, 0);
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return number of entries below the directory
+	 */
+	private int getNumEntries(int inDir) {
+		int total = 0;
+		for (int s = 0; s < NUM_STATUSES; s++) {
+			total += counts[inDir * NUM_STATUSES + s];
+		}
+		return total;
+	}
+
+	/**
+	 * @param inDir    directory number
+	 * @param inStatus status to count
+	 * @return number of entries below the directory with this status
+	 */
+	private int getNumEntries(int inDir, EntryStatus inStatus) {
+		return counts[inDir * NUM_STATUSES + inStatus.ordinal()];
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return text to show for the directory, with its totals
+	 */
+	private String getDirectoryText(int inDir) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(inDir == PathDictionary.ROOT ? "All files" : paths.getDirectoryName(inDir) + "/");
+		final int numEntries = getNumEntries(inDir);
+		builder.append(" (").append(numEntries).append(numEntries == 1 ? " file" : " files");
+		appendCount(builder, getNumEntries(inDir, EntryStatus.ADDED), "added");
+		appendCount(builder, getNumEntries(inDir, EntryStatus.REMOVED), "removed");
+		appendCount(builder, getNumEntries(inDir, EntryStatus.CHANGED_SIZE)
+				+ getNumEntries(inDir, EntryStatus.CHANGED_SUM), "changed");
+		appendCount(builder, getNumEntries(inDir, EntryStatus.MOVED)
+				+ getNumEntries(inDir, EntryStatus.RENAMED), "moved");
+		final String sizeText = new SizeChange(sizeDiffs[inDir], sizeDiffs[inDir] != 0).toString();
+		if (!sizeText.isEmpty()) {
+			builder.append(", ").append(sizeText).append(" bytes");
+		}
+		return builder.append(")").toString();
+	}
+
+	/**
+	 * Add a count to the text if it's not zero
+	 *
+	 * @param inBuilder builder for the text
+	 * @param inCount   count to add
+	 * @param inLabel   label for the count
+	 */
+	private static void appendCount(StringBuilder inBuilder, int inCount, String inLabel) {
+		if (inCount > 0) {
+			inBuilder.append(", ").append(inCount).append(' ').append(inLabel);
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return text to show for the entry, with its status
+	 */
+	private String getEntryText(int inEntry) {
+		String name = paths.getLeafName(inEntry);
+		if (name.isEmpty()) {
+			// Entry for the directory itself
+			name = ".";
+		}
+		final EntryStatus status = EntryStatus.values()[statuses[inEntry]];
+		final String sizeText = store.get(inEntry).getSizeChange().toString();
+		return name + " - " + EntryTableModel.getText(status) + (sizeText.isEmpty() ? "" : " (" + sizeText + ")");
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return path to the directory's node from the root
+	 */
+	private TreePath getPath(int inDir) {
+		if (inDir == PathDictionary.ROOT) {
+			return new TreePath(getRoot());
+		}
+		return getPath(paths.getParent(inDir)).pathByAddingChild(new Node(inDir, true));
+	}
+
+	@Override
+	public Object getRoot() {
+		return new Node(PathDictionary.ROOT, true);
+	}
+
+	@Override
+	public Object getChild(Object inParent, int inIndex) {
+		final int dir = ((Node) inParent).number;
+		final int numDirs = dirChildStarts[dir + 1] - dirChildStarts[dir];
+		if (inIndex < numDirs) {
+			return new Node(dirChildren[dirChildStarts[dir] + inIndex], true);
+		}
+		return new Node(entryChildren[entryChildStarts[dir] + inIndex - numDirs], false);
+	}
+
+	@Override
+	public int getChildCount(Object inParent) {
+		Node node = (Node) inParent;
+		if (!node.isDirectory || store == null) {
+			return 0;
+		}
+		return dirChildStarts[node.number + 1] - dirChildStarts[node.number]
+				+ entryChildStarts[node.number + 1] - entryChildStarts[node.number];
+	}
+
+	@Override
+	public boolean isLeaf(Object inNode) {
+		return !((Node) inNode).isDirectory;
+	}
+
+	@Override
+	public void valueForPathChanged(TreePath inPath, Object inNewValue) {
+		// Nodes can't be edited
+	}
+
+	@Override
+	public int getIndexOfChild(Object inParent, Object inChild) {
+		if (!(inParent instanceof Node) || !(inChild instanceof Node) || store == null) {
+			return -1;
+		}
+		Node child = (Node) inChild;
+		if (child.isDirectory) {
+			return child.number != PathDictionary.ROOT && paths.getParent(child.number) == ((Node) inParent).number
+					? dirIndexes[child.number] : -1;
+		}
+		return paths.getDirectory(child.number) == ((Node) inParent).number ? entryIndexes[child.number] : -1;
+	}
+
+	@Override
+	public void addTreeModelListener(TreeModelListener inListener) {
+		listeners.add(TreeModelListener.class, inListener);
+	}
+
+	@Override
+	public void removeTreeModelListener(TreeModelListener inListener) {
+		listeners.remove(TreeModelListener.class, inListener);
+	}
+
+	/**
+	 * Tell the listeners that the whole tree has changed
+	 */
+	private void fireStructureChanged() {
+		TreeModelEvent event = new TreeModelEvent(this, new TreePath(getRoot()));
+		for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+			listener.treeStructureChanged(event);
+		}
+	}
+
+	/**
+	 * Tell the listeners that a node has changed
+	 *
+	 * @param inParentPath path to the parent of the node, or to the root itself
+	 * @param inIndex      index of the node within its parent, or -1 for the root
+	 * @param inNode       node which has changed, or null for the root
+	 */
+	private void fireNodeChanged(TreePath inParentPath, int inIndex, Node inNode) {
+		TreeModelEvent event = (inNode == null) ? new TreeModelEvent(this, inParentPath, null, null)
+				: new TreeModelEvent(this, inParentPath, new int[] { inIndex }, new Object[] { inNode });
+		for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+			listener.treeNodesChanged(event);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Class to run a comparison without any user interface, writing each entry to
+ * an output stream as soon as its status is known
+ */
+public class HeadlessCompare implements CompareListener {
+	/** Stream to write results to */
+	private final PrintStream output;
+	/** Output format */
+	private final OutputFormat format;
+	/** Number of entries which differ */
+	private int numDifferent = 0;
+	/** Number of errors */
+	private int numErrors = 0;
+	/** True to write the matching path of moved entries */
+	private boolean showMatches = false;
+	/** True to write which members of changed classes differ */
+	private boolean showMembers = false;
+
+	/** Exit code if the archives have the same contents */
+	public static final int EXIT_IDENTICAL = 0;
+	/** Exit code if the archives differ */
+	public static final int EXIT_DIFFERENT = 1;
+	/** Exit code if the archives couldn't be read */
+	public static final int EXIT_ERROR = 2;
+
+	/** Constants for output format */
+	public enum OutputFormat {
+		/** One json object per line */
+		JSON,
+		/** Comma-separated values with a header line */
+		CSV
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param inOutput stream to write results to
+	 * @param inFormat output format
+	 */
+	public HeadlessCompare(PrintStream inOutput, OutputFormat inFormat) {
+		output = inOutput;
+		format = inFormat;
+	}
+
+	/**
+	 * Compare the two files, writing out the entries as they're classified
+	 *
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings for the comparison
+	 * @return exit code, one of the EXIT constants
+	 */
+	public int compare(File inFile1, File inFile2, CompareSettings inSettings) {
+		if (!inFile1.canRead() || !inFile2.canRead()) {
+			System.err.println("Can't read " + (inFile1.canRead() ? inFile2 : inFile1));
+			return EXIT_ERROR;
+		}
+		showMatches = inSettings.getDetectMoves();
+		showMembers = inSettings.getCompareClasses();
+		if (format == OutputFormat.CSV) {
+			output.println("name,status,size1,size2,sum1,sum2" + (showMatches ? ",match" : "")
+					+ (showMembers ? ",members" : ""));
+		}
+		inSettings.setListener(this);
+		CompareResults results = Comparer.compare(inFile1, inFile2, inSettings);
+		output.flush();
+		if (numErrors > 0) {
+			return EXIT_ERROR;
+		}
+		return (numDifferent > 0 || results.getEntriesDifferent()) ? EXIT_DIFFERENT : EXIT_IDENTICAL;
+	}
+
+	/**
+	 * Write out a single entry
+	 */
+	@Override
+	public synchronized void entryClassified(EntryDetails inEntry) {
+		if (inEntry.isChanged()) {
+			numDifferent++;
+		}
+		final EntryDetails match = inEntry.getMatchingEntry();
+		if (format == OutputFormat.CSV) {
+			output.println(csvValue(inEntry.getName()) + "," + inEntry.getStatus() + "," + getSize(inEntry, 0) + ","
+					+ getSize(inEntry, 1) + "," + nullToEmpty(inEntry.getMd5Sum(0)) + ","
+					+ nullToEmpty(inEntry.getMd5Sum(1))
+					+ (showMatches ? "," + (match == null ? "" : csvValue(match.getName())) : "")
+					+ (showMembers ? "," + csvValue(nullToEmpty(inEntry.getClassChanges())) : ""));
+		} else {
+			StringBuilder builder = new StringBuilder();
+			builder.append("{\"name\":").append(jsonValue(inEntry.getName()));
+			builder.append(",\"status\":\"").append(inEntry.getStatus()).append('"');
+			for (int i = 0; i < 2; i++) {
+				if (inEntry.isPresent(i)) {
+					builder.append(",\"size").append(i + 1).append("\":").append(inEntry.getSize(i));
+				}
+			}
+			for (int i = 0; i < 2; i++) {
+				if (inEntry.getMd5Sum(i) != null) {
+					builder.append(",\"sum").append(i + 1).append("\":\"").append(inEntry.getMd5Sum(i)).append('"');
+				}
+			}
+			if (match != null) {
+				builder.append(",\"match\":").append(jsonValue(match.getName()));
+			}
+			final String members = inEntry.getClassChanges();
+			if (members != null && !members.isEmpty()) {
+				builder.append(",\"members\":").append(jsonValue(members));
+			}
+			output.println(builder.append('}'));
+		}
+	}
+
+	@Override
+	public synchronized void errorOccurred(String inMessage) {
+		numErrors++;
+	}
+
+	/**
+	 * @param inEntry entry
+	 * @param inIndex index, either 0 or 1
+	 * @return size as a string, or empty if not present
+	 */
+	private static String getSize(EntryDetails inEntry, int inIndex) {
+		return inEntry.isPresent(inIndex) ? "" + inEntry.getSize(inIndex) : "";
+	}
+
+	/**
+	 * @param inValue string or null
+	 * @return given string, or empty string if null
+	 */
+	private static String nullToEmpty(String inValue) {
+		return inValue == null ? "" : inValue;
+	}
+
+	/**
+	 * @param inValue string to write
+	 * @return value quoted if necessary for csv
+	 */
+	static String csvValue(String inValue) {
+		if (inValue.indexOf(',') < 0 && inValue.indexOf('"') < 0 && inValue.indexOf('\n') < 0) {
+			return inValue;
+		}
+		return "\"" + inValue.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * @param inValue string to write
+	 * @return value quoted and escaped for json
+	 */
+	static String jsonValue(String inValue) {
+		StringBuilder builder = new StringBuilder(inValue.length() + 2);
+		builder.append('"');
+		for (int i = 0; i < inValue.length(); i++) {
+			char c = inValue.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < ' ') {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
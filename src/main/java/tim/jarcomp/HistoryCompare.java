@@ -0,0 +1,153 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import tim.jarcomp.EntryDetails.EntryStatus;
+
+/**
+ * Class to compare several versions of an archive without any user interface,
+ * writing the history of each entry as one line, with its size in each version
+ * and how it changed from each version to the next
+ */
+public class HistoryCompare implements CompareListener {
+	/** Stream to write results to */
+	private final PrintStream output;
+	/** Output format */
+	private final HeadlessCompare.OutputFormat format;
+	/** Number of errors */
+	private int numErrors = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inOutput stream to write results to
+	 * @param inFormat output format
+	 */
+	public HistoryCompare(PrintStream inOutput, HeadlessCompare.OutputFormat inFormat) {
+		output = inOutput;
+		format = inFormat;
+	}
+
+	/**
+	 * Compare the versions and write out the history of each entry
+	 *
+	 * @param inFiles    archives to compare, oldest first
+	 * @param inSettings settings for the comparison
+	 * @return exit code, one of the EXIT constants of HeadlessCompare
+	 */
+	public int compare(List<File> inFiles, CompareSettings inSettings) {
+		for (File file : inFiles) {
+			if (!file.canRead()) {
+				System.err.println("Can't read " + file);
+				return HeadlessCompare.EXIT_ERROR;
+			}
+		}
+		inSettings.setListener(this);
+		VersionStore store = VersionComparer.compare(inFiles, inSettings);
+		final int numVersions = store.getNumVersions();
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			StringBuilder header = new StringBuilder("name");
+			for (int v = 1; v <= numVersions; v++) {
+				header.append(",size").append(v);
+			}
+			for (int v = 2; v <= numVersions; v++) {
+				header.append(",change").append(v);
+			}
+			output.println(header);
+		}
+		boolean different = false;
+		for (int e = 0; e < store.size(); e++) {
+			different |= writeEntry(store, e);
+		}
+		output.flush();
+		if (numErrors > 0) {
+			return HeadlessCompare.EXIT_ERROR;
+		}
+		return different ? HeadlessCompare.EXIT_DIFFERENT : HeadlessCompare.EXIT_IDENTICAL;
+	}
+
+	/**
+	 * Write out the history of a single entry
+	 *
+	 * @param inStore store holding the entries
+	 * @param inEntry entry number
+	 * @return true if the entry changed between any two versions
+	 */
+	private boolean writeEntry(VersionStore inStore, int inEntry) {
+		final int numVersions = inStore.getNumVersions();
+		boolean changed = false;
+		StringBuilder builder = new StringBuilder();
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			builder.append(HeadlessCompare.csvValue(inStore.getName(inEntry)));
+			for (int v = 0; v < numVersions; v++) {
+				builder.append(',');
+				if (inStore.isPresent(inEntry, v)) {
+					builder.append(inStore.getSize(inEntry, v));
+				}
+			}
+			for (int v = 1; v < numVersions; v++) {
+				final EntryStatus change = inStore.getChange(inEntry, v);
+				changed |= isChange(change);
+				builder.append(',').append(change == null ? "" : change.toString());
+			}
+		} else {
+			builder.append("{\"name\":").append(HeadlessCompare.jsonValue(inStore.getName(inEntry)));
+			builder.append(",\"sizes\":[");
+			for (int v = 0; v < numVersions; v++) {
+				builder.append(v == 0 ? "" : ",");
+				builder.append(inStore.isPresent(inEntry, v) ? "" + inStore.getSize(inEntry, v) : "null");
+			}
+			builder.append("],\"changes\":[");
+			for (int v = 1; v < numVersions; v++) {
+				final EntryStatus change = inStore.getChange(inEntry, v);
+				changed |= isChange(change);
+				builder.append(v == 1 ? "" : ",").append(change == null ? "null" : "\"" + change + "\"");
+			}
+			builder.append(']');
+			appendSums(builder, inStore, inEntry);
+			builder.append('}');
+		}
+		output.println(builder);
+		return changed;
+	}
+
+	/**
+	 * Add the checksums of all versions to the json, if any were calculated
+	 *
+	 * @param inBuilder builder for the json
+	 * @param inStore   store holding the entries
+	 * @param inEntry   entry number
+	 */
+	private static void appendSums(StringBuilder inBuilder, VersionStore inStore, int inEntry) {
+		boolean anySums = false;
+		StringBuilder sums = new StringBuilder(",\"sums\":[");
+		for (int v = 0; v < inStore.getNumVersions(); v++) {
+			final String digest = inStore.getDigest(inEntry, v);
+			anySums |= (digest != null);
+			sums.append(v == 0 ? "" : ",").append(digest == null ? "null" : "\"" + digest + "\"");
+		}
+		if (anySums) {
+			inBuilder.append(sums).append(']');
+		}
+	}
+
+	/**
+	 * @param inChange change between two versions, or null
+	 * @return true if this is a real change
+	 */
+	private static boolean isChange(EntryStatus inChange) {
+		return inChange != null && inChange != EntryStatus.SAME_SIZE && inChange != EntryStatus.EQUAL;
+	}
+
+	@Override
+	public void entryClassified(EntryDetails inEntry) {
+		// Entries are only written once all the versions have been compared
+	}
+
+	@Override
+	public synchronized void errorOccurred(String inMessage) {
+		numErrors++;
+	}
+}
@@ -0,0 +1,83 @@
+package tim.jarcomp;
+
+/**
+ * Stable sort of arrays of ints, such as entry numbers, using a comparator
+ * which looks up the values to compare in arrays of primitives. This avoids
+ * boxing each index as the Collections sort would
+ */
+public abstract class IndexSorter {
+	/** Length of ranges below which insertion sort is used */
+	private static final int INSERTION_SORT_LENGTH = 16;
+
+	/**
+	 * Comparator of two ints
+	 */
+	public interface IntComparator {
+		/**
+		 * @param inFirst  first value
+		 * @param inSecond second value
+		 * @return negative, zero or positive like Comparator.compare
+		 */
+		int compare(int inFirst, int inSecond);
+	}
+
+	private IndexSorter() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Sort the start of the given array, keeping the order of equal values
+	 *
+	 * @param inValues     values to sort
+	 * @param inLength     number of values to sort from the start of the array
+	 * @param inComparator comparator for the values
+	 */
+	public static void sort(int[] inValues, int inLength, IntComparator inComparator) {
+		int[] buffer = new int[inLength];
+		System.arraycopy(inValues, 0, buffer, 0, inLength);
+		mergeSort(buffer, inValues, 0, inLength, inComparator);
+	}
+
+	/**
+	 * Sort a range from the source array into the destination array, which must
+	 * start with the same contents
+	 *
+	 * @param inSource     source values, which get mixed up
+	 * @param inDest       destination for the sorted values
+	 * @param inStart      start of range, inclusive
+	 * @param inEnd        end of range, exclusive
+	 * @param inComparator comparator for the values
+	 */
+	private static void mergeSort(int[] inSource, int[] inDest, int inStart, int inEnd,
+			IntComparator inComparator) {
+		if (inEnd - inStart < INSERTION_SORT_LENGTH) {
+			for (int i = inStart + 1; i < inEnd; i++) {
+				final int value = inDest[i];
+				int j = i;
+				while (j > inStart && inComparator.compare(inDest[j - 1], value) > 0) {
+					inDest[j] = inDest[j - 1];
+					j--;
+				}
+				inDest[j] = value;
+			}
+			return;
+		}
+		final int middle = (inStart + inEnd) >>> 1;
+		// sort both halves into the source, then merge them into the destination
+		mergeSort(inDest, inSource, inStart, middle, inComparator);
+		mergeSort(inDest, inSource, middle, inEnd, inComparator);
+		if (inComparator.compare(inSource[middle - 1], inSource[middle]) <= 0) {
+			System.arraycopy(inSource, inStart, inDest, inStart, inEnd - inStart);
+			return;
+		}
+		int left = inStart;
+		int right = middle;
+		for (int i = inStart; i < inEnd; i++) {
+			if (right >= inEnd || (left < middle && inComparator.compare(inSource[left], inSource[right]) <= 0)) {
+				inDest[i] = inSource[left++];
+			} else {
+				inDest[i] = inSource[right++];
+			}
+		}
+	}
+}
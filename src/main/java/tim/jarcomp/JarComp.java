@@ -1,6 +1,8 @@
 package tim.jarcomp;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Jar comparer tool Copyright activityworkshop.net Please see
@@ -21,15 +23,137 @@ public class JarComp {
 		// Parse command line arguments, extract two files if available
 		File file1 = null;
 		File file2 = null;
-		if (args != null && args.length > 0) {
-			file1 = new File(args[0]);
-			if (args.length > 1) {
-				file2 = new File(args[1]);
+		File snapshotFile = null;
+		boolean compareMetadata = false;
+		ArrayList<File> allFiles = new ArrayList<>();
+		CompareSettings settings = new CompareSettings();
+		HeadlessCompare.OutputFormat format = null;
+		if (args != null) {
+			for (String arg : args) {
+				if (arg.startsWith("--format=")) {
+					format = parseFormat(arg.substring("--format=".length()));
+					if (format == null) {
+						// Stop before falling back to the window, which may not be possible
+						System.exit(HeadlessCompare.EXIT_ERROR);
+					}
+				} else if (arg.equals("--crc")) {
+					settings.setMode(CompareSettings.CompareMode.CRC);
+				} else if (arg.equals("--sums")) {
+					settings.setMode(CompareSettings.CompareMode.DIGEST);
+				} else if (arg.equals("--contents")) {
+					settings.setMode(CompareSettings.CompareMode.DIRECT);
+				} else if (arg.startsWith("--threads=")) {
+					settings.setNumThreads(parseNumber(arg.substring("--threads=".length())));
+				} else if (arg.startsWith("--digest=")) {
+					DigestAlgorithm algorithm = DigestAlgorithm.fromKey(arg.substring("--digest=".length()));
+					if (algorithm == null) {
+						System.err.println("Unknown digest algorithm: " + arg);
+						System.exit(HeadlessCompare.EXIT_ERROR);
+					}
+					settings.setDigestAlgorithm(algorithm);
+				} else if (arg.equals("--cache")) {
+					settings.setDigestCache(new DigestCache(DigestCache.getDefaultFile(), DigestCache.DEFAULT_MAX_SIZE));
+				} else if (arg.startsWith("--cache=")) {
+					settings.setDigestCache(
+							new DigestCache(new File(arg.substring("--cache=".length())), DigestCache.DEFAULT_MAX_SIZE));
+				} else if (arg.equals("--recursive")) {
+					settings.setRecursive(true);
+				} else if (arg.equals("--moves")) {
+					settings.setDetectMoves(true);
+				} else if (arg.equals("--classes")) {
+					settings.setCompareClasses(true);
+				} else if (arg.equals("--metadata")) {
+					compareMetadata = true;
+				} else if (arg.startsWith("--snapshot=")) {
+					snapshotFile = new File(arg.substring("--snapshot=".length()));
+				} else {
+					allFiles.add(new File(arg));
+					if (file1 == null) {
+						file1 = allFiles.get(0);
+					} else if (file2 == null) {
+						file2 = allFiles.get(1);
+					}
+				}
 			}
 		}
+		if (snapshotFile != null) {
+			// Write the index of a single archive, without any windows
+			if (allFiles.size() != 1 || !file1.canRead()) {
+				System.err.println("Usage: JarComp --snapshot=<snapshot> [--digest=<algorithm>] [--cache[=<file>]]"
+						+ " [--threads=<n>] <file>");
+				System.exit(HeadlessCompare.EXIT_ERROR);
+			}
+			try {
+				ArchiveSnapshot.write(file1, snapshotFile, settings);
+			} catch (IOException ioe) {
+				System.err.println("Couldn't write snapshot: " + ioe.getMessage());
+				System.exit(HeadlessCompare.EXIT_ERROR);
+			}
+			System.exit(HeadlessCompare.EXIT_IDENTICAL);
+		}
+		if (compareMetadata) {
+			// Check two builds are identical down to the zip metadata, without any windows
+			if (allFiles.size() != 2 || file1.isDirectory() || file2.isDirectory()) {
+				System.err.println("Usage: JarComp --metadata [--format=json|csv] <file1> <file2>");
+				System.exit(HeadlessCompare.EXIT_ERROR);
+			}
+			MetadataCompare comparer = new MetadataCompare(System.out,
+					format == null ? HeadlessCompare.OutputFormat.JSON : format);
+			System.exit(comparer.compare(file1, file2));
+		}
+		if (allFiles.size() > 2) {
+			// Compare a series of versions, without any windows
+			HistoryCompare history = new HistoryCompare(System.out,
+					format == null ? HeadlessCompare.OutputFormat.JSON : format);
+			System.exit(history.compare(allFiles, settings));
+		}
+		if (file1 != null && file2 != null && file1.isDirectory() && file2.isDirectory()) {
+			// Compare all the archives in two directories, without any windows
+			BatchComparer comparer = new BatchComparer(System.out,
+					format == null ? HeadlessCompare.OutputFormat.JSON : format);
+			System.exit(comparer.compare(file1, file2, settings));
+		}
+		if (format != null) {
+			// Run without any windows
+			if (file1 == null || file2 == null) {
+				System.err.println("Usage: JarComp --format=json|csv [--crc|--sums|--contents] [--digest=<algorithm>]"
+						+ " [--cache[=<file>]] [--recursive] [--moves] [--classes] [--threads=<n>]"
+						+ " <file1> <file2> [<file3> ...]");
+				System.exit(HeadlessCompare.EXIT_ERROR);
+			}
+			System.exit(new HeadlessCompare(System.out, format).compare(file1, file2, settings));
+		}
 		// Construct main window and initialise
 		CompareWindow window = new CompareWindow();
+		window.applySettings(settings);
 		// Pass two files to start with, or instruct to prompt
 		window.startCompare(file1, file2, false);
 	}
+
+	/**
+	 * @param inValue format given on command line
+	 * @return output format, or null if not known
+	 */
+	private static HeadlessCompare.OutputFormat parseFormat(String inValue) {
+		for (HeadlessCompare.OutputFormat format : HeadlessCompare.OutputFormat.values()) {
+			if (format.name().equalsIgnoreCase(inValue)) {
+				return format;
+			}
+		}
+		System.err.println("Unknown output format: " + inValue);
+		return null;
+	}
+
+	/**
+	 * @param inValue number given on command line
+	 * @return parsed number, or 0 if not valid
+	 */
+	private static int parseNumber(String inValue) {
+		try {
+			return Integer.parseInt(inValue);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid number: " + inValue);
+			return 0;
+		}
+	}
 }
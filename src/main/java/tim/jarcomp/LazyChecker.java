@@ -0,0 +1,140 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Class to check the contents of single entries in the background, as they
+ * are requested. The most recently requested entries are checked first, so
+ * that the rows being looked at get their results before any others
+ */
+class LazyChecker {
+	/** Settings giving the mode, listener and progress */
+	private final CompareSettings settings;
+	/** Hasher keeping both files open while the checker runs */
+	private final ParallelHasher hasher;
+	/** Entries waiting to be checked, newest first, possibly with older copies further back */
+	private final ArrayDeque<EntryDetails> queue = new ArrayDeque<>();
+	/** Entries in the queue which haven't been taken yet, guarded by the queue */
+	private final HashSet<EntryDetails> queued = new HashSet<>();
+	/** Entries being checked at the moment, guarded by the queue */
+	private final HashSet<EntryDetails> inFlight = new HashSet<>();
+	/** Worker thread */
+	private final Thread worker;
+
+	/** Maximum number of entries to check in one go */
+	private static final int BATCH_SIZE = 32;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings for checking the contents, with listener and progress
+	 */
+	LazyChecker(File inFile1, File inFile2, CompareSettings inSettings) {
+		settings = inSettings;
+		Comparer.useSnapshotSettings(inFile1, inFile2, inSettings);
+		hasher = new ParallelHasher(inFile1, inFile2, Collections.emptyList(), inSettings);
+		worker = new Thread(this::checkEntries, "LazyChecker");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Ask for the given entries to be checked before any requested earlier.
+	 * Entries which are already checked or being checked are ignored
+	 *
+	 * @param inEntries entries to check, the first one most urgently
+	 */
+	void request(List<EntryDetails> inEntries) {
+		synchronized (queue) {
+			boolean anyAdded = false;
+			// Put the last one on the front first, so the first one ends up in front of it
+			for (int i = inEntries.size() - 1; i >= 0; i--) {
+				EntryDetails entry = inEntries.get(i);
+				if (Comparer.needsContentsCheck(entry) && !inFlight.contains(entry)) {
+					// Any older copy further back is skipped once this one has been taken
+					queue.addFirst(entry);
+					queued.add(entry);
+					anyAdded = true;
+				}
+			}
+			if (anyAdded) {
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stop checking, any entry being checked is abandoned
+	 */
+	void stop() {
+		settings.getProgress().cancel();
+		// Wake the worker if it's waiting, without interrupting any reads which would close the files
+		synchronized (queue) {
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * Loop run by the worker thread, checking batches of entries until stopped
+	 */
+	private void checkEntries() {
+		settings.getProgress().setPhase(CompareProgress.Phase.CHECKING_CONTENTS, 0L);
+		try {
+			while (!settings.getProgress().isCancelled() && !Thread.currentThread().isInterrupted()) {
+				List<EntryDetails> batch = takeBatch();
+				try {
+					hasher.check(batch);
+				} finally {
+					synchronized (queue) {
+						inFlight.removeAll(batch);
+					}
+				}
+			}
+		} catch (CancellationException e) {
+			// Stopped while reading an entry
+		} finally {
+			hasher.close();
+			// Keep the sums calculated so far
+			if (settings.getDigestCache() != null) {
+				settings.getDigestCache().save();
+			}
+		}
+	}
+
+	/**
+	 * Wait for entries to be requested and take the newest ones
+	 *
+	 * @return entries to check, empty if stopped
+	 */
+	private List<EntryDetails> takeBatch() {
+		ArrayList<EntryDetails> batch = new ArrayList<>();
+		synchronized (queue) {
+			try {
+				while (queued.isEmpty() && !settings.getProgress().isCancelled()) {
+					queue.clear();
+					queue.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return batch;
+			}
+			while (batch.size() < BATCH_SIZE && !queued.isEmpty()) {
+				EntryDetails entry = queue.removeFirst();
+				// Older copies have already been taken, and the entry may have been checked since
+				if (queued.remove(entry) && Comparer.needsContentsCheck(entry)) {
+					batch.add(entry);
+				}
+			}
+			inFlight.addAll(batch);
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,146 @@
+package tim.jarcomp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Class to calculate a hash over the whole contents of one archive, built up
+ * as a tree following the directories. Each directory's hash covers the names,
+ * sizes and checksums of its own entries and the hashes of its subdirectories,
+ * all sorted by name, so two archives with the same root hash have the same
+ * entries with the same contents, whatever order they're stored in
+ */
+abstract class MerkleTree {
+	/** Algorithm used for the hashes of the directories */
+	private static final String NODE_ALGORITHM = "SHA-256";
+
+	private MerkleTree() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Calculate the hash of all the entries in one archive
+	 *
+	 * @param inStore store holding the entries, whose checksums have been calculated
+	 * @param inIndex index of the archive, either 0 or 1
+	 * @return hash of the root directory, or null if any entry has no checksum
+	 */
+	static byte[] getRootHash(EntryStore inStore, int inIndex) {
+		final PathDictionary paths = inStore.getPaths();
+		final int numDirs = paths.getNumDirectories();
+		final int numEntries = inStore.size();
+		// Group the entries by directory, and the directories by parent
+		int[] entryStarts = new int[numDirs + 1];
+		for (int i = 0; i < numEntries; i++) {
+			if (inStore.isPresent(i, inIndex)) {
+				if (!inStore.hasDigest(i, inIndex)) {
+					return null;
+				}
+				entryStarts[paths.getDirectory(i) + 1]++;
+			}
+		}
+		int[] dirStarts = new int[numDirs + 1];
+		for (int dir = PathDictionary.ROOT + 1; dir < numDirs; dir++) {
+			dirStarts[paths.getParent(dir) + 1]++;
+		}
+		for (int dir = 0; dir < numDirs; dir++) {
+			entryStarts[dir + 1] += entryStarts[dir];
+			dirStarts[dir + 1] += dirStarts[dir];
+		}
+		int[] entries = new int[entryStarts[numDirs]];
+		int[] positions = Arrays.copyOf(entryStarts, numDirs);
+		for (int i = 0; i < numEntries; i++) {
+			if (inStore.isPresent(i, inIndex)) {
+				entries[positions[paths.getDirectory(i)]++] = i;
+			}
+		}
+		int[] dirs = new int[dirStarts[numDirs]];
+		positions = Arrays.copyOf(dirStarts, numDirs);
+		for (int dir = PathDictionary.ROOT + 1; dir < numDirs; dir++) {
+			dirs[positions[paths.getParent(dir)]++] = dir;
+		}
+
+		MessageDigest digest = createDigest();
+		byte[][] hashes = new byte[numDirs][];
+		// Directories are always made after their parents, so going backwards hashes each child first
+		for (int dir = numDirs - 1; dir >= PathDictionary.ROOT; dir--) {
+			boolean empty = true;
+			for (int entry : sortSegment(entries, entryStarts[dir], entryStarts[dir + 1], paths::getLeafName)) {
+				digest.update((byte) 'F');
+				update(digest, paths.getLeafName(entry));
+				update(digest, Long.toString(inStore.getSize(entry, inIndex)));
+				update(digest, inStore.getDigest(entry, inIndex));
+				empty = false;
+			}
+			for (int child : sortSegment(dirs, dirStarts[dir], dirStarts[dir + 1], paths::getDirectoryName)) {
+				// Directories with entries only in the other archive aren't part of this one
+				if (hashes[child] != null) {
+					digest.update((byte) 'D');
+					update(digest, paths.getDirectoryName(child));
+					digest.update(hashes[child]);
+					empty = false;
+				}
+			}
+			hashes[dir] = (empty && dir != PathDictionary.ROOT) ? null : digest.digest();
+		}
+		return hashes[PathDictionary.ROOT];
+	}
+
+	/**
+	 * Interface to look up the name of an entry or directory
+	 */
+	private interface NameLookup {
+		/**
+		 * @param inNumber number of entry or directory
+		 * @return its name
+		 */
+		String getName(int inNumber);
+	}
+
+	/**
+	 * @param inValues array of entry or directory numbers
+	 * @param inStart  start of the segment, inclusive
+	 * @param inEnd    end of the segment, exclusive
+	 * @param inLookup lookup of the names
+	 * @return copy of the segment, sorted by name
+	 */
+	private static int[] sortSegment(int[] inValues, int inStart, int inEnd, NameLookup inLookup) {
+		final int length = inEnd - inStart;
+		String[] names = new String[length];
+		int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			names[i] = inLookup.getName(inValues[inStart + i]);
+			order[i] = i;
+		}
+		IndexSorter.sort(order, length, (a, b) -> names[a].compareTo(names[b]));
+		for (int i = 0; i < length; i++) {
+			order[i] = inValues[inStart + order[i]];
+		}
+		return order;
+	}
+
+	/**
+	 * Add a string to the hash, followed by a terminator so that the parts can't run together
+	 *
+	 * @param inDigest digest to update
+	 * @param inString string to add
+	 */
+	private static void update(MessageDigest inDigest, String inString) {
+		inDigest.update(inString.getBytes(StandardCharsets.UTF_8));
+		inDigest.update((byte) 0);
+	}
+
+	/**
+	 * @return digest for the hashes of the directories
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(NODE_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every jre has to provide sha-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
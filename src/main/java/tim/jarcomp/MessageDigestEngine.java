@@ -0,0 +1,54 @@
+package tim.jarcomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Digest engine using one of the jdk's MessageDigest implementations
+ */
+class MessageDigestEngine implements DigestEngine {
+	/** Digest object, reset after each use */
+	private final MessageDigest messageDigest;
+	/** Buffer for reading */
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** Size of read buffer */
+	static final int BUFFER_SIZE = 64 * 1024;
+	/** Hex digits for converting to string */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Constructor
+	 *
+	 * @param inDigest MessageDigest object to use
+	 */
+	MessageDigestEngine(MessageDigest inDigest) {
+		messageDigest = inDigest;
+	}
+
+	@Override
+	public String digest(InputStream inStream) throws IOException {
+		messageDigest.reset();
+		int numRead;
+		while ((numRead = inStream.read(buffer)) >= 0) {
+			messageDigest.update(buffer, 0, numRead);
+		}
+		return toHex(messageDigest.digest());
+	}
+
+	/**
+	 * Convert the given bytes into a hex string
+	 *
+	 * @param inBytes bytes to convert
+	 * @return lower-case hex string
+	 */
+	static String toHex(byte[] inBytes) {
+		char[] chars = new char[inBytes.length * 2];
+		for (int i = 0; i < inBytes.length; i++) {
+			chars[i * 2] = HEX_DIGITS[(inBytes[i] >> 4) & 0x0f];
+			chars[i * 2 + 1] = HEX_DIGITS[inBytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,416 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Class to check whether two builds of an archive are identical down to the
+ * zip metadata, without any user interface. Only the central directories and
+ * the local file headers are read, nothing is inflated, and the contents of
+ * each entry are compared using the stored sizes and crcs. Each entry which
+ * differs in any way is written as one line, with its record number in each
+ * archive and the list of fields which differ, in the order of the records
+ */
+public class MetadataCompare {
+	/** Stream to write results to */
+	private final PrintStream output;
+	/** Output format */
+	private final HeadlessCompare.OutputFormat format;
+
+	/** Name used for differences in the archive as a whole */
+	private static final String ARCHIVE_NAME = "(archive)";
+	/** Flag bits giving the compression level for deflated entries */
+	private static final int LEVEL_FLAGS = 0x0006;
+	/** Compression method for deflated entries */
+	private static final int METHOD_DEFLATED = 8;
+
+	/** Constants for how an entry differs */
+	public enum Difference {
+		/** Only in the second archive */
+		ADDED,
+		/** Only in the first archive */
+		REMOVED,
+		/** Different sizes or crcs */
+		CONTENTS,
+		/** Same contents, but stored differently */
+		METADATA
+	}
+
+	/**
+	 * Details of one record of a central directory, together with its local header
+	 */
+	private static final class Record {
+		/** Number of the record in its central directory */
+		private final int recordNumber;
+		/** Name of the entry */
+		private final String name;
+		/** Version of the zip format and system which made the record */
+		private final int versionMadeBy;
+		/** Version of the zip format needed to extract the entry */
+		private final int versionNeeded;
+		/** General purpose flags */
+		private final int flags;
+		/** Compression method */
+		private final int method;
+		/** Modification time and date in dos format */
+		private final long dosTime;
+		/** Crc of the contents */
+		private final long crc;
+		/** Compressed size */
+		private final long compressedSize;
+		/** Uncompressed size */
+		private final long size;
+		/** Internal file attributes */
+		private final int internalAttributes;
+		/** External file attributes */
+		private final long externalAttributes;
+		/** Extra field of the record */
+		private final byte[] extra;
+		/** Comment of the record */
+		private final byte[] comment;
+		/** Local header including name and extra field, or null if it couldn't be read */
+		private ByteBuffer localHeader = null;
+		/** True if the record is out of order compared with the other archive */
+		private boolean moved = false;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inCursor cursor positioned on the record
+		 */
+		private Record(CentralDirectory.Cursor inCursor) {
+			recordNumber = (int) inCursor.getRecordNumber();
+			name = inCursor.getName();
+			versionMadeBy = inCursor.getVersionMadeBy();
+			versionNeeded = inCursor.getVersionNeeded();
+			flags = inCursor.getFlags();
+			method = inCursor.getMethod();
+			dosTime = inCursor.getDosTime();
+			crc = inCursor.getCrc();
+			compressedSize = inCursor.getCompressedSize();
+			size = inCursor.getSize();
+			internalAttributes = inCursor.getInternalAttributes();
+			externalAttributes = inCursor.getExternalAttributes();
+			extra = inCursor.getExtra();
+			comment = inCursor.getComment();
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param inOutput stream to write results to
+	 * @param inFormat output format
+	 */
+	public MetadataCompare(PrintStream inOutput, HeadlessCompare.OutputFormat inFormat) {
+		output = inOutput;
+		format = inFormat;
+	}
+
+	/**
+	 * Compare the metadata of the two files, writing out each entry which differs
+	 *
+	 * @param inFile1 first file
+	 * @param inFile2 second file
+	 * @return exit code, one of the EXIT constants of HeadlessCompare
+	 */
+	public int compare(File inFile1, File inFile2) {
+		if (!inFile1.canRead() || !inFile2.canRead()) {
+			System.err.println("Can't read " + (inFile1.canRead() ? inFile2 : inFile1));
+			return HeadlessCompare.EXIT_ERROR;
+		}
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			output.println("name,difference,record1,record2,fields");
+		}
+		try {
+			CentralDirectory dir1 = CentralDirectory.open(inFile1);
+			CentralDirectory dir2 = CentralDirectory.open(inFile2);
+			ArrayList<Record> records1 = readRecords(dir1, inFile1);
+			ArrayList<Record> records2 = readRecords(dir2, inFile2);
+			boolean different = compareArchives(dir1, dir2);
+			different |= compareRecords(records1, records2);
+			output.flush();
+			return different ? HeadlessCompare.EXIT_DIFFERENT : HeadlessCompare.EXIT_IDENTICAL;
+		} catch (IOException ioe) {
+			System.err.println("Couldn't read metadata: " + ioe.getMessage());
+			return HeadlessCompare.EXIT_ERROR;
+		}
+	}
+
+	/**
+	 * Read all the records of a central directory, and the local header of each one
+	 *
+	 * @param inDirectory central directory
+	 * @param inFile      file holding the archive
+	 * @return list of records in their stored order
+	 * @throws IOException if the central directory couldn't be read
+	 */
+	private static ArrayList<Record> readRecords(CentralDirectory inDirectory, File inFile) throws IOException {
+		if (inDirectory.getNumEntries() > Integer.MAX_VALUE) {
+			throw new IOException(inFile.getName() + " has too many entries");
+		}
+		ArrayList<Record> records = new ArrayList<>((int) inDirectory.getNumEntries());
+		try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+			CentralDirectory.Cursor cursor = inDirectory.cursor();
+			while (cursor.next()) {
+				Record record = new Record(cursor);
+				try {
+					record.localHeader = CentralDirectory.readLocalHeader(channel, cursor.getLocalHeaderOffset());
+				} catch (IOException e) {
+					// Leave it out, so that it's shown as different
+					System.err.println("Couldn't read local header of " + record.name + ": " + e.getMessage());
+				}
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Compare the details of the archives as a whole
+	 *
+	 * @param inDir1 first central directory
+	 * @param inDir2 second central directory
+	 * @return true if they differ
+	 */
+	private boolean compareArchives(CentralDirectory inDir1, CentralDirectory inDir2) {
+		ArrayList<String> fields = new ArrayList<>();
+		if (inDir1.getNumEntries() != inDir2.getNumEntries()) {
+			fields.add("entries");
+		}
+		if (!Arrays.equals(inDir1.getComment(), inDir2.getComment())) {
+			fields.add("comment");
+		}
+		if (fields.isEmpty()) {
+			return false;
+		}
+		writeLine(ARCHIVE_NAME, Difference.METADATA, -1, -1, fields);
+		return true;
+	}
+
+	/**
+	 * Match up the records by name and write out each one which differs, in the
+	 * order of the first archive followed by the ones only in the second
+	 *
+	 * @param inRecords1 records of the first archive
+	 * @param inRecords2 records of the second archive
+	 * @return true if any of them differ
+	 */
+	private boolean compareRecords(ArrayList<Record> inRecords1, ArrayList<Record> inRecords2) {
+		HashMap<String, Record> byName = new HashMap<>();
+		for (Record record : inRecords2) {
+			byName.putIfAbsent(record.name, record);
+		}
+		Record[] matches = new Record[inRecords1.size()];
+		boolean[] matched = new boolean[inRecords2.size()];
+		ArrayList<Record> common = new ArrayList<>();
+		for (Record record : inRecords1) {
+			Record match = byName.remove(record.name);
+			if (match != null) {
+				matches[record.recordNumber] = match;
+				matched[match.recordNumber] = true;
+				common.add(record);
+			}
+		}
+		findMoves(common, matches);
+
+		boolean different = false;
+		String firstDifference = null;
+		for (Record record : inRecords1) {
+			final Record match = matches[record.recordNumber];
+			if (match == null) {
+				writeLine(record.name, Difference.REMOVED, record.recordNumber, -1, new ArrayList<>());
+				firstDifference = firstDifference == null ? describe(record, "removed") : firstDifference;
+				different = true;
+				continue;
+			}
+			ArrayList<String> fields = compareRecord(record, match);
+			final boolean contentsEqual = record.crc == match.crc && record.size == match.size;
+			if (!contentsEqual || !fields.isEmpty()) {
+				writeLine(record.name, contentsEqual ? Difference.METADATA : Difference.CONTENTS, record.recordNumber,
+						match.recordNumber, fields);
+				if (firstDifference == null) {
+					firstDifference = describe(record, contentsEqual ? String.join(", ", fields) : "contents");
+				}
+				different = true;
+			}
+		}
+		for (Record record : inRecords2) {
+			if (!matched[record.recordNumber]) {
+				writeLine(record.name, Difference.ADDED, -1, record.recordNumber, new ArrayList<>());
+				firstDifference = firstDifference == null ? describe(record, "added") : firstDifference;
+				different = true;
+			}
+		}
+		if (firstDifference != null) {
+			System.err.println("First difference at " + firstDifference);
+		}
+		return different;
+	}
+
+	/**
+	 * Compare the metadata of a record which is in both archives
+	 *
+	 * @param inRecord1 record in the first archive
+	 * @param inRecord2 record with the same name in the second archive
+	 * @return names of the fields which differ
+	 */
+	private static ArrayList<String> compareRecord(Record inRecord1, Record inRecord2) {
+		ArrayList<String> fields = new ArrayList<>();
+		if (inRecord1.moved) {
+			fields.add("order");
+		}
+		if (inRecord1.versionMadeBy != inRecord2.versionMadeBy || inRecord1.versionNeeded != inRecord2.versionNeeded) {
+			fields.add("version");
+		}
+		if (inRecord1.method != inRecord2.method) {
+			fields.add("method");
+		} else if (inRecord1.method == METHOD_DEFLATED && ((inRecord1.flags ^ inRecord2.flags) & LEVEL_FLAGS) != 0) {
+			fields.add("level");
+		}
+		if (((inRecord1.flags ^ inRecord2.flags) & ~LEVEL_FLAGS) != 0) {
+			fields.add("flags");
+		}
+		if (inRecord1.method == inRecord2.method && inRecord1.compressedSize != inRecord2.compressedSize
+				&& inRecord1.crc == inRecord2.crc && inRecord1.size == inRecord2.size) {
+			// Same contents compressed differently, by another level or another deflater
+			fields.add("compressed size");
+		}
+		if (inRecord1.dosTime != inRecord2.dosTime) {
+			fields.add("time");
+		}
+		if (inRecord1.internalAttributes != inRecord2.internalAttributes
+				|| inRecord1.externalAttributes != inRecord2.externalAttributes) {
+			fields.add("attributes");
+		}
+		if (!Arrays.equals(inRecord1.extra, inRecord2.extra)) {
+			fields.add("extra");
+		}
+		if (!Arrays.equals(inRecord1.comment, inRecord2.comment)) {
+			fields.add("comment");
+		}
+		if (inRecord1.localHeader == null || inRecord2.localHeader == null) {
+			fields.add("local header");
+		} else {
+			// Crc and sizes are left out as they may be in a data descriptor instead
+			final ByteBuffer local1 = inRecord1.localHeader;
+			final ByteBuffer local2 = inRecord2.localHeader;
+			if (localDiffers(local1.getShort(4), local2.getShort(4), inRecord1.versionNeeded == inRecord2.versionNeeded)
+					|| localDiffers(local1.getShort(6), local2.getShort(6), inRecord1.flags == inRecord2.flags)
+					|| localDiffers(local1.getShort(8), local2.getShort(8), inRecord1.method == inRecord2.method)
+					|| localDiffers(local1.getInt(10), local2.getInt(10), inRecord1.dosTime == inRecord2.dosTime)) {
+				fields.add("local header");
+			}
+			if (!getLocalExtra(inRecord1.localHeader).equals(getLocalExtra(inRecord2.localHeader))) {
+				fields.add("local extra");
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * @param inLocal1      value from the first local header
+	 * @param inLocal2      value from the second local header
+	 * @param inCentralSame true if the value is the same in both central directories
+	 * @return true if the local headers differ in a way not already shown by the central directories
+	 */
+	private static boolean localDiffers(int inLocal1, int inLocal2, boolean inCentralSame) {
+		return inLocal1 != inLocal2 && inCentralSame;
+	}
+
+	/**
+	 * Mark the records which have moved, keeping the longest run of records which
+	 * are in the same order in both archives, so that moving a single entry only
+	 * marks that entry and not all the ones it was moved past
+	 *
+	 * @param inCommon  records of the first archive which are in both, in order
+	 * @param inMatches matching records of the second archive, by record number
+	 */
+	private static void findMoves(ArrayList<Record> inCommon, Record[] inMatches) {
+		final int numCommon = inCommon.size();
+		// Longest increasing run of record numbers in the second archive, by patience sorting
+		int[] tails = new int[numCommon];
+		int[] previous = new int[numCommon];
+		int length = 0;
+		for (int i = 0; i < numCommon; i++) {
+			final int number = inMatches[inCommon.get(i).recordNumber].recordNumber;
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (inMatches[inCommon.get(tails[mid]).recordNumber].recordNumber < number) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			previous[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			length = Math.max(length, low + 1);
+		}
+		for (Record record : inCommon) {
+			record.moved = true;
+		}
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			inCommon.get(i).moved = false;
+		}
+	}
+
+	/**
+	 * @param inHeader whole local header
+	 * @return view of the extra field of the local header
+	 */
+	private static ByteBuffer getLocalExtra(ByteBuffer inHeader) {
+		final int extraLength = inHeader.getShort(28) & 0xffff;
+		return inHeader.duplicate().position(inHeader.limit() - extraLength);
+	}
+
+	/**
+	 * @param inRecord record
+	 * @param inFields description of what differs
+	 * @return description of the position of the record, for the first difference
+	 */
+	private static String describe(Record inRecord, String inFields) {
+		return "record " + inRecord.recordNumber + " (" + inRecord.name + "): " + inFields;
+	}
+
+	/**
+	 * Write out a single entry which differs
+	 *
+	 * @param inName       name of entry
+	 * @param inDifference how the entry differs
+	 * @param inRecord1    record number in the first archive, or -1 if not present
+	 * @param inRecord2    record number in the second archive, or -1 if not present
+	 * @param inFields     names of the fields which differ
+	 */
+	private void writeLine(String inName, Difference inDifference, int inRecord1, int inRecord2,
+			ArrayList<String> inFields) {
+		final String fields = String.join(", ", inFields);
+		if (format == HeadlessCompare.OutputFormat.CSV) {
+			output.println(HeadlessCompare.csvValue(inName) + "," + inDifference + ","
+					+ (inRecord1 < 0 ? "" : "" + inRecord1) + "," + (inRecord2 < 0 ? "" : "" + inRecord2) + ","
+					+ HeadlessCompare.csvValue(fields));
+		} else {
+			StringBuilder builder = new StringBuilder();
+			builder.append("{\"name\":").append(HeadlessCompare.jsonValue(inName));
+			builder.append(",\"difference\":\"").append(inDifference).append('"');
+			if (inRecord1 >= 0) {
+				builder.append(",\"record1\":").append(inRecord1);
+			}
+			if (inRecord2 >= 0) {
+				builder.append(",\"record2\":").append(inRecord2);
+			}
+			if (!inFields.isEmpty()) {
+				builder.append(",\"fields\":").append(HeadlessCompare.jsonValue(fields));
+			}
+			output.println(builder.append('}'));
+		}
+	}
+}
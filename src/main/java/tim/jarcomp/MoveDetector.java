@@ -0,0 +1,247 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class to find entries which have only moved or been renamed, rather than
+ * being removed from the first archive and added to the second. Entries only
+ * found in one archive are put into buckets by their size and crc, and only
+ * those whose bucket has entries from both archives are hashed to confirm that
+ * their contents are the same
+ */
+abstract class MoveDetector {
+
+	private MoveDetector() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Find the moved and renamed entries and mark them in the store
+	 *
+	 * @param inStore    store holding all the entries of both archives
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings giving digest algorithm, cache and progress
+	 */
+	static void matchMoves(EntryStore inStore, File inFile1, File inFile2, CompareSettings inSettings) {
+		final int[] removed = findCandidates(inStore, 0);
+		final int[] added = findCandidates(inStore, 1);
+		if (removed.length == 0 || added.length == 0) {
+			return;
+		}
+		// Index the removed entries by size and crc, then look up each added one
+		BucketTable buckets = new BucketTable(removed.length);
+		for (int entry : removed) {
+			buckets.add(inStore.getSize(entry, 0), inStore.getCrc(entry, 0));
+		}
+		ArrayList<EntryDetails> toHash = new ArrayList<>();
+		for (int entry : added) {
+			if (buckets.markMatched(inStore.getSize(entry, 1), inStore.getCrc(entry, 1))) {
+				toHash.add(inStore.get(entry));
+			}
+		}
+		if (toHash.isEmpty()) {
+			return;
+		}
+		for (int entry : removed) {
+			if (buckets.isMatched(inStore.getSize(entry, 0), inStore.getCrc(entry, 0))) {
+				toHash.add(inStore.get(entry));
+			}
+		}
+		hashEntries(toHash, inFile1, inFile2, inSettings);
+		matchByDigest(inStore, toHash, true);
+		matchByDigest(inStore, toHash, false);
+	}
+
+	/**
+	 * @param inStore store holding the entries
+	 * @param inIndex index of the only archive the entries should be in, either 0 or 1
+	 * @return numbers of the entries which could have come from the other archive
+	 */
+	private static int[] findCandidates(EntryStore inStore, int inIndex) {
+		int[] candidates = new int[16];
+		int numCandidates = 0;
+		for (int i = 0; i < inStore.size(); i++) {
+			// Empty entries, like directories, can't be told apart by their contents
+			if (inStore.isPresent(i, inIndex) && !inStore.isPresent(i, 1 - inIndex) && inStore.getPartner(i) < 0
+					&& inStore.getSize(i, inIndex) > 0L && inStore.getCrc(i, inIndex) >= 0L) {
+				if (numCandidates == candidates.length) {
+					candidates = Arrays.copyOf(candidates, numCandidates * 2);
+				}
+				candidates[numCandidates++] = i;
+			}
+		}
+		return Arrays.copyOf(candidates, numCandidates);
+	}
+
+	/**
+	 * Calculate the checksums of the given entries, each in the one archive it's in
+	 *
+	 * @param inEntries  entries to hash
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings for the comparison
+	 */
+	private static void hashEntries(List<EntryDetails> inEntries, File inFile1, File inFile2,
+			CompareSettings inSettings) {
+		CompareSettings settings = inSettings.copy();
+		settings.setMode(CompareSettings.CompareMode.DIGEST);
+		final CompareListener listener = inSettings.getListener();
+		if (listener != null) {
+			// The entries haven't been listed yet, so only pass on errors and progress
+			settings.setListener(new CompareListener() {
+				@Override
+				public void entryClassified(EntryDetails inEntry) {
+					// Reported later, together with the others
+				}
+
+				@Override
+				public void errorOccurred(String inMessage) {
+					listener.errorOccurred(inMessage);
+				}
+
+				@Override
+				public void progressChanged(CompareProgress inProgress) {
+					listener.progressChanged(inProgress);
+				}
+			});
+		}
+		settings.getProgress().setPhase(CompareProgress.Phase.CHECKING_CONTENTS, inEntries.size());
+		Comparer.notifyProgress(settings);
+		DigestCache cache = settings.getDigestCache();
+		try {
+			new ParallelHasher(inFile1, inFile2, inEntries, settings).run();
+		} finally {
+			if (cache != null) {
+				cache.save();
+			}
+		}
+	}
+
+	/**
+	 * Pair up the removed and added entries with the same checksums
+	 *
+	 * @param inStore         store holding the entries
+	 * @param inEntries       hashed entries, both removed and added
+	 * @param inSameLeafNames true to only pair entries with the same name in different directories
+	 */
+	private static void matchByDigest(EntryStore inStore, List<EntryDetails> inEntries, boolean inSameLeafNames) {
+		HashMap<String, ArrayDeque<Integer>> removedByKey = new HashMap<>();
+		for (EntryDetails entry : inEntries) {
+			String key = getKey(inStore, entry, 0, inSameLeafNames);
+			if (key != null) {
+				removedByKey.computeIfAbsent(key, k -> new ArrayDeque<>()).add(entry.getEntryNum());
+			}
+		}
+		if (removedByKey.isEmpty()) {
+			return;
+		}
+		for (EntryDetails entry : inEntries) {
+			String key = getKey(inStore, entry, 1, inSameLeafNames);
+			ArrayDeque<Integer> removed = (key == null) ? null : removedByKey.get(key);
+			if (removed != null && !removed.isEmpty()) {
+				inStore.setPartners(removed.poll(), entry.getEntryNum());
+			}
+		}
+	}
+
+	/**
+	 * @param inStore         store holding the entries
+	 * @param inEntry         entry
+	 * @param inIndex         index of the archive the entry should be only in
+	 * @param inSameLeafNames true to include the last part of the name in the key
+	 * @return key for pairing the entry, or null if it's not in just that archive, has
+	 *         already been paired or has no checksum
+	 */
+	private static String getKey(EntryStore inStore, EntryDetails inEntry, int inIndex, boolean inSameLeafNames) {
+		final int entry = inEntry.getEntryNum();
+		if (!inStore.isPresent(entry, inIndex) || inStore.isPresent(entry, 1 - inIndex)
+				|| inStore.getPartner(entry) >= 0 || !inStore.hasDigest(entry, inIndex)) {
+			return null;
+		}
+		final String digest = inStore.getSize(entry, inIndex) + ":" + inStore.getDigest(entry, inIndex);
+		// The last part of a name never contains a separator
+		return inSameLeafNames ? digest + "/" + inStore.getPaths().getLeafName(entry) : digest;
+	}
+
+	/**
+	 * Hash table of sizes and crcs, noting which have been found in both archives
+	 */
+	private static final class BucketTable {
+		/** Sizes of the buckets, by slot */
+		private final long[] sizes;
+		/** Crcs of the buckets by slot, or -1 for an empty slot */
+		private final long[] crcs;
+		/** True for the buckets found in both archives, by slot */
+		private final boolean[] matched;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inCapacity maximum number of buckets
+		 */
+		private BucketTable(int inCapacity) {
+			final int numSlots = Integer.highestOneBit(Math.max(inCapacity, 2) * 2 - 1) * 2;
+			sizes = new long[numSlots];
+			crcs = new long[numSlots];
+			Arrays.fill(crcs, -1L);
+			matched = new boolean[numSlots];
+		}
+
+		/**
+		 * @param inSize size
+		 * @param inCrc  crc
+		 * @return slot holding the bucket, or the empty slot where it should go
+		 */
+		private int findSlot(long inSize, long inCrc) {
+			final int mask = sizes.length - 1;
+			int slot = (int) ((inSize * 31 + inCrc) * 0x9e3779b97f4a7c15L >>> 40) & mask;
+			while (crcs[slot] >= 0L && (crcs[slot] != inCrc || sizes[slot] != inSize)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/**
+		 * Add a bucket if it's not there already
+		 *
+		 * @param inSize size
+		 * @param inCrc  crc
+		 */
+		private void add(long inSize, long inCrc) {
+			final int slot = findSlot(inSize, inCrc);
+			sizes[slot] = inSize;
+			crcs[slot] = inCrc;
+		}
+
+		/**
+		 * Mark a bucket as found in both archives, if it exists
+		 *
+		 * @param inSize size
+		 * @param inCrc  crc
+		 * @return true if the bucket exists
+		 */
+		private boolean markMatched(long inSize, long inCrc) {
+			final int slot = findSlot(inSize, inCrc);
+			if (crcs[slot] < 0L) {
+				return false;
+			}
+			matched[slot] = true;
+			return true;
+		}
+
+		/**
+		 * @param inSize size
+		 * @param inCrc  crc
+		 * @return true if the bucket has been found in both archives
+		 */
+		private boolean isMatched(long inSize, long inCrc) {
+			return matched[findSlot(inSize, inCrc)];
+		}
+	}
+}
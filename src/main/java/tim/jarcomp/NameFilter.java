@@ -0,0 +1,178 @@
+package tim.jarcomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Class to find the entries whose names match a filter, either a substring or
+ * a glob pattern with * and ?. All the names are indexed in lower case in a
+ * single string, one byte per character, so that a substring can be found in
+ * all of them with one quick scan. When the filter is extended, only the
+ * previous matches are checked again
+ */
+class NameFilter {
+	/** Lower-case utf-8 bytes of all names, each followed by a newline */
+	private byte[] bytes = new byte[1024];
+	/** Number of bytes used */
+	private int numBytes = 0;
+	/** Start of each name, with the end of the last one at the end */
+	private int[] starts = new int[65];
+	/** Number of names indexed */
+	private int numNames = 0;
+	/** All names as a string, made when first needed after adding names */
+	private String text = null;
+	/** Last filter text */
+	private String lastQuery = null;
+	/** Matches for the last filter text */
+	private BitSet lastMatches = null;
+
+	/** Separator between names */
+	private static final byte NEWLINE = '\n';
+
+	/**
+	 * @return number of names indexed
+	 */
+	int size() {
+		return numNames;
+	}
+
+	/**
+	 * Remove all the names
+	 */
+	void clear() {
+		numBytes = 0;
+		numNames = 0;
+		text = null;
+		lastQuery = null;
+		lastMatches = null;
+	}
+
+	/**
+	 * Add a name to the index, it's given the next number
+	 *
+	 * @param inName name to add
+	 */
+	void add(String inName) {
+		byte[] name = inName.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		if (numBytes + name.length + 1 > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, numBytes + name.length + 1));
+		}
+		System.arraycopy(name, 0, bytes, numBytes, name.length);
+		numBytes += name.length;
+		bytes[numBytes++] = NEWLINE;
+		if (numNames + 1 == starts.length) {
+			starts = Arrays.copyOf(starts, starts.length * 2);
+		}
+		numNames++;
+		starts[numNames] = numBytes;
+		text = null;
+		// the last matches don't cover the new name
+		lastQuery = null;
+		lastMatches = null;
+	}
+
+	/**
+	 * Find the names matching the given filter, ignoring case
+	 *
+	 * @param inQuery substring to look for, or glob pattern if it contains * or ?
+	 * @return set of matching name numbers
+	 */
+	BitSet match(String inQuery) {
+		if (text == null) {
+			text = new String(bytes, 0, numBytes, StandardCharsets.ISO_8859_1);
+		}
+		// Names are compared as bytes, one character per byte
+		final String query = new String(inQuery.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8),
+				StandardCharsets.ISO_8859_1);
+		final boolean isGlob = query.indexOf('*') >= 0 || query.indexOf('?') >= 0;
+		final String literal = isGlob ? getLongestLiteral(query) : query;
+		final Pattern pattern = isGlob ? makePattern(query) : null;
+		BitSet matches = new BitSet(numNames);
+		if (lastMatches != null && !isGlob && lastQuery.indexOf('*') < 0 && lastQuery.indexOf('?') < 0
+				&& query.contains(lastQuery)) {
+			// Extended substring, so only the last matches need checking
+			for (int i = lastMatches.nextSetBit(0); i >= 0; i = lastMatches.nextSetBit(i + 1)) {
+				if (getName(i).contains(query)) {
+					matches.set(i);
+				}
+			}
+		} else if (literal.isEmpty()) {
+			for (int i = 0; i < numNames; i++) {
+				if (pattern == null || pattern.matcher(getName(i)).matches()) {
+					matches.set(i);
+				}
+			}
+		} else {
+			// Scan the whole text for the literal part, then check each name found
+			int position = text.indexOf(literal);
+			while (position >= 0) {
+				final int name = findName(position);
+				if (pattern == null || pattern.matcher(getName(name)).matches()) {
+					matches.set(name);
+				}
+				position = text.indexOf(literal, starts[name + 1]);
+			}
+		}
+		lastQuery = query;
+		lastMatches = matches;
+		return matches;
+	}
+
+	/**
+	 * @param inName name number
+	 * @return lower-case name, one character per byte
+	 */
+	private String getName(int inName) {
+		return text.substring(starts[inName], starts[inName + 1] - 1);
+	}
+
+	/**
+	 * @param inPosition position in the text
+	 * @return number of the name containing this position
+	 */
+	private int findName(int inPosition) {
+		int index = Arrays.binarySearch(starts, 0, numNames + 1, inPosition);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * @param inGlob glob pattern
+	 * @return longest part of the pattern without any wildcards
+	 */
+	private static String getLongestLiteral(String inGlob) {
+		String longest = "";
+		for (String part : inGlob.split("[*?]")) {
+			if (part.length() > longest.length()) {
+				longest = part;
+			}
+		}
+		return longest;
+	}
+
+	/**
+	 * @param inGlob glob pattern, where * matches any characters and ? any single one
+	 * @return regular expression matching the whole name
+	 */
+	private static Pattern makePattern(String inGlob) {
+		StringBuilder builder = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < inGlob.length(); i++) {
+			final char c = inGlob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart) {
+					builder.append(Pattern.quote(inGlob.substring(literalStart, i)));
+				}
+				// ? matches one character, which may take several bytes
+				builder.append(c == '*' ? ".*" : "(?:[\\x00-\\x7f\\xc0-\\xff][\\x80-\\xbf]*)");
+				literalStart = i + 1;
+			}
+		}
+		if (literalStart < inGlob.length()) {
+			builder.append(Pattern.quote(inGlob.substring(literalStart)));
+		}
+		return Pattern.compile(builder.toString(), Pattern.DOTALL);
+	}
+}
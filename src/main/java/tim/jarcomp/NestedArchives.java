@@ -0,0 +1,245 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Class to look inside archives which are stored as entries of other archives,
+ * such as the libraries inside a war file. Entries inside nested archives are
+ * named with the path of the nested archive, a separator and their own path
+ */
+public abstract class NestedArchives {
+	/** Separator between the path of a nested archive and its entries */
+	public static final String SEPARATOR = "!/";
+	/** File extensions of archives to look inside */
+	private static final String[] ARCHIVE_EXTENSIONS = { ".jar", ".war", ".ear", ".zip" };
+	/** Compression method for stored entries */
+	private static final int METHOD_STORED = 0;
+
+	private NestedArchives() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Interface to receive the entries of a nested archive
+	 */
+	interface EntryReceiver {
+		/**
+		 * @param inName           name of entry within the nested archive
+		 * @param inSize           uncompressed size
+		 * @param inCrc            crc of contents
+		 * @param inCompressedSize compressed size, or -1 if not known
+		 * @param inHeaderOffset   position of the local file header in the top-level
+		 *                         file, or -1 if the nested archive isn't stored in place
+		 * @param inMethod         compression method
+		 */
+		void addEntry(String inName, long inSize, long inCrc, long inCompressedSize, long inHeaderOffset,
+				int inMethod);
+	}
+
+	/**
+	 * @param inName name of entry
+	 * @return true if the entry looks like an archive
+	 */
+	public static boolean isArchiveName(String inName) {
+		String lowerName = inName.toLowerCase(Locale.ROOT);
+		for (String extension : ARCHIVE_EXTENSIONS) {
+			if (lowerName.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param inName     name of entry
+	 * @param inSettings settings saying whether nested archives were expanded
+	 * @return path of the nested archive containing the entry, or null if it's at
+	 *         the top level
+	 */
+	public static String getContainerPath(String inName, CompareSettings inSettings) {
+		if (!inSettings.getRecursive()) {
+			// Names containing the separator can only be nested if the archives were expanded
+			return null;
+		}
+		// Only archives are expanded, so any other separator is part of an entry's own name
+		int sepPos = inName.lastIndexOf(SEPARATOR);
+		while (sepPos > 0 && !isArchiveName(inName.substring(0, sepPos))) {
+			sepPos = inName.lastIndexOf(SEPARATOR, sepPos - 1);
+		}
+		return sepPos <= 0 ? null : inName.substring(0, sepPos);
+	}
+
+	/**
+	 * Add entries for the contents of all nested archives which differ between the
+	 * two files, level by level. Nested archives with the same size and crc in
+	 * both files are not opened at all
+	 *
+	 * @param inStore    store of entries to add to
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inSettings settings giving the listener for errors
+	 */
+	static void expand(EntryStore inStore, File inFile1, File inFile2, CompareSettings inSettings) {
+		File[] files = { inFile1, inFile2 };
+		List<EntryDetails> containers = findChangedArchives(inStore.asList());
+		while (!containers.isEmpty()) {
+			ArrayList<EntryDetails> children = new ArrayList<>();
+			for (EntryDetails container : containers) {
+				inSettings.getProgress().checkCancelled();
+				final String prefix = container.getName() + SEPARATOR;
+				for (int f = 0; f < 2; f++) {
+					if (!container.isPresent(f)) {
+						continue;
+					}
+					final int index = f;
+					try {
+						listEntries(files[f], container, f, inSettings.getProgress(),
+								(name, size, crc, compressedSize, headerOffset, method) -> {
+									String fullName = prefix + name;
+									int entryNum = inStore.find(fullName);
+									if (entryNum < 0) {
+										entryNum = inStore.add(fullName);
+										children.add(inStore.get(entryNum));
+									}
+									inStore.setSize(entryNum, index, size);
+									inStore.setCrc(entryNum, index, crc);
+									if (headerOffset >= 0L) {
+										// Remember where it is so that it can be found again if it's an archive
+										inStore.setCompressedSize(entryNum, index, compressedSize);
+										inStore.setLocation(entryNum, index, headerOffset, method);
+									}
+								});
+					} catch (IOException e) {
+						Comparer.reportError(inSettings, "Couldn't read " + container.getName() + ": " + e.getMessage());
+					}
+				}
+			}
+			containers = findChangedArchives(children);
+		}
+	}
+
+	/**
+	 * @param inEntries entries to check
+	 * @return list of entries which are archives and which differ in the two files
+	 */
+	private static List<EntryDetails> findChangedArchives(List<EntryDetails> inEntries) {
+		ArrayList<EntryDetails> changed = new ArrayList<>();
+		for (EntryDetails entry : inEntries) {
+			// Unknown crcs don't show that the archives are the same
+			if (isArchiveName(entry.getName()) && !(entry.isPresent(0) && entry.isPresent(1)
+					&& entry.getSize(0) == entry.getSize(1) && entry.getCrc(0) >= 0L
+					&& entry.getCrc(0) == entry.getCrc(1))) {
+				changed.add(entry);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * List the entries of a nested archive. If it and all its containers are
+	 * stored uncompressed, its central directory is read in place, otherwise it
+	 * is streamed through
+	 *
+	 * @param inFile      top-level file
+	 * @param inContainer entry of the nested archive
+	 * @param inIndex     file index, either 0 or 1
+	 * @param inProgress  progress for counting bytes and cancelling
+	 * @param inReceiver  receiver for the entries
+	 * @throws IOException if the archive couldn't be read
+	 */
+	static void listEntries(File inFile, EntryDetails inContainer, int inIndex, CompareProgress inProgress,
+			EntryReceiver inReceiver) throws IOException {
+		CentralDirectory directory = findStoredArchive(inFile, inContainer, inIndex);
+		if (directory != null) {
+			CentralDirectory.Cursor cursor = directory.cursor();
+			while (cursor.next()) {
+				if (!cursor.isDirectory()) {
+					inReceiver.addEntry(cursor.getName(), cursor.getSize(), cursor.getCrc(), cursor.getCompressedSize(),
+							cursor.getLocalHeaderOffset(), cursor.getMethod());
+				}
+			}
+			return;
+		}
+		try (ZipFile zip = new ZipFile(inFile);
+				ZipInputStream zipStream = new ZipInputStream(openEntry(zip, inContainer.getName(), inProgress))) {
+			byte[] buffer = new byte[MessageDigestEngine.BUFFER_SIZE];
+			ZipEntry entry;
+			while ((entry = zipStream.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				// Sizes and crcs might only be known after reading the data
+				while (zipStream.read(buffer) >= 0) {
+					// just skipping
+				}
+				inReceiver.addEntry(entry.getName(), entry.getSize(), entry.getCrc(), -1L, -1L, entry.getMethod());
+			}
+		}
+	}
+
+	/**
+	 * Try to find the central directory of a nested archive without decompressing,
+	 * using the position recorded in the store when its container was listed
+	 *
+	 * @param inFile      top-level file
+	 * @param inContainer entry of the nested archive
+	 * @param inIndex     file index, either 0 or 1
+	 * @return central directory, or null if any level is compressed
+	 */
+	private static CentralDirectory findStoredArchive(File inFile, EntryDetails inContainer, int inIndex) {
+		final EntryStore store = inContainer.getStore();
+		final int entry = inContainer.getEntryNum();
+		final long headerOffset = store.getHeaderOffset(entry, inIndex);
+		final long compressedSize = store.getCompressedSize(entry, inIndex);
+		if (headerOffset < 0L || compressedSize < 0L || store.getMethod(entry, inIndex) != METHOD_STORED) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+			final long dataStart = CentralDirectory.getDataOffset(channel, headerOffset);
+			return CentralDirectory.open(channel, dataStart, compressedSize, inContainer.getName());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Open a stream for the given entry, which may be inside nested archives
+	 *
+	 * @param inZip      top-level zip file
+	 * @param inPath     path of the entry
+	 * @param inProgress progress for counting bytes and cancelling
+	 * @return stream of the entry's contents, to be closed by the caller
+	 * @throws IOException if the entry couldn't be found or read
+	 */
+	static InputStream openEntry(ZipFile inZip, String inPath, CompareProgress inProgress) throws IOException {
+		String[] segments = inPath.split(SEPARATOR);
+		ZipEntry zipEntry = inZip.getEntry(segments[0]);
+		if (zipEntry == null) {
+			throw new IOException("zipEntry for " + segments[0] + " not found");
+		}
+		InputStream stream = inProgress.wrap(inZip.getInputStream(zipEntry));
+		for (int i = 1; i < segments.length; i++) {
+			ZipInputStream zipStream = new ZipInputStream(stream);
+			ZipEntry nestedEntry;
+			while ((nestedEntry = zipStream.getNextEntry()) != null && !nestedEntry.getName().equals(segments[i])) {
+				// skip to the wanted entry
+			}
+			if (nestedEntry == null) {
+				zipStream.close();
+				throw new IOException("zipEntry for " + segments[i] + " not found");
+			}
+			stream = zipStream;
+		}
+		return stream;
+	}
+}
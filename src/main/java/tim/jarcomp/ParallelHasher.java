@@ -0,0 +1,556 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Class to calculate the checksums of a list of entries using several threads,
+ * or to compare their contents directly. The work is split according to the
+ * uncompressed sizes of the entries, so that each task has roughly the same
+ * number of bytes to read
+ */
+class ParallelHasher {
+	/** Files to read */
+	private final File[] files;
+	/** Entries to hash in both files */
+	private final List<EntryDetails> entries;
+	/** Cumulative sizes, element i holds the total size of entries before i */
+	private final long[] cumulativeSizes;
+	/** Size below which a task is not split any further */
+	private final long splitThreshold;
+	/** Number of threads to use */
+	private final int numThreads;
+	/** Algorithm for calculating the checksums */
+	private final DigestAlgorithm algorithm;
+	/** Settings giving the listener, if any */
+	private final CompareSettings settings;
+	/** Progress, also used for cancelling */
+	private final CompareProgress progress;
+	/** Cache of checksums, or null */
+	private final DigestCache cache;
+	/** Identities of the files for the cache */
+	private final DigestCache.ArchiveKey[] archiveKeys = new DigestCache.ArchiveKey[2];
+	/** Handles kept open between calls to check, or null */
+	private Archives openArchives = null;
+
+	/** Smallest number of bytes worth giving its own task */
+	private static final long MIN_TASK_BYTES = 1024L * 1024L;
+	/** Number of tasks to aim for per thread, to even out the load */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inFile1    first file
+	 * @param inFile2    second file
+	 * @param inEntries  entries to hash, in whichever files they're present
+	 * @param inSettings settings giving digest algorithm, threads and listener
+	 */
+	ParallelHasher(File inFile1, File inFile2, List<EntryDetails> inEntries, CompareSettings inSettings) {
+		files = new File[] { inFile1, inFile2 };
+		settings = inSettings;
+		progress = inSettings.getProgress();
+		algorithm = inSettings.getDigestAlgorithm();
+		entries = inEntries;
+		numThreads = Math.max(inSettings.getNumThreads(), 1);
+		cache = inSettings.getDigestCache();
+		if (cache != null) {
+			archiveKeys[0] = new DigestCache.ArchiveKey(inFile1);
+			archiveKeys[1] = new DigestCache.ArchiveKey(inFile2);
+		}
+		cumulativeSizes = new long[inEntries.size() + 1];
+		for (int i = 0; i < inEntries.size(); i++) {
+			EntryDetails entry = inEntries.get(i);
+			cumulativeSizes[i + 1] = cumulativeSizes[i] + Math.max(Math.max(entry.getSize(0), entry.getSize(1)), 0L);
+		}
+		long totalSize = cumulativeSizes[inEntries.size()];
+		splitThreshold = Math.max(MIN_TASK_BYTES, totalSize / (numThreads * TASKS_PER_THREAD));
+	}
+
+	/**
+	 * Hash all the entries and wait for the results
+	 */
+	void run() {
+		if (entries.isEmpty()) {
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			pool.invoke(new HashTask(0, entries.size()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Find the index at which to split the given range so that both halves have
+	 * roughly the same total size
+	 *
+	 * @param inStart start index, inclusive
+	 * @param inEnd   end index, exclusive
+	 * @return split index, strictly between start and end
+	 */
+	private int findSplit(int inStart, int inEnd) {
+		long target = (cumulativeSizes[inStart] + cumulativeSizes[inEnd]) / 2;
+		int low = inStart + 1;
+		int high = inEnd - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulativeSizes[mid] < target) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Hash the entries in the given range, in both files
+	 *
+	 * @param inStart start index, inclusive
+	 * @param inEnd   end index, exclusive
+	 */
+	private void hashRange(int inStart, int inEnd) {
+		// Each task uses its own handles so that the reads don't block each other
+		try (Archives archives = new Archives()) {
+			hashEntries(entries.subList(inStart, inEnd), archives);
+		}
+	}
+
+	/**
+	 * Check the given entries on the calling thread, keeping the archives open
+	 * for the next call. This is for checking a few entries at a time as they're
+	 * requested, and close has to be called once finished
+	 *
+	 * @param inEntries entries to check
+	 */
+	void check(List<EntryDetails> inEntries) {
+		if (openArchives == null) {
+			openArchives = new Archives();
+		}
+		hashEntries(inEntries, openArchives);
+	}
+
+	/**
+	 * Close the archives kept open by check, if any
+	 */
+	void close() {
+		if (openArchives != null) {
+			openArchives.close();
+			openArchives = null;
+		}
+	}
+
+	/**
+	 * Hash the given entries in both files and inform the listener about each one
+	 *
+	 * @param inEntries  entries to hash
+	 * @param inArchives handles to read the files
+	 */
+	private void hashEntries(List<EntryDetails> inEntries, Archives inArchives) {
+		List<EntryDetails> toHash = inEntries;
+		if (settings.getMode() == CompareSettings.CompareMode.DIRECT) {
+			toHash = compareRange(toHash, inArchives);
+		}
+		DigestEngine engine = algorithm.createEngine();
+		for (int f = 0; f < 2 && !toHash.isEmpty(); f++) {
+			List<EntryDetails> toRead = getEntriesToRead(toHash, f);
+			if (cache != null) {
+				toRead = useCachedSums(toRead, f);
+			}
+			if (f == 1) {
+				toRead = useCompressedMatches(toRead, inArchives);
+			}
+			if (toRead.isEmpty()) {
+				continue;
+			}
+			try {
+				ZipFile zip = inArchives.getZip(f);
+				// Entries inside nested archives are collected so each archive is only read once
+				LinkedHashMap<String, HashMap<String, EntryDetails>> nestedEntries = new LinkedHashMap<>();
+				for (EntryDetails entry : toRead) {
+					String containerPath = NestedArchives.getContainerPath(entry.getName(), settings);
+					if (containerPath == null) {
+						// A broken entry only stops the hashing of that entry
+						try {
+							hashEntry(zip, engine, entry, f);
+						} catch (IOException e) {
+							Comparer.reportError(settings, "Exception reading " + entry.getName() + ": "
+									+ e.getMessage());
+						}
+					} else {
+						String nestedName = entry.getName()
+								.substring(containerPath.length() + NestedArchives.SEPARATOR.length());
+						nestedEntries.computeIfAbsent(containerPath, k -> new HashMap<>()).put(nestedName, entry);
+					}
+				}
+				for (Map.Entry<String, HashMap<String, EntryDetails>> container : nestedEntries.entrySet()) {
+					try {
+						hashNestedEntries(zip, engine, container.getKey(), container.getValue(), f);
+					} catch (IOException e) {
+						Comparer.reportError(settings, "Exception reading " + container.getKey() + ": "
+								+ e.getMessage());
+					}
+				}
+			} catch (IOException e) {
+				Comparer.reportError(settings, "Exception: " + e.getMessage());
+			}
+		}
+		if (settings.getCompareClasses()) {
+			ClassComparer.compareClasses(inEntries, files[0], files[1], settings);
+		}
+		CompareListener listener = settings.getListener();
+		for (EntryDetails entry : inEntries) {
+			progress.entryProcessed();
+			if (listener != null) {
+				listener.entryClassified(entry);
+				listener.progressChanged(progress);
+			}
+		}
+	}
+
+	/**
+	 * Compare the contents of the given entries in both files at the same time,
+	 * stopping at the first difference
+	 *
+	 * @param inEntries  entries to compare
+	 * @param inArchives handles to read the files
+	 * @return list of entries inside nested archives, which have to be hashed instead
+	 */
+	private List<EntryDetails> compareRange(List<EntryDetails> inEntries, Archives inArchives) {
+		ArrayList<EntryDetails> nestedEntries = new ArrayList<>();
+		byte[][] buffers = new byte[2][MessageDigestEngine.BUFFER_SIZE];
+		try {
+			final ZipFile zip1 = inArchives.getZip(0);
+			final ZipFile zip2 = inArchives.getZip(1);
+			final CompressedComparer compressed = inArchives.getCompressed();
+			for (EntryDetails entry : inEntries) {
+				if (NestedArchives.getContainerPath(entry.getName(), settings) != null) {
+					nestedEntries.add(entry);
+					continue;
+				}
+				// Only inflate the entry if its compressed bytes differ
+				if (CompressedComparer.canCompare(entry) && compressedEqual(compressed, entry)) {
+					entry.setContentsCompared(true);
+					continue;
+				}
+				ZipEntry zipEntry1 = zip1.getEntry(entry.getName());
+				ZipEntry zipEntry2 = zip2.getEntry(entry.getName());
+				if (zipEntry1 == null || zipEntry2 == null) {
+					Comparer.reportError(settings, "zipEntry for " + entry.getName() + " shouldn't be null!");
+					continue;
+				}
+				// A broken entry only stops the comparison of that entry
+				try (InputStream in1 = progress.wrap(zip1.getInputStream(zipEntry1));
+						InputStream in2 = progress.wrap(zip2.getInputStream(zipEntry2))) {
+					entry.setContentsCompared(contentsEqual(in1, in2, buffers));
+				} catch (IOException e) {
+					Comparer.reportError(settings, "Exception reading " + entry.getName() + ": " + e.getMessage());
+				}
+			}
+		} catch (IOException e) {
+			Comparer.reportError(settings, "Exception: " + e.getMessage());
+		}
+		return nestedEntries;
+	}
+
+	/**
+	 * Compare the compressed bytes of an entry, treating any problem reading them
+	 * as a difference so that the entry gets inflated instead
+	 *
+	 * @param inCompressed comparer of the compressed bytes
+	 * @param inEntry      entry to compare, which must pass canCompare
+	 * @return true if the compressed bytes could be read and are exactly the same
+	 */
+	private static boolean compressedEqual(CompressedComparer inCompressed, EntryDetails inEntry) {
+		try {
+			return inCompressed.compressedEqual(inEntry);
+		} catch (IOException e) {
+			// Any problem with the entry will be reported when inflating it
+			return false;
+		}
+	}
+
+	/**
+	 * Read two streams in step, comparing a buffer's worth at a time
+	 *
+	 * @param inStream1 first stream
+	 * @param inStream2 second stream
+	 * @param inBuffers two buffers of the same size
+	 * @return true if the streams have exactly the same contents
+	 */
+	private static boolean contentsEqual(InputStream inStream1, InputStream inStream2, byte[][] inBuffers)
+			throws IOException {
+		while (true) {
+			final int numRead1 = readFully(inStream1, inBuffers[0]);
+			final int numRead2 = readFully(inStream2, inBuffers[1]);
+			if (numRead1 != numRead2 || Arrays.mismatch(inBuffers[0], 0, numRead1, inBuffers[1], 0, numRead2) >= 0) {
+				return false;
+			}
+			if (numRead1 < inBuffers[0].length) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Fill the buffer as far as possible from the stream
+	 *
+	 * @param inStream stream to read
+	 * @param inBuffer buffer to fill
+	 * @return number of bytes read, less than the buffer size only at the end
+	 */
+	private static int readFully(InputStream inStream, byte[] inBuffer) throws IOException {
+		int total = 0;
+		while (total < inBuffer.length) {
+			final int numRead = inStream.read(inBuffer, total, inBuffer.length - total);
+			if (numRead < 0) {
+				break;
+			}
+			total += numRead;
+		}
+		return total;
+	}
+
+	/**
+	 * @param inEntries entries to check
+	 * @param inIndex   file index, either 0 or 1
+	 * @return those of the given entries which are present in the file and don't have a
+	 *         checksum yet, usually all of them
+	 */
+	private static List<EntryDetails> getEntriesToRead(List<EntryDetails> inEntries, int inIndex) {
+		for (int i = 0; i < inEntries.size(); i++) {
+			if (!needsReading(inEntries.get(i), inIndex)) {
+				ArrayList<EntryDetails> toRead = new ArrayList<>(inEntries.subList(0, i));
+				for (int j = i + 1; j < inEntries.size(); j++) {
+					if (needsReading(inEntries.get(j), inIndex)) {
+						toRead.add(inEntries.get(j));
+					}
+				}
+				return toRead;
+			}
+		}
+		return inEntries;
+	}
+
+	/**
+	 * @param inEntry entry to check
+	 * @param inIndex file index, either 0 or 1
+	 * @return true if the entry is in the file and its checksum isn't known, for
+	 *         example from a snapshot
+	 */
+	private static boolean needsReading(EntryDetails inEntry, int inIndex) {
+		return inEntry.isPresent(inIndex) && !inEntry.getStore().hasDigest(inEntry.getEntryNum(), inIndex);
+	}
+
+	/**
+	 * Give the entries whose compressed bytes are the same in both files the
+	 * checksum already calculated from the first file, to avoid inflating them again
+	 *
+	 * @param inEntries  entries to read from the second file
+	 * @param inArchives handles to read the files
+	 * @return list of entries which still have to be read
+	 */
+	private List<EntryDetails> useCompressedMatches(List<EntryDetails> inEntries, Archives inArchives) {
+		boolean anyMatches = false;
+		for (int i = 0; i < inEntries.size() && !anyMatches; i++) {
+			anyMatches = canUseFirstSum(inEntries.get(i));
+		}
+		if (!anyMatches) {
+			return inEntries;
+		}
+		ArrayList<EntryDetails> toRead = new ArrayList<>();
+		try {
+			final CompressedComparer compressed = inArchives.getCompressed();
+			for (EntryDetails entry : inEntries) {
+				if (canUseFirstSum(entry) && compressedEqual(compressed, entry)) {
+					setSum(entry, 1, entry.getMd5Sum(0));
+				} else {
+					toRead.add(entry);
+				}
+			}
+		} catch (IOException e) {
+			// Any problem with the files will be reported when inflating the entries
+			return inEntries;
+		}
+		return toRead;
+	}
+
+	/**
+	 * @param inEntry entry to check
+	 * @return true if the entry has a checksum from the first file and is stored in
+	 *         the same way in both files
+	 */
+	private static boolean canUseFirstSum(EntryDetails inEntry) {
+		return inEntry.getStore().hasDigest(inEntry.getEntryNum(), 0) && CompressedComparer.canCompare(inEntry);
+	}
+
+	/**
+	 * Take the checksums of the given entries from the cache where possible
+	 *
+	 * @param inEntries entries to check
+	 * @param inIndex   file index, either 0 or 1
+	 * @return list of entries which weren't found in the cache
+	 */
+	private List<EntryDetails> useCachedSums(List<EntryDetails> inEntries, int inIndex) {
+		ArrayList<EntryDetails> notFound = new ArrayList<>();
+		for (EntryDetails entry : inEntries) {
+			String digest = cache.get(archiveKeys[inIndex], entry, inIndex, algorithm);
+			if (digest == null) {
+				notFound.add(entry);
+			} else {
+				entry.setMd5Sum(inIndex, digest);
+			}
+		}
+		return notFound;
+	}
+
+	/**
+	 * Store a newly calculated checksum
+	 *
+	 * @param inEntry  entry
+	 * @param inIndex  file index, either 0 or 1
+	 * @param inDigest checksum
+	 */
+	private void setSum(EntryDetails inEntry, int inIndex, String inDigest) {
+		inEntry.setMd5Sum(inIndex, inDigest);
+		if (cache != null) {
+			cache.put(archiveKeys[inIndex], inEntry, inIndex, algorithm, inDigest);
+		}
+	}
+
+	/**
+	 * Hash a single entry and store the result
+	 *
+	 * @param inZip    zip file to read from
+	 * @param inEngine digest engine to use
+	 * @param inEntry  entry to hash
+	 * @param inIndex  file index, either 0 or 1
+	 */
+	private void hashEntry(ZipFile inZip, DigestEngine inEngine, EntryDetails inEntry, int inIndex)
+			throws IOException {
+		ZipEntry zipEntry = inZip.getEntry(inEntry.getName());
+		if (zipEntry == null) {
+			Comparer.reportError(settings, "zipEntry for " + inEntry.getName() + " shouldn't be null!");
+		} else {
+			try (InputStream in = progress.wrap(inZip.getInputStream(zipEntry))) {
+				setSum(inEntry, inIndex, inEngine.digest(in));
+			}
+		}
+	}
+
+	/**
+	 * Hash the given entries of a nested archive in a single pass through it
+	 *
+	 * @param inZip           zip file to read from
+	 * @param inEngine        digest engine to use
+	 * @param inContainerPath path of nested archive
+	 * @param inEntries       entries to hash, keyed by name within the nested archive
+	 * @param inIndex         file index, either 0 or 1
+	 */
+	private void hashNestedEntries(ZipFile inZip, DigestEngine inEngine, String inContainerPath,
+			HashMap<String, EntryDetails> inEntries, int inIndex) throws IOException {
+		int numRemaining = inEntries.size();
+		try (ZipInputStream zipStream = new ZipInputStream(NestedArchives.openEntry(inZip, inContainerPath, progress))) {
+			ZipEntry zipEntry;
+			while (numRemaining > 0 && (zipEntry = zipStream.getNextEntry()) != null) {
+				EntryDetails entry = inEntries.get(zipEntry.getName());
+				if (entry != null) {
+					setSum(entry, inIndex, inEngine.digest(zipStream));
+					numRemaining--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles for reading both files, each only opened when first needed
+	 */
+	private class Archives implements AutoCloseable {
+		/** Zip files, or null if not opened yet */
+		private final ZipFile[] zips = new ZipFile[2];
+		/** Comparer of the compressed bytes, or null if not opened yet */
+		private CompressedComparer compressed = null;
+
+		/**
+		 * @param inIndex file index, either 0 or 1
+		 * @return zip file
+		 * @throws IOException if the file couldn't be opened
+		 */
+		ZipFile getZip(int inIndex) throws IOException {
+			if (zips[inIndex] == null) {
+				zips[inIndex] = new ZipFile(files[inIndex]);
+			}
+			return zips[inIndex];
+		}
+
+		/**
+		 * @return comparer of the compressed bytes
+		 * @throws IOException if either file couldn't be opened
+		 */
+		CompressedComparer getCompressed() throws IOException {
+			if (compressed == null) {
+				compressed = new CompressedComparer(files[0], files[1]);
+			}
+			return compressed;
+		}
+
+		@Override
+		public void close() {
+			for (AutoCloseable handle : new AutoCloseable[] {zips[0], zips[1], compressed}) {
+				try {
+					if (handle != null) {
+						handle.close();
+					}
+				} catch (Exception e) {
+					// Nothing more to read, so nothing lost
+				}
+			}
+		}
+	}
+
+	/**
+	 * Task to hash a range of entries, splitting it if it's too big
+	 */
+	private class HashTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		/** Start index, inclusive */
+		private final int start;
+		/** End index, exclusive */
+		private final int end;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inStart start index, inclusive
+		 * @param inEnd   end index, exclusive
+		 */
+		HashTask(int inStart, int inEnd) {
+			start = inStart;
+			end = inEnd;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= 1 || cumulativeSizes[end] - cumulativeSizes[start] <= splitThreshold) {
+				hashRange(start, end);
+			} else {
+				int split = findSplit(start, end);
+				invokeAll(new HashTask(start, split), new HashTask(split, end));
+			}
+		}
+	}
+}
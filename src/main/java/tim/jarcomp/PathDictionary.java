@@ -0,0 +1,474 @@
+package tim.jarcomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Class to hold the names of entries as a tree of directories. Each directory
+ * is stored once with a link to its parent, and each entry only holds its
+ * directory and the last part of its name. Names are kept as utf-8 bytes, and
+ * can be looked up without building any strings
+ */
+class PathDictionary {
+	/** Number of the root directory, which has no name */
+	static final int ROOT = 0;
+	/** Separator between the parts of a path */
+	private static final byte SEPARATOR = '/';
+
+	/** Number of directories, including the root */
+	private int numDirs = 1;
+	/** Parent of each directory, -1 for the root */
+	private int[] dirParents;
+	/** Start of each directory's name in the directory pool, with the end of the last one at the end */
+	private int[] dirStarts;
+	/** Names of all directories, one after the other */
+	private byte[] dirPool;
+	/** Hash table of directory number + 1 keyed by parent and name, 0 for an empty slot */
+	private int[] dirTable;
+
+	/** Number of entries */
+	private int numEntries = 0;
+	/** Directory of each entry */
+	private int[] entryDirs;
+	/** Start of each entry's own name in the leaf pool, with the end of the last one at the end */
+	private int[] leafStarts;
+	/** Last parts of the names of all entries, one after the other */
+	private byte[] leafPool;
+	/** Hash table of entry number + 1 keyed by directory and name, 0 for an empty slot */
+	private int[] entryTable;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inCapacity expected number of entries
+	 */
+	PathDictionary(int inCapacity) {
+		final int dirCapacity = Math.max(inCapacity / 8, 8);
+		dirParents = new int[dirCapacity];
+		dirParents[ROOT] = -1;
+		dirStarts = new int[dirCapacity + 1];
+		dirPool = new byte[dirCapacity * 16];
+		dirTable = new int[tableSizeFor(dirCapacity)];
+		entryDirs = new int[inCapacity];
+		leafStarts = new int[inCapacity + 1];
+		leafPool = new byte[inCapacity * 16];
+		entryTable = new int[tableSizeFor(inCapacity)];
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return numEntries;
+	}
+
+	/**
+	 * @return number of directories, including the root
+	 */
+	int getNumDirectories() {
+		return numDirs;
+	}
+
+	/**
+	 * Count the slots of the hash table looked at to find every entry, which shows
+	 * how well the names are spread over the table
+	 *
+	 * @return total number of slots, at least the number of entries
+	 */
+	long countEntryProbes() {
+		final int mask = entryTable.length - 1;
+		long probes = 0L;
+		for (int slot = 0; slot < entryTable.length; slot++) {
+			final int entry = entryTable[slot] - 1;
+			if (entry >= 0) {
+				final int home = hash(entryDirs[entry], leafPool, leafStarts[entry], leafStarts[entry + 1]) & mask;
+				probes += ((slot - home) & mask) + 1;
+			}
+		}
+		return probes;
+	}
+
+	/**
+	 * Make room for the given number of entries
+	 *
+	 * @param inNumEntries number of entries
+	 */
+	void ensureCapacity(int inNumEntries) {
+		if (inNumEntries > entryDirs.length) {
+			resizeEntries(inNumEntries);
+		}
+	}
+
+	/**
+	 * @param inName full name as utf-8 bytes
+	 * @return number of the entry with this name, or -1 if not found
+	 */
+	int find(byte[] inName) {
+		return find(inName, inName.length);
+	}
+
+	/**
+	 * @param inName   array starting with the full name as utf-8 bytes
+	 * @param inLength length of the name
+	 * @return number of the entry with this name, or -1 if not found
+	 */
+	int find(byte[] inName, int inLength) {
+		final int leafStart = lastSeparator(inName, inLength) + 1;
+		final int dir = findDirectories(inName, leafStart, false);
+		if (dir < 0) {
+			return -1;
+		}
+		return findEntry(dir, inName, leafStart, inLength);
+	}
+
+	/**
+	 * Add a new entry, adding its directories if necessary
+	 *
+	 * @param inName full name as utf-8 bytes, which mustn't be there already
+	 * @return number of the new entry
+	 */
+	int add(byte[] inName) {
+		return add(inName, inName.length);
+	}
+
+	/**
+	 * Add a new entry, adding its directories if necessary
+	 *
+	 * @param inName   array starting with the full name as utf-8 bytes, which mustn't be there already
+	 * @param inLength length of the name
+	 * @return number of the new entry
+	 */
+	int add(byte[] inName, int inLength) {
+		if (numEntries == entryDirs.length) {
+			resizeEntries(entryDirs.length * 2);
+		}
+		final int leafStart = lastSeparator(inName, inLength) + 1;
+		final int entry = numEntries;
+		entryDirs[entry] = findDirectories(inName, leafStart, true);
+		setLeaf(entry, inName, leafStart, inLength);
+		numEntries++;
+		insertEntry(entry);
+		return entry;
+	}
+
+	/**
+	 * Rename the last entry
+	 *
+	 * @param inName new full name as utf-8 bytes
+	 */
+	void renameLast(byte[] inName) {
+		final int entry = numEntries - 1;
+		final int leafStart = lastSeparator(inName, inName.length) + 1;
+		entryDirs[entry] = findDirectories(inName, leafStart, true);
+		setLeaf(entry, inName, leafStart, inName.length);
+		// rebuild the table without the old name
+		Arrays.fill(entryTable, 0);
+		for (int i = 0; i < numEntries; i++) {
+			insertEntry(i);
+		}
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return full name of the entry
+	 */
+	String getName(int inEntry) {
+		final int dir = entryDirs[inEntry];
+		final int leafLength = leafStarts[inEntry + 1] - leafStarts[inEntry];
+		final int pathLength = getPathLength(dir);
+		byte[] name = new byte[pathLength + leafLength];
+		copyPath(dir, name, pathLength);
+		System.arraycopy(leafPool, leafStarts[inEntry], name, pathLength, leafLength);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return last part of the entry's name, without its directory
+	 */
+	String getLeafName(int inEntry) {
+		final int start = leafStarts[inEntry];
+		return new String(leafPool, start, leafStarts[inEntry + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param inEntry1 first entry number
+	 * @param inEntry2 second entry number
+	 * @return true if the last parts of the names of both entries are the same
+	 */
+	boolean leafEquals(int inEntry1, int inEntry2) {
+		final int start1 = leafStarts[inEntry1];
+		final int start2 = leafStarts[inEntry2];
+		final int length = leafStarts[inEntry1 + 1] - start1;
+		if (leafStarts[inEntry2 + 1] - start2 != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (leafPool[start1 + i] != leafPool[start2 + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return number of the entry's directory
+	 */
+	int getDirectory(int inEntry) {
+		return entryDirs[inEntry];
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return number of the parent directory, or -1 for the root
+	 */
+	int getParent(int inDir) {
+		return dirParents[inDir];
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return last part of the directory's name, empty for the root
+	 */
+	String getDirectoryName(int inDir) {
+		final int start = dirStarts[inDir];
+		return new String(dirPool, start, dirStarts[inDir + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return full path of the directory including the final separator, empty for
+	 *         the root
+	 */
+	String getDirectoryPath(int inDir) {
+		byte[] path = new byte[getPathLength(inDir)];
+		copyPath(inDir, path, path.length);
+		return new String(path, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param inDir directory number
+	 * @return number of bytes in the full path of the directory, including separators
+	 */
+	private int getPathLength(int inDir) {
+		int length = 0;
+		for (int dir = inDir; dir != ROOT; dir = dirParents[dir]) {
+			length += dirStarts[dir + 1] - dirStarts[dir] + 1;
+		}
+		return length;
+	}
+
+	/**
+	 * Copy the full path of a directory to the start of the given array
+	 *
+	 * @param inDir        directory number
+	 * @param inDest       array which is long enough for the path
+	 * @param inPathLength length of the path
+	 */
+	private void copyPath(int inDir, byte[] inDest, int inPathLength) {
+		int end = inPathLength;
+		for (int dir = inDir; dir != ROOT; dir = dirParents[dir]) {
+			inDest[--end] = SEPARATOR;
+			final int length = dirStarts[dir + 1] - dirStarts[dir];
+			end -= length;
+			System.arraycopy(dirPool, dirStarts[dir], inDest, end, length);
+		}
+	}
+
+	/**
+	 * @param inName   name as utf-8 bytes
+	 * @param inLength length of the name
+	 * @return index of the last separator, or -1 if there isn't one
+	 */
+	private static int lastSeparator(byte[] inName, int inLength) {
+		for (int i = inLength - 1; i >= 0; i--) {
+			if (inName[i] == SEPARATOR) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Follow the directories in the given name from the root
+	 *
+	 * @param inName      full name as utf-8 bytes
+	 * @param inLeafStart index of the start of the last part
+	 * @param inCreate    true to add any directories which aren't there yet
+	 * @return number of the last directory, or -1 if not found
+	 */
+	private int findDirectories(byte[] inName, int inLeafStart, boolean inCreate) {
+		int dir = ROOT;
+		int start = 0;
+		while (start < inLeafStart) {
+			int end = start;
+			while (inName[end] != SEPARATOR) {
+				end++;
+			}
+			int child = findDirectory(dir, inName, start, end);
+			if (child < 0) {
+				if (!inCreate) {
+					return -1;
+				}
+				child = addDirectory(dir, inName, start, end);
+			}
+			dir = child;
+			start = end + 1;
+		}
+		return dir;
+	}
+
+	/**
+	 * @param inParent parent directory
+	 * @param inName   array holding the name
+	 * @param inStart  start of the name, inclusive
+	 * @param inEnd    end of the name, exclusive
+	 * @return number of the directory, or -1 if not found
+	 */
+	private int findDirectory(int inParent, byte[] inName, int inStart, int inEnd) {
+		final int mask = dirTable.length - 1;
+		for (int slot = hash(inParent, inName, inStart, inEnd) & mask;; slot = (slot + 1) & mask) {
+			final int dir = dirTable[slot] - 1;
+			if (dir < 0) {
+				return -1;
+			}
+			if (dirParents[dir] == inParent
+					&& Arrays.equals(dirPool, dirStarts[dir], dirStarts[dir + 1], inName, inStart, inEnd)) {
+				return dir;
+			}
+		}
+	}
+
+	/**
+	 * @param inParent parent directory
+	 * @param inName   array holding the name
+	 * @param inStart  start of the name, inclusive
+	 * @param inEnd    end of the name, exclusive
+	 * @return number of the new directory
+	 */
+	private int addDirectory(int inParent, byte[] inName, int inStart, int inEnd) {
+		if (numDirs == dirParents.length) {
+			final int capacity = numDirs * 2;
+			dirParents = Arrays.copyOf(dirParents, capacity);
+			dirStarts = Arrays.copyOf(dirStarts, capacity + 1);
+			dirTable = new int[tableSizeFor(capacity)];
+			for (int i = 1; i < numDirs; i++) {
+				insertDirectory(i);
+			}
+		}
+		final int dir = numDirs;
+		final int start = dirStarts[dir];
+		final int length = inEnd - inStart;
+		if (start + length > dirPool.length) {
+			dirPool = Arrays.copyOf(dirPool, Math.max(dirPool.length * 2, start + length));
+		}
+		System.arraycopy(inName, inStart, dirPool, start, length);
+		dirStarts[dir + 1] = start + length;
+		dirParents[dir] = inParent;
+		numDirs++;
+		insertDirectory(dir);
+		return dir;
+	}
+
+	/**
+	 * @param inDir directory to put into the table
+	 */
+	private void insertDirectory(int inDir) {
+		final int mask = dirTable.length - 1;
+		int slot = hash(dirParents[inDir], dirPool, dirStarts[inDir], dirStarts[inDir + 1]) & mask;
+		while (dirTable[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		dirTable[slot] = inDir + 1;
+	}
+
+	/**
+	 * @param inDir       directory of entry
+	 * @param inName      full name as utf-8 bytes
+	 * @param inLeafStart index of the start of the last part
+	 * @param inLength    length of the name
+	 * @return number of the entry, or -1 if not found
+	 */
+	private int findEntry(int inDir, byte[] inName, int inLeafStart, int inLength) {
+		final int mask = entryTable.length - 1;
+		for (int slot = hash(inDir, inName, inLeafStart, inLength) & mask;; slot = (slot + 1) & mask) {
+			final int entry = entryTable[slot] - 1;
+			if (entry < 0) {
+				return -1;
+			}
+			if (entryDirs[entry] == inDir && Arrays.equals(leafPool, leafStarts[entry], leafStarts[entry + 1], inName,
+					inLeafStart, inLength)) {
+				return entry;
+			}
+		}
+	}
+
+	/**
+	 * Put the last part of the name of the last entry at the end of the pool
+	 *
+	 * @param inEntry     entry number
+	 * @param inName      full name as utf-8 bytes
+	 * @param inLeafStart index of the start of the last part
+	 * @param inLength    length of the name
+	 */
+	private void setLeaf(int inEntry, byte[] inName, int inLeafStart, int inLength) {
+		final int start = leafStarts[inEntry];
+		final int length = inLength - inLeafStart;
+		if (start + length > leafPool.length) {
+			leafPool = Arrays.copyOf(leafPool, Math.max(leafPool.length + leafPool.length / 2, start + length));
+		}
+		System.arraycopy(inName, inLeafStart, leafPool, start, length);
+		leafStarts[inEntry + 1] = start + length;
+	}
+
+	/**
+	 * @param inEntry entry to put into the table
+	 */
+	private void insertEntry(int inEntry) {
+		final int mask = entryTable.length - 1;
+		int slot = hash(entryDirs[inEntry], leafPool, leafStarts[inEntry], leafStarts[inEntry + 1]) & mask;
+		while (entryTable[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		entryTable[slot] = inEntry + 1;
+	}
+
+	/**
+	 * @param inCapacity new number of entries
+	 */
+	private void resizeEntries(int inCapacity) {
+		entryDirs = Arrays.copyOf(entryDirs, inCapacity);
+		leafStarts = Arrays.copyOf(leafStarts, inCapacity + 1);
+		if (entryTable.length < tableSizeFor(inCapacity)) {
+			entryTable = new int[tableSizeFor(inCapacity)];
+			for (int i = 0; i < numEntries; i++) {
+				insertEntry(i);
+			}
+		}
+	}
+
+	/**
+	 * @param inCapacity number of items
+	 * @return size of hash table to keep it at most half full
+	 */
+	private static int tableSizeFor(int inCapacity) {
+		return Integer.highestOneBit(Math.max(inCapacity, 8) * 2 - 1) * 2;
+	}
+
+	/**
+	 * @param inParent number of the containing directory
+	 * @param inBytes  array of bytes
+	 * @param inStart  start index, inclusive
+	 * @param inEnd    end index, exclusive
+	 * @return hash value of the directory and the given bytes
+	 */
+	private static int hash(int inParent, byte[] inBytes, int inStart, int inEnd) {
+		int hash = inParent * 0x9e3779b1;
+		for (int i = inStart; i < inEnd; i++) {
+			hash = 31 * hash + inBytes[i];
+		}
+		// spread the high bits downwards, as the tables use the low ones
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -5,14 +5,17 @@ package tim.jarcomp;
  */
 class SizeChange implements Comparable<SizeChange> {
 	/** Size difference, positive means the file has grown larger */
-	private long sizeDiff = 0L;
+	private final long sizeDiff;
 	/** True if the files are in any way different, even if the size is the same */
-	private boolean changed = false;
+	private final boolean changed;
 
 	/**
-	 * Update the difference object when the details are found
+	 * Constructor
+	 *
+	 * @param inDiff    size difference
+	 * @param inChanged true if the files are different
 	 */
-	public void update(long inDiff, boolean inChanged) {
+	SizeChange(long inDiff, boolean inChanged) {
 		sizeDiff = inDiff;
 		changed = inChanged;
 	}
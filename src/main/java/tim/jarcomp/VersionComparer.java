@@ -0,0 +1,217 @@
+package tim.jarcomp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Class to compare several versions of an archive in one go, such as a series
+ * of releases. Each archive is listed once into a single store, instead of
+ * comparing each pair of neighbouring versions separately and so reading every
+ * archive twice. Only entries with the same size as in a neighbouring version
+ * are read to calculate their checksums
+ */
+public abstract class VersionComparer {
+
+	private VersionComparer() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * Compare the given versions using the given settings. Nested archives aren't
+	 * looked inside, and the contents are always compared using checksums
+	 *
+	 * @param inFiles    archives to compare, oldest first
+	 * @param inSettings options for the comparison
+	 * @return store holding the details of each version of each entry
+	 */
+	public static VersionStore compare(List<File> inFiles, CompareSettings inSettings) {
+		CompareProgress progress = inSettings.getProgress();
+		progress.setPhase(CompareProgress.Phase.LISTING, 0L);
+		Comparer.notifyProgress(inSettings);
+		VersionStore store = new VersionStore(inFiles.size(), 16);
+		try {
+			for (int v = 0; v < inFiles.size(); v++) {
+				if (!listEntries(store, inFiles.get(v), v, inSettings)) {
+					listEntriesUsingZipFile(store, inFiles.get(v), v, inSettings);
+				}
+			}
+			final CompareSettings.CompareMode mode = inSettings.getMode();
+			store.setCrcsCompared(mode == CompareSettings.CompareMode.CRC);
+			if (mode.readsContents()) {
+				calculateSums(store, inFiles, inSettings);
+			}
+			progress.finish(CompareProgress.Phase.FINISHED);
+		} catch (CancellationException e) {
+			progress.finish(CompareProgress.Phase.CANCELLED);
+		}
+		Comparer.notifyProgress(inSettings);
+		return store;
+	}
+
+	/**
+	 * Add the entries of one version by reading its central directory directly
+	 *
+	 * @param inStore    store to fill
+	 * @param inFile     archive to read
+	 * @param inVersion  version number
+	 * @param inSettings settings giving the progress
+	 * @return true if successful, false if the file has to be read using ZipFile
+	 */
+	private static boolean listEntries(VersionStore inStore, File inFile, int inVersion,
+			CompareSettings inSettings) {
+		try {
+			CentralDirectory dir = CentralDirectory.open(inFile);
+			if (dir.getNumEntries() > Integer.MAX_VALUE) {
+				return false;
+			}
+			inStore.ensureCapacity((int) Math.max(dir.getNumEntries(), inStore.size()));
+			CentralDirectory.Cursor cursor = dir.cursor();
+			while (cursor.next()) {
+				inSettings.getProgress().checkCancelled();
+				if (!cursor.isDirectory()) {
+					inStore.setDetails(inStore.getOrAdd(cursor.getName()), inVersion, cursor.getSize(),
+							cursor.getCrc());
+				}
+			}
+			return true;
+		} catch (IOException ioe) {
+			System.err.println("Reading central directory failed: " + ioe.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Add the entries of one version using ZipFile
+	 *
+	 * @param inStore    store to fill
+	 * @param inFile     archive to read
+	 * @param inVersion  version number
+	 * @param inSettings settings giving the progress and listener for errors
+	 */
+	private static void listEntriesUsingZipFile(VersionStore inStore, File inFile, int inVersion,
+			CompareSettings inSettings) {
+		try (ZipFile zip = new ZipFile(inFile)) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while (zipEntries.hasMoreElements()) {
+				inSettings.getProgress().checkCancelled();
+				ZipEntry ze = zipEntries.nextElement();
+				if (!ze.isDirectory()) {
+					inStore.setDetails(inStore.getOrAdd(ze.getName()), inVersion, ze.getSize(), ze.getCrc());
+				}
+			}
+		} catch (IOException ioe) {
+			Comparer.reportError(inSettings, "Ouch: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Calculate the checksums of the entries which have the same size as in a
+	 * neighbouring version, one thread per version
+	 *
+	 * @param inStore    store holding the entries
+	 * @param inFiles    archives
+	 * @param inSettings settings giving digest algorithm, threads, progress and listener
+	 */
+	private static void calculateSums(VersionStore inStore, List<File> inFiles, CompareSettings inSettings) {
+		final int numVersions = inFiles.size();
+		ArrayList<int[]> toHash = new ArrayList<>();
+		long total = 0L;
+		for (int v = 0; v < numVersions; v++) {
+			int[] entries = new int[inStore.size()];
+			int numEntries = 0;
+			for (int e = 0; e < inStore.size(); e++) {
+				// Entries with a different size in both neighbours are known to have changed
+				if (inStore.isPresent(e, v)
+						&& (hasSameSize(inStore, e, v, v - 1) || hasSameSize(inStore, e, v, v + 1))) {
+					entries[numEntries++] = e;
+				}
+			}
+			toHash.add(Arrays.copyOf(entries, numEntries));
+			total += numEntries;
+		}
+		CompareProgress progress = inSettings.getProgress();
+		progress.setPhase(CompareProgress.Phase.CHECKING_CONTENTS, total);
+		Comparer.notifyProgress(inSettings);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(inSettings.getNumThreads(), numVersions));
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			for (int v = 0; v < numVersions; v++) {
+				final int version = v;
+				futures.add(executor.submit(
+						() -> hashVersion(inStore, inFiles.get(version), version, toHash.get(version), inSettings)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CancellationException) {
+				throw (CancellationException) e.getCause();
+			}
+			Comparer.reportError(inSettings, "Exception: " + e.getCause());
+		} catch (InterruptedException e) {
+			progress.cancel();
+			throw new CancellationException();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param inStore    store holding the entries
+	 * @param inEntry    entry number
+	 * @param inVersion  version number
+	 * @param inVersion2 other version number, which may be out of range
+	 * @return true if the entry is present with the same size in the other version
+	 */
+	private static boolean hasSameSize(VersionStore inStore, int inEntry, int inVersion, int inVersion2) {
+		return inVersion2 >= 0 && inVersion2 < inStore.getNumVersions() && inStore.isPresent(inEntry, inVersion2)
+				&& inStore.getSize(inEntry, inVersion2) == inStore.getSize(inEntry, inVersion);
+	}
+
+	/**
+	 * Calculate the checksums of the given entries in one version
+	 *
+	 * @param inStore    store holding the entries
+	 * @param inFile     archive of this version
+	 * @param inVersion  version number
+	 * @param inEntries  numbers of the entries to hash
+	 * @param inSettings settings giving digest algorithm, progress and listener
+	 */
+	private static void hashVersion(VersionStore inStore, File inFile, int inVersion, int[] inEntries,
+			CompareSettings inSettings) {
+		final CompareProgress progress = inSettings.getProgress();
+		final CompareListener listener = inSettings.getListener();
+		DigestEngine engine = inSettings.getDigestAlgorithm().createEngine();
+		try (ZipFile zip = new ZipFile(inFile)) {
+			for (int entry : inEntries) {
+				final String name = inStore.getName(entry);
+				ZipEntry zipEntry = zip.getEntry(name);
+				if (zipEntry == null) {
+					Comparer.reportError(inSettings, "zipEntry for " + name + " shouldn't be null!");
+				} else {
+					try (InputStream in = progress.wrap(zip.getInputStream(zipEntry))) {
+						inStore.setDigest(entry, inVersion, engine.digest(in));
+					}
+				}
+				progress.entryProcessed();
+				if (listener != null) {
+					listener.progressChanged(progress);
+				}
+			}
+		} catch (IOException e) {
+			Comparer.reportError(inSettings, "Exception: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package tim.jarcomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import tim.jarcomp.EntryDetails.EntryStatus;
+
+/**
+ * Class to hold the entries of several versions of an archive, such as a
+ * series of releases, in one table. There's one row per name found in any of
+ * the versions, sharing a single dictionary of names, and one cell per version
+ * holding its presence, size, crc and checksum. Checksums are held as numbers
+ * into a list of the distinct checksums, so that equal contents have equal
+ * numbers
+ */
+public class VersionStore {
+	/** Number of versions */
+	private final int numVersions;
+	/** Number of entries */
+	private int numEntries = 0;
+	/** Names of all entries, held as a tree of directories */
+	private final PathDictionary names;
+	/** Sizes, one for each version of each entry */
+	private long[] sizes;
+	/** Crc values, one for each version of each entry */
+	private int[] crcs;
+	/** Bits for each version of each entry, set if the entry is present */
+	private long[] presentBits;
+	/** Bits for each version of each entry, set if the crc is known */
+	private long[] crcBits;
+	/** Checksum number + 1 for each version of each entry, or 0 if not known */
+	private int[] digestNums;
+	/** Distinct checksums, in the order they were found */
+	private final ArrayList<String> digests = new ArrayList<>();
+	/** Numbers of the distinct checksums */
+	private final HashMap<String, Integer> digestIndex = new HashMap<>();
+	/** True if the crc values decide whether same-sized entries are equal */
+	private boolean crcsCompared = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param inNumVersions number of versions
+	 * @param inCapacity    expected number of entries
+	 */
+	public VersionStore(int inNumVersions, int inCapacity) {
+		numVersions = inNumVersions;
+		final int capacity = Math.max(inCapacity, 1);
+		names = new PathDictionary(capacity);
+		sizes = new long[capacity * numVersions];
+		crcs = new int[capacity * numVersions];
+		presentBits = new long[getNumWords(capacity)];
+		crcBits = new long[getNumWords(capacity)];
+		digestNums = new int[capacity * numVersions];
+	}
+
+	/**
+	 * @param inCapacity number of entries
+	 * @return number of longs needed to hold one bit per version of each entry
+	 */
+	private int getNumWords(int inCapacity) {
+		return (int) (((long) inCapacity * numVersions + 63) >>> 6);
+	}
+
+	/**
+	 * @return number of versions
+	 */
+	public int getNumVersions() {
+		return numVersions;
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return numEntries;
+	}
+
+	/**
+	 * @param inName name of entry, including full path
+	 * @return number of the entry with this name, or -1 if not found
+	 */
+	public synchronized int find(String inName) {
+		return names.find(inName.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Find the entry with the given name, adding it if necessary
+	 *
+	 * @param inName name of entry, including full path
+	 * @return number of the entry
+	 */
+	public synchronized int getOrAdd(String inName) {
+		byte[] name = inName.getBytes(StandardCharsets.UTF_8);
+		int entry = names.find(name);
+		if (entry < 0) {
+			if (numEntries * numVersions == sizes.length) {
+				resize(numEntries * 2);
+			}
+			entry = names.add(name);
+			numEntries++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Make room for the given number of entries, to avoid growing the arrays step
+	 * by step
+	 *
+	 * @param inNumEntries number of entries
+	 */
+	public synchronized void ensureCapacity(int inNumEntries) {
+		if ((long) inNumEntries * numVersions > sizes.length) {
+			resize(inNumEntries);
+		}
+	}
+
+	/**
+	 * Change the size of all the arrays
+	 *
+	 * @param inCapacity number of entries
+	 */
+	private void resize(int inCapacity) {
+		names.ensureCapacity(inCapacity);
+		sizes = Arrays.copyOf(sizes, inCapacity * numVersions);
+		crcs = Arrays.copyOf(crcs, inCapacity * numVersions);
+		presentBits = Arrays.copyOf(presentBits, getNumWords(inCapacity));
+		crcBits = Arrays.copyOf(crcBits, getNumWords(inCapacity));
+		digestNums = Arrays.copyOf(digestNums, inCapacity * numVersions);
+	}
+
+	/**
+	 * @param inEntry entry number
+	 * @return name of entry
+	 */
+	public String getName(int inEntry) {
+		return names.getName(inEntry);
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @return true if the entry is present in this version
+	 */
+	public boolean isPresent(int inEntry, int inVersion) {
+		return getBit(presentBits, inEntry * numVersions + inVersion);
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @return size in this version, only valid if present
+	 */
+	public long getSize(int inEntry, int inVersion) {
+		return sizes[inEntry * numVersions + inVersion];
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @return crc value in this version, or -1 if not known
+	 */
+	public long getCrc(int inEntry, int inVersion) {
+		final int cell = inEntry * numVersions + inVersion;
+		return getBit(crcBits, cell) ? crcs[cell] & 0xffffffffL : -1L;
+	}
+
+	/**
+	 * Set the details of an entry in one version, which marks it as present
+	 *
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @param inSize    size in bytes
+	 * @param inCrc     crc value, or -1 if not known
+	 */
+	public synchronized void setDetails(int inEntry, int inVersion, long inSize, long inCrc) {
+		final int cell = inEntry * numVersions + inVersion;
+		sizes[cell] = inSize;
+		presentBits[cell >>> 6] |= 1L << cell;
+		if (inCrc >= 0L) {
+			crcs[cell] = (int) inCrc;
+			crcBits[cell >>> 6] |= 1L << cell;
+		}
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @return checksum in this version, or null if not calculated
+	 */
+	public synchronized String getDigest(int inEntry, int inVersion) {
+		final int digestNum = digestNums[inEntry * numVersions + inVersion];
+		return digestNum == 0 ? null : digests.get(digestNum - 1);
+	}
+
+	/**
+	 * @param inEntry   entry number
+	 * @param inVersion version number, starting at 0
+	 * @param inDigest  checksum of the contents in this version
+	 */
+	public synchronized void setDigest(int inEntry, int inVersion, String inDigest) {
+		Integer digestNum = digestIndex.get(inDigest);
+		if (digestNum == null) {
+			digests.add(inDigest);
+			digestNum = digests.size();
+			digestIndex.put(inDigest, digestNum);
+		}
+		digestNums[inEntry * numVersions + inVersion] = digestNum;
+	}
+
+	/**
+	 * @param inCompared true if the crc values decide whether same-sized entries
+	 *                   are equal, when there aren't any checksums
+	 */
+	void setCrcsCompared(boolean inCompared) {
+		crcsCompared = inCompared;
+	}
+
+	/**
+	 * Work out how an entry changed from the previous version to the given one
+	 *
+	 * @param inEntry   entry number
+	 * @param inVersion version number, at least 1
+	 * @return status of the change, or null if the entry is in neither version
+	 */
+	public synchronized EntryStatus getChange(int inEntry, int inVersion) {
+		final int cell = inEntry * numVersions + inVersion;
+		final boolean present0 = getBit(presentBits, cell - 1);
+		final boolean present1 = getBit(presentBits, cell);
+		if (!present0) {
+			return present1 ? EntryStatus.ADDED : null;
+		}
+		if (!present1) {
+			return EntryStatus.REMOVED;
+		}
+		if (sizes[cell - 1] != sizes[cell]) {
+			return EntryStatus.CHANGED_SIZE;
+		}
+		if (digestNums[cell - 1] != 0 && digestNums[cell] != 0) {
+			return digestNums[cell - 1] == digestNums[cell] ? EntryStatus.EQUAL : EntryStatus.CHANGED_SUM;
+		}
+		if (crcsCompared && getBit(crcBits, cell - 1) && getBit(crcBits, cell)) {
+			return crcs[cell - 1] == crcs[cell] ? EntryStatus.EQUAL : EntryStatus.CHANGED_SUM;
+		}
+		return EntryStatus.SAME_SIZE;
+	}
+
+	/**
+	 * @param inBits  array of bits
+	 * @param inIndex index of bit
+	 * @return true if the bit is set
+	 */
+	private static boolean getBit(long[] inBits, int inIndex) {
+		return (inBits[inIndex >>> 6] & (1L << inIndex)) != 0;
+	}
+}
@@ -0,0 +1,132 @@
+package tim.jarcomp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Digest engine calculating the 64-bit xxHash of the contents. This is much
+ * faster than the cryptographic digests, but only suitable for checking
+ * equality of entries
+ */
+class XxHash64Engine implements DigestEngine {
+	/** Buffer for reading, a multiple of the stripe length */
+	private final byte[] buffer = new byte[MessageDigestEngine.BUFFER_SIZE];
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	/** Number of bytes processed by each step of the main loop */
+	private static final int STRIPE_LENGTH = 32;
+
+	@Override
+	public String digest(InputStream inStream) throws IOException {
+		long v1 = PRIME1 + PRIME2;
+		long v2 = PRIME2;
+		long v3 = 0L;
+		long v4 = -PRIME1;
+		long totalLength = 0L;
+		while (true) {
+			int numRead = fill(inStream);
+			int numStripes = numRead / STRIPE_LENGTH;
+			for (int i = 0; i < numStripes; i++) {
+				int pos = i * STRIPE_LENGTH;
+				v1 = round(v1, getLong(buffer, pos));
+				v2 = round(v2, getLong(buffer, pos + 8));
+				v3 = round(v3, getLong(buffer, pos + 16));
+				v4 = round(v4, getLong(buffer, pos + 24));
+			}
+			totalLength += numRead;
+			if (numRead < buffer.length) {
+				// end of stream, so finish off with the remaining bytes
+				long hash;
+				if (totalLength >= STRIPE_LENGTH) {
+					hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+							+ Long.rotateLeft(v4, 18);
+					hash = mergeRound(hash, v1);
+					hash = mergeRound(hash, v2);
+					hash = mergeRound(hash, v3);
+					hash = mergeRound(hash, v4);
+				} else {
+					hash = PRIME5;
+				}
+				hash += totalLength;
+				hash = finish(hash, numStripes * STRIPE_LENGTH, numRead);
+				return String.format("%016x", hash);
+			}
+		}
+	}
+
+	/**
+	 * Fill the buffer as far as possible from the stream
+	 *
+	 * @param inStream stream to read
+	 * @return number of bytes read, less than the buffer size only at the end
+	 */
+	private int fill(InputStream inStream) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int numRead = inStream.read(buffer, total, buffer.length - total);
+			if (numRead < 0) {
+				break;
+			}
+			total += numRead;
+		}
+		return total;
+	}
+
+	/**
+	 * Process the last few bytes which don't make up a whole stripe
+	 *
+	 * @param inHash  hash so far
+	 * @param inStart position of first remaining byte in buffer
+	 * @param inEnd   end of data in buffer
+	 * @return final hash value
+	 */
+	private long finish(long inHash, int inStart, int inEnd) {
+		long hash = inHash;
+		int pos = inStart;
+		while (pos + 8 <= inEnd) {
+			hash ^= round(0L, getLong(buffer, pos));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			pos += 8;
+		}
+		if (pos + 4 <= inEnd) {
+			hash ^= (getInt(buffer, pos) & 0xffffffffL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			pos += 4;
+		}
+		while (pos < inEnd) {
+			hash ^= (buffer[pos] & 0xffL) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+			pos++;
+		}
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private static long round(long inAcc, long inInput) {
+		long acc = inAcc + inInput * PRIME2;
+		return Long.rotateLeft(acc, 31) * PRIME1;
+	}
+
+	private static long mergeRound(long inAcc, long inValue) {
+		return (inAcc ^ round(0L, inValue)) * PRIME1 + PRIME4;
+	}
+
+	/** @return little-endian long from the given position */
+	private static long getLong(byte[] inBytes, int inPos) {
+		return (getInt(inBytes, inPos) & 0xffffffffL) | ((long) getInt(inBytes, inPos + 4) << 32);
+	}
+
+	/** @return little-endian int from the given position */
+	private static int getInt(byte[] inBytes, int inPos) {
+		return (inBytes[inPos] & 0xff) | ((inBytes[inPos + 1] & 0xff) << 8) | ((inBytes[inPos + 2] & 0xff) << 16)
+				| ((inBytes[inPos + 3] & 0xff) << 24);
+	}
+}
@@ -0,0 +1,41 @@
+package tim.jarcomp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Simple benchmark of the throughput of each digest engine, run by hand rather
+ * than as part of the tests:
+ * java -cp target/classes:target/test-classes tim.jarcomp.DigestBenchmark [megabytes]
+ */
+public abstract class DigestBenchmark {
+	/** Default size of the random data in megabytes */
+	private static final int DEFAULT_SIZE_MB = 32;
+	/** Number of times each engine is timed, keeping the fastest */
+	private static final int NUM_RUNS = 5;
+
+	private DigestBenchmark() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * @param args optional size of the data in megabytes
+	 * @throws IOException never
+	 */
+	public static void main(String[] args) throws IOException {
+		final int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE_MB;
+		byte[] data = new byte[sizeMb * 1024 * 1024];
+		new Random(sizeMb).nextBytes(data);
+		for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+			DigestEngine engine = algorithm.createEngine();
+			long fastest = Long.MAX_VALUE;
+			for (int run = 0; run < NUM_RUNS; run++) {
+				final long start = System.nanoTime();
+				engine.digest(new ByteArrayInputStream(data));
+				fastest = Math.min(fastest, System.nanoTime() - start);
+			}
+			System.out.println(String.format("%-14s %8.1f MB/s", algorithm, sizeMb / (fastest / 1e9)));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package tim.jarcomp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the digest engines against reference values
+ */
+public class DigestEngineTest {
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void xxHash64MatchesReference() throws IOException {
+		assertEquals("ef46db3751d8e999", digest(DigestAlgorithm.XXHASH64, ""));
+		assertEquals("44bc2cf5ad770999", digest(DigestAlgorithm.XXHASH64, "abc"));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void md5MatchesReference() throws IOException {
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", digest(DigestAlgorithm.MD5, ""));
+		assertEquals("900150983cd24fb0d6963f7d28e17f72", digest(DigestAlgorithm.MD5, "abc"));
+		assertEquals("d41d8cd98f00b204e9800998ecf8427e", digest(DigestAlgorithm.LEGACY_MD5, ""));
+		assertEquals("900150983cd24fb0d6963f7d28e17f72", digest(DigestAlgorithm.LEGACY_MD5, "abc"));
+	}
+
+	/**
+	 * @throws IOException never
+	 */
+	@Test
+	public void sha256MatchesReference() throws IOException {
+		assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+				digest(DigestAlgorithm.SHA_256, "abc"));
+	}
+
+	/**
+	 * Digests mustn't depend on how the stream splits up its reads, which
+	 * matters for the xxHash stripes and the md5 blocks
+	 *
+	 * @throws IOException never
+	 */
+	@Test
+	public void digestIndependentOfReadSizes() throws IOException {
+		byte[] data = makeData(100003);
+		for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+			final String expected = algorithm.createEngine().digest(new ByteArrayInputStream(data));
+			for (int chunk : new int[] {1, 7, 31, 33, 4096}) {
+				assertEquals(algorithm + " with reads of " + chunk, expected,
+						algorithm.createEngine().digest(new ChunkedStream(data, chunk)));
+			}
+		}
+	}
+
+	/**
+	 * @param inAlgorithm algorithm to use
+	 * @param inText      text to digest
+	 * @return digest of the text's ascii bytes
+	 * @throws IOException never
+	 */
+	private static String digest(DigestAlgorithm inAlgorithm, String inText) throws IOException {
+		return inAlgorithm.createEngine().digest(
+				new ByteArrayInputStream(inText.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * @param inLength number of bytes
+	 * @return repeatable random data
+	 */
+	private static byte[] makeData(int inLength) {
+		byte[] data = new byte[inLength];
+		new Random(inLength).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Stream which never returns more than a given number of bytes from each read
+	 */
+	private static class ChunkedStream extends FilterInputStream {
+		/** Largest number of bytes returned by a read */
+		private final int chunkSize;
+
+		/**
+		 * Constructor
+		 *
+		 * @param inData      data to read
+		 * @param inChunkSize largest number of bytes returned by a read
+		 */
+		ChunkedStream(byte[] inData, int inChunkSize) {
+			super(new ByteArrayInputStream(inData));
+			chunkSize = inChunkSize;
+		}
+
+		@Override
+		public int read(byte[] inBuffer, int inOffset, int inLength) throws IOException {
+			return super.read(inBuffer, inOffset, Math.min(inLength, chunkSize));
+		}
+	}
+}
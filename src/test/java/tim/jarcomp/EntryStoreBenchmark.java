@@ -0,0 +1,32 @@
+package tim.jarcomp;
+
+/**
+ * Simple benchmark of the time taken to merge synthetic stores of 10k, 100k
+ * and 1M entries, run by hand rather than as part of the tests:
+ * java -cp target/classes:target/test-classes tim.jarcomp.EntryStoreBenchmark
+ */
+public abstract class EntryStoreBenchmark {
+	/** Number of times each merge is timed, keeping the fastest */
+	private static final int NUM_RUNS = 5;
+
+	private EntryStoreBenchmark() {
+		// Just here to hide the implicit public default constructor
+	}
+
+	/**
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		for (int size : new int[] {10000, 100000, 1000000}) {
+			String[] names = EntryStoreScalingTest.makeNames(size + size / 2);
+			long fastest = Long.MAX_VALUE;
+			for (int run = 0; run < NUM_RUNS; run++) {
+				final long start = System.nanoTime();
+				EntryStoreScalingTest.mergeNames(names, size);
+				fastest = Math.min(fastest, System.nanoTime() - start);
+			}
+			System.out.println(String.format("%8d entries %8.1f ms %6.1f ns/entry", size, fastest / 1e6,
+					(double) fastest / size));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package tim.jarcomp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import tim.jarcomp.EntryDetails.EntryStatus;
+
+/**
+ * Tests that merging the entries of two archives does work in proportion to
+ * the number of entries, using synthetic archives of 10k, 100k and 1M entries.
+ * Each name is matched with one hash lookup, so the work is measured by the
+ * number of slots of the hash table looked at per entry, which doesn't depend
+ * on how busy the machine is
+ */
+public class EntryStoreScalingTest {
+	/** Folder for the synthetic archives */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Largest allowed average number of slots looked at to find an entry, about 1.5 for a half-full table */
+	private static final double MAX_PROBES_PER_ENTRY = 2.0;
+
+	/**
+	 * Merge synthetic stores of 10k, 100k and 1M entries straight into the store
+	 */
+	@Test
+	public void storeMergeGrowsLinearly() {
+		for (int size : new int[] {10000, 100000, 1000000}) {
+			EntryStore store = mergeNames(makeNames(size + size / 2), size);
+			checkCounts(store, size);
+			checkProbes(store);
+		}
+	}
+
+	/**
+	 * Merge synthetic archives of 10k and 100k entries listed by Comparer.makeEntries
+	 *
+	 * @throws IOException if the archives couldn't be written
+	 */
+	@Test
+	public void archiveMergeGrowsLinearly() throws IOException {
+		CompareSettings settings = new CompareSettings();
+		for (int size : new int[] {10000, 100000}) {
+			String[] names = makeNames(size + size / 2);
+			File file1 = makeArchive(names, 0, size);
+			File file2 = makeArchive(names, size / 2, size + size / 2);
+			EntryStore store = new EntryStore();
+			assertEquals(size, Comparer.makeEntries(store, file1, 0, settings));
+			assertEquals(size, Comparer.makeEntries(store, file2, 1, settings));
+			checkCounts(store, size);
+			checkProbes(store);
+		}
+	}
+
+	/**
+	 * @param inNumNames number of names to make
+	 * @return names spread over a tree of directories, like the classes of a big jar
+	 */
+	static String[] makeNames(int inNumNames) {
+		String[] names = new String[inNumNames];
+		for (int i = 0; i < inNumNames; i++) {
+			names[i] = "com/example/module" + (i % 37) + "/pkg" + (i % 1009) + "/Class" + i + ".class";
+		}
+		return names;
+	}
+
+	/**
+	 * Put the first names into one side of a store and an overlapping range into the other
+	 *
+	 * @param inNames    all the names
+	 * @param inNumNames number of names on each side
+	 * @return filled store
+	 */
+	static EntryStore mergeNames(String[] inNames, int inNumNames) {
+		EntryStore store = new EntryStore();
+		for (int i = 0; i < inNumNames; i++) {
+			store.getOrAdd(inNames[i]).setSize(0, i);
+		}
+		for (int i = inNumNames / 2; i < inNumNames + inNumNames / 2; i++) {
+			store.getOrAdd(inNames[i]).setSize(1, i);
+		}
+		return store;
+	}
+
+	/**
+	 * Write an archive of empty entries
+	 *
+	 * @param inNames names of the entries
+	 * @param inStart first name to use, inclusive
+	 * @param inEnd   last name to use, exclusive
+	 * @return archive file
+	 * @throws IOException if the archive couldn't be written
+	 */
+	private File makeArchive(String[] inNames, int inStart, int inEnd) throws IOException {
+		File file = folder.newFile();
+		try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (int i = inStart; i < inEnd; i++) {
+				out.putNextEntry(new ZipEntry(inNames[i]));
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Check that half of each side was matched with the other
+	 *
+	 * @param inStore    merged store
+	 * @param inNumNames number of names on each side
+	 */
+	private static void checkCounts(EntryStore inStore, int inNumNames) {
+		assertEquals(inNumNames + inNumNames / 2, inStore.size());
+		assertEquals(inNumNames / 2, inStore.getNumEntries(EntryStatus.REMOVED));
+		assertEquals(inNumNames / 2, inStore.getNumEntries(EntryStatus.ADDED));
+	}
+
+	/**
+	 * Check that the entries are spread over the hash table well enough that
+	 * each one is found after looking at only a slot or two
+	 *
+	 * @param inStore merged store
+	 */
+	private static void checkProbes(EntryStore inStore) {
+		final double probesPerEntry = (double) inStore.getPaths().countEntryProbes() / inStore.size();
+		assertTrue("Average of " + probesPerEntry + " slots per entry for " + inStore.size() + " entries",
+				probesPerEntry < MAX_PROBES_PER_ENTRY);
+	}
+}